@@ -0,0 +1,22 @@
+package fi.helsinki.cs.tmc.benchmarks;
+
+import fi.helsinki.cs.tmc.core.utils.MockSettings;
+
+import java.nio.file.Path;
+
+/**
+ * Settings whose config files go to a scratch directory.
+ */
+final class BenchmarkSettings extends MockSettings {
+
+    private final Path configRoot;
+
+    BenchmarkSettings(Path configRoot) {
+        this.configRoot = configRoot;
+    }
+
+    @Override
+    public Path getConfigRoot() {
+        return configRoot;
+    }
+}
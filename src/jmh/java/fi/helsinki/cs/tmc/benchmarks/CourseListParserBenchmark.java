@@ -0,0 +1,61 @@
+package fi.helsinki.cs.tmc.benchmarks;
+
+import fi.helsinki.cs.tmc.core.communication.serialization.CourseListParser;
+import fi.helsinki.cs.tmc.core.domain.Course;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the course list of an organization, with and without touching
+ * the exercises of every course.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CourseListParserBenchmark {
+
+    @Param({"20", "200"})
+    public int courses;
+
+    @Param({"60"})
+    public int exercisesPerCourse;
+
+    private final CourseListParser parser = new CourseListParser();
+    private String json;
+
+    @Setup
+    public void setUp() {
+        json = Fixtures.courseListJson(courses, exercisesPerCourse);
+    }
+
+    @Benchmark
+    public List<Course> parseStubs() {
+        return parser.parseFromJson(new StringReader(json));
+    }
+
+    @Benchmark
+    public int parseAndBindExercises() {
+        int exercises = 0;
+        for (Course course : parser.parseFromJson(new StringReader(json))) {
+            exercises += course.getExercises().size();
+        }
+        return exercises;
+    }
+}
@@ -0,0 +1,68 @@
+package fi.helsinki.cs.tmc.benchmarks;
+
+import name.fraser.neil.plaintext.DiffMatchPatch;
+import name.fraser.neil.plaintext.DiffMatchPatch.Diff;
+import name.fraser.neil.plaintext.DiffMatchPatch.Patch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Diffing a source file against its state after a burst of edits, as is
+ * done for every text snapshot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DiffMatchPatchBenchmark {
+
+    @Param({"50", "1000"})
+    public int lines;
+
+    @Param({"1", "20"})
+    public int edits;
+
+    private final DiffMatchPatch dmp = new DiffMatchPatch();
+    private String before;
+    private String after;
+    private LinkedList<Diff> diffs;
+
+    @Setup
+    public void setUp() {
+        Random random = Fixtures.random();
+        before = Fixtures.sourceFile(random, lines);
+        after = Fixtures.edit(random, before, edits);
+        diffs = dmp.diff_main(before, after);
+    }
+
+    @Benchmark
+    public LinkedList<Diff> diffMain() {
+        return dmp.diff_main(before, after);
+    }
+
+    @Benchmark
+    public LinkedList<Patch> patchMake() {
+        return dmp.patch_make(before, after);
+    }
+
+    @Benchmark
+    public LinkedList<Patch> patchMakeFromDiffs() {
+        return dmp.patch_make(before, diffs);
+    }
+}
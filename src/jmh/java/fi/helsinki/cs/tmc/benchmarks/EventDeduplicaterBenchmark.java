@@ -0,0 +1,63 @@
+package fi.helsinki.cs.tmc.benchmarks;
+
+import fi.helsinki.cs.tmc.snapshots.EventDeduplicater;
+import fi.helsinki.cs.tmc.snapshots.EventReceiver;
+import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filtering events where, as when an IDE resends unchanged files, every
+ * other event repeats the previous one of its exercise.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EventDeduplicaterBenchmark {
+
+    private static final int EXERCISES = 20;
+
+    private LoggableEvent[] events;
+    private EventDeduplicater deduplicater;
+    private int next;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) {
+        LoggableEvent[] distinct = Fixtures.events(Fixtures.random(), 1024, EXERCISES);
+        events = new LoggableEvent[distinct.length * 2];
+        for (int i = 0; i < distinct.length; i++) {
+            events[2 * i] = distinct[i];
+            events[2 * i + 1] = distinct[i];
+        }
+        deduplicater = new EventDeduplicater(new EventReceiver() {
+            @Override
+            public void receiveEvent(LoggableEvent event) {
+                blackhole.consume(event);
+            }
+
+            @Override
+            public void close() {}
+        });
+    }
+
+    @Benchmark
+    public void receiveEvent() {
+        deduplicater.receiveEvent(events[next]);
+        next = (next + 1) % events.length;
+    }
+}
@@ -0,0 +1,68 @@
+package fi.helsinki.cs.tmc.benchmarks;
+
+import fi.helsinki.cs.tmc.snapshots.EventDeltaEncoder;
+import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding an upload of whole-file snapshots taken while a student types,
+ * each a few lines away from the previous one of its exercise.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EventDeltaEncoderBenchmark {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int EXERCISES = 4;
+    private static final int SNAPSHOTS = 256;
+
+    @Param({"100", "1000"})
+    public int lines;
+
+    private List<LoggableEvent> events;
+    private EventDeltaEncoder encoder;
+
+    @Setup
+    public void setUp() {
+        Random random = Fixtures.random();
+        String[] sources = new String[EXERCISES];
+        for (int i = 0; i < EXERCISES; i++) {
+            sources[i] = Fixtures.sourceFile(random, lines);
+        }
+        events = new ArrayList<>(SNAPSHOTS);
+        for (int i = 0; i < SNAPSHOTS; i++) {
+            int exercise = i % EXERCISES;
+            sources[exercise] = Fixtures.edit(random, sources[exercise], 2);
+            events.add(new LoggableEvent(
+                    "hy-ohjelmointi-100", "osa01-Osa01_" + exercise, "code_snapshot",
+                    sources[exercise].getBytes(UTF8)));
+        }
+        encoder = new EventDeltaEncoder();
+    }
+
+    @Benchmark
+    public List<LoggableEvent> encode() {
+        return encoder.encode(events);
+    }
+}
@@ -0,0 +1,89 @@
+package fi.helsinki.cs.tmc.benchmarks;
+
+import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
+import fi.helsinki.cs.tmc.snapshots.EventSendBuffer;
+import fi.helsinki.cs.tmc.snapshots.EventStore;
+import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
+
+import org.apache.commons.io.FileUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buffering events from the IDE's threads. The buffer is kept full so
+ * that the oldest events are dropped and autosending is attempted, as
+ * happens while offline. No course is selected, so nothing is sent.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EventSendBufferBenchmark {
+
+    private static final int MAX_EVENTS = 4096;
+
+    private Path configRoot;
+    private EventSendBuffer buffer;
+    private LoggableEvent[] events;
+
+    @Setup
+    public void setUp() throws IOException {
+        configRoot = Files.createTempDirectory("tmc-bench");
+        TmcSettingsHolder.set(new BenchmarkSettings(configRoot));
+        buffer = new EventSendBuffer(new EventStore());
+        buffer.setSendingInterval(TimeUnit.HOURS.toMillis(1));
+        buffer.setSavingInterval(TimeUnit.HOURS.toMillis(1));
+        buffer.setMaxEvents(MAX_EVENTS);
+        buffer.setAutosendThreshold(MAX_EVENTS / 2);
+        events = Fixtures.events(Fixtures.random(), MAX_EVENTS, 20);
+        for (LoggableEvent event : events) {
+            buffer.receiveEvent(event);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        buffer.close();
+        FileUtils.deleteDirectory(configRoot.toFile());
+    }
+
+    @State(Scope.Thread)
+    public static class Producer {
+        private int next;
+
+        LoggableEvent nextEvent(LoggableEvent[] events) {
+            LoggableEvent event = events[next];
+            next = (next + 1) % events.length;
+            return event;
+        }
+    }
+
+    @Benchmark
+    public void receiveEvent(Producer producer) {
+        buffer.receiveEvent(producer.nextEvent(events));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void receiveEventContended(Producer producer) {
+        buffer.receiveEvent(producer.nextEvent(events));
+    }
+}
@@ -0,0 +1,87 @@
+package fi.helsinki.cs.tmc.benchmarks;
+
+import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
+import fi.helsinki.cs.tmc.snapshots.EventStore;
+import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
+
+import org.apache.commons.io.FileUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persisting the buffered snapshot events and reading them back on
+ * startup. Each save sees a batch of new events while as many of the
+ * oldest ones have left the buffer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EventStoreBenchmark {
+
+    @Param({"1000", "32768"})
+    public int events;
+
+    @Param({"64"})
+    public int batch;
+
+    private Path configRoot;
+    private EventStore store;
+    private LoggableEvent[] pool;
+    private ArrayDeque<LoggableEvent> buffered;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        configRoot = Files.createTempDirectory("tmc-bench");
+        TmcSettingsHolder.set(new BenchmarkSettings(configRoot));
+        store = new EventStore();
+        // Events leave the buffer long before they come around again.
+        pool = Fixtures.events(Fixtures.random(), events * 2, 20);
+        buffered = new ArrayDeque<>(Arrays.asList(pool).subList(0, events));
+        next = events;
+        store.save(buffered.toArray(new LoggableEvent[buffered.size()]));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(configRoot.toFile());
+    }
+
+    @Benchmark
+    public void save() throws IOException {
+        for (int i = 0; i < batch; i++) {
+            buffered.addLast(pool[next]);
+            next = (next + 1) % pool.length;
+        }
+        while (buffered.size() > events) {
+            buffered.removeFirst();
+        }
+        store.save(buffered.toArray(new LoggableEvent[buffered.size()]));
+    }
+
+    @Benchmark
+    public LoggableEvent[] load() throws IOException {
+        return new EventStore().load();
+    }
+}
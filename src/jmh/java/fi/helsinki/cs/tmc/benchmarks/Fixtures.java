@@ -0,0 +1,242 @@
+package fi.helsinki.cs.tmc.benchmarks;
+
+import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * Generates inputs shaped like what the server and the IDE plugins produce.
+ *
+ * <p>Everything is derived from a fixed seed so that runs are comparable.
+ */
+final class Fixtures {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String SERVER = "https://tmc.example.com/org/hy";
+
+    private Fixtures() {}
+
+    static Random random() {
+        return new Random(0x7e57);
+    }
+
+    /**
+     * A course list response like the one of a large organization.
+     */
+    static String courseListJson(int courses, int exercisesPerCourse) {
+        JsonArray list = new JsonArray();
+        int exerciseId = 1000;
+        for (int c = 0; c < courses; c++) {
+            int courseId = 100 + c;
+            JsonObject course = new JsonObject();
+            course.addProperty("id", courseId);
+            course.addProperty("name", "hy-ohjelmointi-" + courseId);
+            course.addProperty("title", "Ohjelmoinnin perusteet " + courseId);
+            course.addProperty("description", "Kurssi " + courseId + " / Helsingin yliopisto");
+            course.addProperty("details_url", SERVER + "/courses/" + courseId + ".json");
+            course.addProperty("unlock_url", SERVER + "/courses/" + courseId + "/unlock.json");
+            course.addProperty("reviews_url", SERVER + "/courses/" + courseId + "/reviews.json");
+            course.addProperty("comet_url", "https://tmc.example.com:8443/comet");
+            JsonArray spywareUrls = new JsonArray();
+            spywareUrls.add(new JsonPrimitive("https://snapshots.example.com/"));
+            course.add("spyware_urls", spywareUrls);
+            course.add("unlockables", new JsonArray());
+
+            JsonArray exercises = new JsonArray();
+            for (int e = 0; e < exercisesPerCourse; e++) {
+                exercises.add(exercise(exerciseId++, e));
+            }
+            course.add("exercises", exercises);
+            list.add(course);
+        }
+        return list.toString();
+    }
+
+    private static JsonObject exercise(int id, int index) {
+        JsonObject exercise = new JsonObject();
+        exercise.addProperty("id", id);
+        exercise.addProperty(
+                "name", String.format("osa%02d-Osa%02d_%02d.Tehtava%d", index / 20 + 1, index / 20 + 1, index % 20, id));
+        exercise.addProperty("locked", false);
+        exercise.add("deadline_description", JsonNull.INSTANCE);
+        exercise.addProperty("deadline", "2016-12-31T23:59:00.000+02:00");
+        exercise.addProperty("checksum", String.format("%032x", (long) id * 0x9e3779b97f4a7c15L));
+        exercise.addProperty("return_url", SERVER + "/exercises/" + id + "/submissions.json");
+        exercise.addProperty("zip_url", SERVER + "/exercises/" + id + ".zip");
+        exercise.addProperty("returnable", true);
+        exercise.addProperty("requires_review", false);
+        exercise.addProperty("attempted", index % 3 == 0);
+        exercise.addProperty("completed", index % 4 == 0);
+        exercise.addProperty("reviewed", false);
+        exercise.addProperty("all_review_points_given", true);
+        exercise.add("memory_limit", JsonNull.INSTANCE);
+        exercise.add("runtime_params", new JsonArray());
+        exercise.add("valgrind_strategy", JsonNull.INSTANCE);
+        exercise.addProperty("code_review_requests_enabled", true);
+        exercise.addProperty("run_tests_locally_action_enabled", true);
+        exercise.addProperty(
+                "exercise_submissions_url", SERVER + "/exercises/" + id + ".json?api_version=7");
+        return exercise;
+    }
+
+    /**
+     * A processed submission where every fourth test fails with a stack
+     * trace, with checkstyle validations attached.
+     */
+    static String submissionResultJson(int testCases) {
+        JsonObject result = new JsonObject();
+        result.addProperty("api_version", 7);
+        result.addProperty("all_tests_passed", false);
+        result.addProperty("user_id", 52);
+        result.addProperty("course", "hy-ohjelmointi-100");
+        result.addProperty("exercise_name", "osa01-Osa01_01.Tehtava1000");
+        result.addProperty("status", "fail");
+        result.add("points", new JsonArray());
+        result.addProperty("processing_time", 14);
+        result.addProperty("message_for_paste", "");
+        result.add("missing_review_points", new JsonArray());
+
+        JsonArray tests = new JsonArray();
+        for (int i = 0; i < testCases; i++) {
+            boolean successful = i % 4 != 0;
+            JsonObject test = new JsonObject();
+            test.addProperty("name", "TehtavaTest testi" + i);
+            test.addProperty("successful", successful);
+            test.addProperty("message", successful ? "" : "Odotettiin tulosteen sisältävän " + i);
+            if (!successful) {
+                test.add("exception", exception(i));
+            }
+            tests.add(test);
+        }
+        result.add("test_cases", tests);
+
+        JsonObject validations = new JsonObject();
+        validations.addProperty("strategy", "FAIL");
+        JsonObject errors = new JsonObject();
+        JsonArray fileErrors = new JsonArray();
+        for (int i = 0; i < 5; i++) {
+            JsonObject error = new JsonObject();
+            error.addProperty("column", 9);
+            error.addProperty("line", 10 + i);
+            error.addProperty("message", "Indentation incorrect. Expected 8, but was 9.");
+            error.addProperty("sourceName", "com.puppycrawl.tools.checkstyle.checks.indentation");
+            fileErrors.add(error);
+        }
+        errors.add("Tehtava.java", fileErrors);
+        validations.add("validationErrors", errors);
+        result.add("validations", validations);
+        return result.toString();
+    }
+
+    private static JsonObject exception(int index) {
+        JsonObject exception = new JsonObject();
+        exception.addProperty("className", "java.lang.AssertionError");
+        exception.addProperty("message", "Odotettiin tulosteen sisältävän " + index);
+        JsonArray stackTrace = new JsonArray();
+        String[][] frames = {
+            {"org.junit.Assert", "fail", "Assert.java", "88"},
+            {"org.junit.Assert", "assertTrue", "Assert.java", "41"},
+            {"TehtavaTest", "testi" + index, "TehtavaTest.java", String.valueOf(20 + index)},
+            {"sun.reflect.NativeMethodAccessorImpl", "invoke0", "NativeMethodAccessorImpl.java", "-2"},
+            {"sun.reflect.NativeMethodAccessorImpl", "invoke", "NativeMethodAccessorImpl.java", "62"},
+            {"java.lang.reflect.Method", "invoke", "Method.java", "498"},
+            {"org.junit.runners.model.FrameworkMethod$1", "runReflectiveCall", "FrameworkMethod.java", "50"},
+            {"org.junit.runners.ParentRunner", "run", "ParentRunner.java", "363"},
+        };
+        for (String[] frame : frames) {
+            JsonObject element = new JsonObject();
+            element.addProperty("declaringClass", frame[0]);
+            element.addProperty("methodName", frame[1]);
+            element.addProperty("fileName", frame[2]);
+            element.addProperty("lineNumber", Integer.parseInt(frame[3]));
+            stackTrace.add(element);
+        }
+        exception.add("stackTrace", stackTrace);
+        return exception;
+    }
+
+    /**
+     * A student's source file of roughly the given number of lines.
+     */
+    static String sourceFile(Random random, int lines) {
+        StringBuilder source = new StringBuilder("import java.util.Scanner;\n\npublic class Tehtava {\n");
+        source.append("    public static void main(String[] args) {\n");
+        source.append("        Scanner lukija = new Scanner(System.in);\n");
+        for (int i = 0; i < lines; i++) {
+            source.append(statement(random, i));
+        }
+        source.append("    }\n}\n");
+        return source.toString();
+    }
+
+    /**
+     * The file after a burst of typing: a few lines changed, removed and
+     * added.
+     */
+    static String edit(Random random, String source, int edits) {
+        String[] lines = source.split("\n", -1);
+        StringBuilder edited = new StringBuilder(source.length() + edits * 40);
+        for (int i = 0; i < lines.length; i++) {
+            if (i > 4 && i < lines.length - 3 && random.nextInt(lines.length) < edits) {
+                switch (random.nextInt(3)) {
+                    case 0:
+                        edited.append(statement(random, i));
+                        break;
+                    case 1:
+                        break;
+                    default:
+                        edited.append(lines[i]).append('\n').append(statement(random, i));
+                        break;
+                }
+            } else {
+                edited.append(lines[i]);
+                if (i < lines.length - 1) {
+                    edited.append('\n');
+                }
+            }
+        }
+        return edited.toString();
+    }
+
+    private static String statement(Random random, int i) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return "        int luku" + i + " = Integer.parseInt(lukija.nextLine());\n";
+            case 1:
+                return "        System.out.println(\"Anna luku " + random.nextInt(100) + ":\");\n";
+            case 2:
+                return "        if (luku" + random.nextInt(i + 1) + " > " + random.nextInt(1000) + ") {\n"
+                        + "            System.out.println(\"Liian suuri\");\n        }\n";
+            default:
+                return "        // TODO: " + Long.toHexString(random.nextLong()) + "\n";
+        }
+    }
+
+    /**
+     * Snapshot events spread over a handful of exercises, with payloads the
+     * size of typical text insert events.
+     */
+    static LoggableEvent[] events(Random random, int count, int exercises) {
+        LoggableEvent[] events = new LoggableEvent[count];
+        for (int i = 0; i < count; i++) {
+            events[i] = event(random, i % exercises, i);
+        }
+        return events;
+    }
+
+    static LoggableEvent event(Random random, int exercise, int sequence) {
+        String patch = "@@ -" + random.nextInt(2000) + ",8 +" + random.nextInt(2000) + ",9 @@\n"
+                + " luku \n+" + Long.toHexString(random.nextLong()) + "\n  = Integer\n";
+        String data = "{\"file\":\"src/Tehtava.java\",\"patches\":\"" + patch.replace("\n", "\\n") + "\"}";
+        LoggableEvent event = new LoggableEvent(
+                "hy-ohjelmointi-100", "osa01-Osa01_" + exercise, "text_insert", data.getBytes(UTF8));
+        event.addMetadata("sequence", sequence);
+        return event;
+    }
+}
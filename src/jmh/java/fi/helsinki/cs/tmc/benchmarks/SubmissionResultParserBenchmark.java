@@ -0,0 +1,58 @@
+package fi.helsinki.cs.tmc.benchmarks;
+
+import fi.helsinki.cs.tmc.core.communication.serialization.SubmissionResultParser;
+import fi.helsinki.cs.tmc.core.domain.submission.SubmissionResult;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing submission results: the status checked on every poll and the
+ * full result shown once processing is done.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SubmissionResultParserBenchmark {
+
+    @Param({"10", "200"})
+    public int testCases;
+
+    private final SubmissionResultParser parser = new SubmissionResultParser();
+    private String json;
+
+    @Setup
+    public void setUp() {
+        json = Fixtures.submissionResultJson(testCases);
+    }
+
+    @Benchmark
+    public SubmissionResult parseStatus() {
+        return parser.parseStatusFromJson(json);
+    }
+
+    @Benchmark
+    public SubmissionResult parseResult() {
+        return parser.parseFromJson(json);
+    }
+
+    @Benchmark
+    public int parseAndReadResult() {
+        SubmissionResult result = parser.parseFromJson(json);
+        return result.getTestCases().size() + result.getValidationResult().getValidationErrors().size();
+    }
+}
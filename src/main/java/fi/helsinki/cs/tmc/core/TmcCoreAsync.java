@@ -0,0 +1,164 @@
+package fi.helsinki.cs.tmc.core;
+
+import fi.helsinki.cs.tmc.core.commands.GetUpdatableExercises;
+import fi.helsinki.cs.tmc.core.communication.TmcServerCommunicationTaskFactory.SubmissionResponse;
+import fi.helsinki.cs.tmc.core.domain.Course;
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.core.domain.Organization;
+import fi.helsinki.cs.tmc.core.domain.ProgressObserver;
+import fi.helsinki.cs.tmc.core.domain.Review;
+import fi.helsinki.cs.tmc.core.domain.submission.FeedbackAnswer;
+import fi.helsinki.cs.tmc.core.domain.submission.SubmissionResult;
+import fi.helsinki.cs.tmc.core.utilities.TmcRequestScheduler;
+import fi.helsinki.cs.tmc.langs.abstraction.ValidationResult;
+import fi.helsinki.cs.tmc.langs.domain.RunResult;
+import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.Preconditions;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Runs the commands of {@link TmcCore} on an executor and returns their
+ * results as {@link CompletableFuture}s.
+ *
+ * <p>Clients can compose commands (e.g. list courses, then fetch details,
+ * then download exercises) without managing threads themselves. The
+ * commands still block: each one occupies a thread of the executor until
+ * it finishes, so the executor bounds how many run at once.
+ *
+ * <p>Cancelling a returned future interrupts the command, which also aborts
+ * any HTTP request it is waiting for.
+ */
+@Beta
+public class TmcCoreAsync {
+
+    private final TmcCore core;
+    private final ExecutorService executor;
+
+    /**
+     * Runs commands in the interactive class of {@link TmcRequestScheduler}.
+     */
+    public TmcCoreAsync(TmcCore core) {
+        this(core, TmcRequestScheduler.instance.getExecutor(TmcRequestScheduler.Priority.INTERACTIVE));
+    }
+
+    public TmcCoreAsync(TmcCore core, ExecutorService executor) {
+        this.core = Preconditions.checkNotNull(core);
+        this.executor = Preconditions.checkNotNull(executor);
+    }
+
+    public CompletableFuture<List<Organization>> getOrganizations(ProgressObserver observer) {
+        return start(core.getOrganizations(observer));
+    }
+
+    public CompletableFuture<Void> authenticate(ProgressObserver observer, String password) {
+        return start(core.authenticate(observer, password));
+    }
+
+    public CompletableFuture<Void> sendDiagnostics(ProgressObserver observer) {
+        return start(core.sendDiagnostics(observer));
+    }
+
+    public CompletableFuture<List<Exercise>> downloadOrUpdateExercises(
+            ProgressObserver observer, List<Exercise> exercises) {
+        return start(core.downloadOrUpdateExercises(observer, exercises));
+    }
+
+    public CompletableFuture<Course> getCourseDetails(ProgressObserver observer, Course course) {
+        return start(core.getCourseDetails(observer, course));
+    }
+
+    public CompletableFuture<List<Course>> listCourses(ProgressObserver observer) {
+        return start(core.listCourses(observer));
+    }
+
+    public CompletableFuture<URI> pasteWithComment(ProgressObserver observer, Exercise exercise, String message) {
+        return start(core.pasteWithComment(observer, exercise, message));
+    }
+
+    public CompletableFuture<ValidationResult> runCheckStyle(ProgressObserver observer, Exercise exercise) {
+        return start(core.runCheckStyle(observer, exercise));
+    }
+
+    public CompletableFuture<RunResult> runTests(ProgressObserver observer, Exercise exercise) {
+        return start(core.runTests(observer, exercise));
+    }
+
+    public CompletableFuture<Boolean> sendFeedback(
+            ProgressObserver observer, List<FeedbackAnswer> answers, URI feedbackUri) {
+        return start(core.sendFeedback(observer, answers, feedbackUri));
+    }
+
+    public CompletableFuture<Void> sendSnapshotEvents(
+            ProgressObserver observer, Course currentCourse, List<LoggableEvent> events) {
+        return start(core.sendSnapshotEvents(observer, currentCourse, events));
+    }
+
+    public CompletableFuture<SubmissionResult> submit(ProgressObserver observer, Exercise exercise) {
+        return start(core.submit(observer, exercise));
+    }
+
+    public CompletableFuture<SubmissionResult> submit(
+            ProgressObserver observer, Exercise exercise, Consumer<SubmissionResponse> initialSubmissionResult) {
+        return start(core.submit(observer, exercise, initialSubmissionResult));
+    }
+
+    public CompletableFuture<GetUpdatableExercises.UpdateResult> getExerciseUpdates(
+            ProgressObserver observer, Course course) {
+        return start(core.getExerciseUpdates(observer, course));
+    }
+
+    public CompletableFuture<Void> markReviewAsRead(ProgressObserver observer, Review review) {
+        return start(core.markReviewAsRead(observer, review));
+    }
+
+    public CompletableFuture<List<Review>> getUnreadReviews(ProgressObserver observer, Course course) {
+        return start(core.getUnreadReviews(observer, course));
+    }
+
+    public CompletableFuture<SubmissionResponse> requestCodeReview(
+            ProgressObserver observer, Exercise exercise, String messageForReviewer) {
+        return start(core.requestCodeReview(observer, exercise, messageForReviewer));
+    }
+
+    public CompletableFuture<Exercise> downloadModelSolution(ProgressObserver observer, Exercise exercise) {
+        return start(core.downloadModelSolution(observer, exercise));
+    }
+
+    /**
+     * Starts a command on the executor. {@link CompletableFuture#cancel} doesn't
+     * interrupt anything by itself, so cancellation is forwarded to the
+     * underlying task explicitly.
+     */
+    private <T> CompletableFuture<T> start(final Callable<T> command) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final Future<?> running = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.complete(command.call());
+                } catch (Throwable ex) {
+                    result.completeExceptionally(ex);
+                }
+            }
+        });
+        result.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable ex) {
+                if (result.isCancelled()) {
+                    running.cancel(true);
+                }
+            }
+        });
+        return result;
+    }
+}
@@ -16,6 +16,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Map;
 
@@ -38,7 +39,7 @@ abstract class AbstractSubmissionCommand<T> extends Command<T> {
     TmcServerCommunicationTaskFactory.SubmissionResponse submitToServer(
             Exercise exercise, Map<String, String> extraParams) throws TmcCoreException {
 
-        byte[] zippedProject;
+        Path zippedProject;
 
         informObserver(0.1, "Packaging submission.");
 
@@ -49,13 +50,42 @@ abstract class AbstractSubmissionCommand<T> extends Command<T> {
         logger.info("Submitting project from path {}", projectPath);
 
         try {
-            zippedProject = TmcLangsHolder.get().compressProject(projectPath);
+            zippedProject = compressToTempFile(projectPath);
         } catch (IOException | NoLanguagePluginFoundException ex) {
             informObserver(1, "Failed to package submission.");
             logger.warn("Failed to compress project", ex);
             throw new TmcCoreException("Failed to compress project", ex);
         }
 
+        try {
+            return uploadSubmission(exercise, zippedProject, extraParams);
+        } finally {
+            try {
+                Files.deleteIfExists(zippedProject);
+            } catch (IOException ex) {
+                logger.warn("Failed to delete temporary submission zip from " + zippedProject, ex);
+            }
+        }
+    }
+
+    /**
+     * Writes the compressed project to a temporary file so that the archive
+     * doesn't have to stay in memory for the duration of the upload.
+     */
+    private Path compressToTempFile(Path projectPath) throws IOException, NoLanguagePluginFoundException {
+        Path zip = Files.createTempFile("tmc-submission-", ".zip");
+        try {
+            Files.write(zip, TmcLangsHolder.get().compressProject(projectPath));
+            return zip;
+        } catch (IOException | NoLanguagePluginFoundException | RuntimeException ex) {
+            Files.deleteIfExists(zip);
+            throw ex;
+        }
+    }
+
+    private TmcServerCommunicationTaskFactory.SubmissionResponse uploadSubmission(
+            Exercise exercise, Path zippedProject, Map<String, String> extraParams) throws TmcCoreException {
+
         extraParams.put("error_msg_locale", TmcSettingsHolder.get().getLocale().toString());
 
         checkInterrupt();
@@ -105,6 +105,12 @@ public abstract class Command<E> implements Callable<E> {
         informObserver(percent, message);
     }
 
+    /**
+     * Throws if the command's thread has been interrupted.
+     *
+     * <p>HTTP requests started by the command are aborted as soon as the
+     * thread is interrupted, so this only needs to be called between steps.
+     */
     protected void checkInterrupt() throws TmcInterruptionException {
         if (Thread.currentThread().isInterrupted()) {
             logger.info("Noticed interruption, throwing TmcInterruptionException");
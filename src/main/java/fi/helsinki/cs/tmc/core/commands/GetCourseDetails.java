@@ -2,6 +2,7 @@ package fi.helsinki.cs.tmc.core.commands;
 
 import fi.helsinki.cs.tmc.core.ExecutionResult;
 import fi.helsinki.cs.tmc.core.communication.TmcServerCommunicationTaskFactory;
+import fi.helsinki.cs.tmc.core.communication.serialization.DomainGson;
 import fi.helsinki.cs.tmc.core.domain.Course;
 import fi.helsinki.cs.tmc.core.domain.ProgressObserver;
 import fi.helsinki.cs.tmc.core.exceptions.NotLoggedInException;
@@ -43,7 +44,7 @@ public class GetCourseDetails extends Command<Course> {
                 .execute(new String[] { "get-course-details", "--courseId", String.valueOf(course.getId()) });
         observer.progress(1, 0.5, "Executed command");
 
-        Gson gson = new Gson();
+        Gson gson = DomainGson.get();
         Course courseDetails = gson.fromJson(result.getStdout(), Course.class);
         observer.progress(1, 1.0, "Fetched course details");
 
@@ -2,6 +2,7 @@ package fi.helsinki.cs.tmc.core.commands;
 
 import fi.helsinki.cs.tmc.core.ExecutionResult;
 import fi.helsinki.cs.tmc.core.communication.TmcServerCommunicationTaskFactory;
+import fi.helsinki.cs.tmc.core.communication.serialization.DomainGson;
 import fi.helsinki.cs.tmc.core.domain.Course;
 import fi.helsinki.cs.tmc.core.domain.Organization;
 import fi.helsinki.cs.tmc.core.domain.ProgressObserver;
@@ -53,7 +54,7 @@ public class ListCourses extends Command<List<Course>> {
         ExecutionResult result = this.execute(new String[] { "list-courses", "--organization", organizationSlug });
         observer.progress(1, 0.5, "Executed command");
 
-        Gson gson = new Gson();
+        Gson gson = DomainGson.get();
         Type listType = new TypeToken<ArrayList<Course>>() {
         }.getType();
         List<Course> courses = gson.fromJson(result.getStdout(), listType);
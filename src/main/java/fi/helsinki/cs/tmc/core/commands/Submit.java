@@ -3,11 +3,13 @@ package fi.helsinki.cs.tmc.core.commands;
 import fi.helsinki.cs.tmc.core.ExecutionResult;
 import fi.helsinki.cs.tmc.core.communication.TmcServerCommunicationTaskFactory;
 import fi.helsinki.cs.tmc.core.communication.TmcServerCommunicationTaskFactory.SubmissionResponse;
+import fi.helsinki.cs.tmc.core.communication.http.RetryPolicy;
 import fi.helsinki.cs.tmc.core.communication.serialization.SubmissionResultParser;
 import fi.helsinki.cs.tmc.core.domain.Exercise;
 import fi.helsinki.cs.tmc.core.domain.ProgressObserver;
 import fi.helsinki.cs.tmc.core.domain.submission.SubmissionResult;
 import fi.helsinki.cs.tmc.core.exceptions.TmcCoreException;
+import fi.helsinki.cs.tmc.core.exceptions.TmcInterruptionException;
 import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -29,6 +31,11 @@ public class Submit extends AbstractSubmissionCommand<SubmissionResult> {
 
     private static final Logger logger = LoggerFactory.getLogger(AbstractSubmissionCommand.class);
     private static final int DEFAULT_POLL_INTERVAL = 1000 * 2;
+    private static final int MAX_POLL_INTERVAL = 1000 * 60;
+
+    // Extra wait after failed polls, so that an unreachable server isn't polled in a tight loop.
+    private static final RetryPolicy FAILED_POLL_BACKOFF =
+            new RetryPolicy(Integer.MAX_VALUE, DEFAULT_POLL_INTERVAL, MAX_POLL_INTERVAL);
 
     private Exercise exercise;
     private Consumer<SubmissionResponse> initialSubmissionResult;
@@ -74,13 +81,11 @@ public class Submit extends AbstractSubmissionCommand<SubmissionResult> {
         int pollInterval = DEFAULT_POLL_INTERVAL;
         int runtime = 0;
 
-        try {
-            Thread.sleep(pollInterval);
-        } catch (InterruptedException ex) {
-            logger.debug("Interrupted while sleeping", ex);
-        }
+        sleep(pollInterval);
 
+        SubmissionResultParser resultParser = new SubmissionResultParser();
         boolean initialSubmissionResultSent = false;
+        int failedPolls = 0;
         while (true) {
             checkInterrupt();
             if (runtime > 10000) {
@@ -90,7 +95,7 @@ public class Submit extends AbstractSubmissionCommand<SubmissionResult> {
                 pollInterval = 1000 * 10;
             }
             if (runtime > 300000) {
-                pollInterval = 1000 * 60;
+                pollInterval = MAX_POLL_INTERVAL;
             }
             try {
                 logger.debug("Checking if server is done processing submission");
@@ -98,7 +103,9 @@ public class Submit extends AbstractSubmissionCommand<SubmissionResult> {
                         .getSubmissionFetchTask(submissionResponse.submissionUrl);
 
                 String submissionStatus = submissionResultFetcher.call();
-                SubmissionResult submission = new SubmissionResultParser().parseFromJson(submissionStatus);
+                failedPolls = 0;
+                // Until the submission is processed, only its status is needed
+                SubmissionResult submission = resultParser.parseStatusFromJson(submissionStatus);
 
                 if (initialSubmissionResult != null && !initialSubmissionResultSent) {
                     initialSubmissionResult.accept(submissionResponse);
@@ -130,23 +137,38 @@ public class Submit extends AbstractSubmissionCommand<SubmissionResult> {
                         informObserver(percentDone, "Testing submission.");
                     }
 
-                    Thread.sleep(pollInterval);
+                    sleep(pollInterval);
                 } else {
                     logger.debug("Server done, parsing results");
                     informObserver(1, "Processing complete.");
 
-                    SubmissionResultParser resultParser = new SubmissionResultParser();
                     SubmissionResult result = resultParser.parseFromJson(submissionStatus);
 
                     logger.debug("Done parsing server response");
 
                     return result;
                 }
+            } catch (TmcInterruptionException | InterruptedException ex) {
+                throw new TmcInterruptionException();
             } catch (Exception ex) {
                 informObserver(1, "Error while waiting for response from server");
                 logger.warn("Error while updating submission status from server, continuing", ex);
+                failedPolls++;
+                long delay = pollInterval + FAILED_POLL_BACKOFF.getDelay(failedPolls);
+                sleep(delay);
+                runtime += delay;
+                continue;
             }
             runtime += pollInterval;
         }
     }
+
+    private void sleep(long millis) throws TmcInterruptionException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            logger.debug("Interrupted while sleeping", ex);
+            throw new TmcInterruptionException();
+        }
+    }
 }
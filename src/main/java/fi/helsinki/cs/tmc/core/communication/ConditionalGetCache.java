@@ -0,0 +1,219 @@
+package fi.helsinki.cs.tmc.core.communication;
+
+import fi.helsinki.cs.tmc.core.communication.http.ConditionalResponse;
+import fi.helsinki.cs.tmc.core.communication.http.HttpTasks;
+import fi.helsinki.cs.tmc.core.communication.http.ResponseParser;
+
+import com.google.common.base.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Remembers response bodies together with their ETag / Last-Modified
+ * validators and revalidates them with conditional GETs.
+ *
+ * <p>Bodies are kept as bytes and parsed from a reader, so they are never
+ * decoded into a string.
+ *
+ * <p>When the server answers 304 Not Modified the remembered body is used,
+ * so it isn't downloaded again. Every call parses the body itself, so each
+ * caller gets values of its own that it is free to modify.
+ *
+ * <p>Responses younger than the time to live are returned without asking the
+ * server at all. If a {@link ResponseStore} is given, bodies are also kept on
+ * disk, so they are available after a restart and can be served stale when
+ * the server can't be reached.
+ *
+ * <p>Concurrent requests for the same url share one HTTP call.
+ */
+/*package*/ class ConditionalGetCache<T> {
+
+    private static class Entry {
+        final String etag;
+        final String lastModified;
+        volatile long storedAt;
+        final byte[] body;
+        final Charset charset;
+
+        Entry(String etag, String lastModified, long storedAt, byte[] body, Charset charset) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.storedAt = storedAt;
+            this.body = body;
+            this.charset = charset;
+        }
+
+        Reader openBody() {
+            return new InputStreamReader(new ByteArrayInputStream(body), charset);
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(ConditionalGetCache.class);
+
+    private final Map<String, Entry> entries;
+    private final SingleFlight<Entry> flights = new SingleFlight<>();
+    private final long timeToLive;
+    private final ResponseStore store;
+
+    /*package*/ ConditionalGetCache(int maxEntries) {
+        this(maxEntries, 0, null);
+    }
+
+    /**
+     * @param timeToLive milliseconds a response is used without revalidation
+     * @param store where to persist responses, or null to keep them in memory only
+     */
+    /*package*/ ConditionalGetCache(final int maxEntries, long timeToLive, ResponseStore store) {
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.timeToLive = timeToLive;
+        this.store = store;
+    }
+
+    /**
+     * Fetches the url, reusing the cached body if it is fresh or the server
+     * says it is still current.
+     */
+    /*package*/ T get(URI url, ResponseParser<T> parser) throws Exception {
+        return get(url, null, parser);
+    }
+
+    /**
+     * Like {@link #get(URI, ResponseParser)}, for responses that differ
+     * between users. The user's responses are kept apart from those of
+     * others.
+     */
+    /*package*/ T get(final URI url, String user, final ResponseParser<T> parser) throws Exception {
+        final String key = ResponseStore.keyFor(url, user);
+        Entry entry = flights.run(key, new Callable<Entry>() {
+            @Override
+            public Entry call() throws Exception {
+                return load(url, key, parser);
+            }
+        });
+        try (Reader body = entry.openBody()) {
+            return parser.parse(body);
+        } catch (IOException | RuntimeException ex) {
+            // Don't keep revalidating a body that can't be parsed.
+            discard(key, entry);
+            throw ex;
+        }
+    }
+
+    private Entry load(URI url, String key, ResponseParser<T> parser) throws Exception {
+        Entry cached;
+        synchronized (entries) {
+            cached = entries.get(key);
+        }
+        if (cached == null) {
+            cached = restore(key, parser);
+        }
+
+        long now = System.currentTimeMillis();
+        if (cached != null && now - cached.storedAt < timeToLive) {
+            logger.debug("Using cached response younger than {} ms", timeToLive);
+            return cached;
+        }
+
+        ConditionalResponse response;
+        try {
+            response = HttpTasks.getForTextIfModified(
+                    url,
+                    cached != null ? cached.etag : null,
+                    cached != null ? cached.lastModified : null).call();
+        } catch (IOException ex) {
+            if (cached == null || store == null || Thread.currentThread().isInterrupted()) {
+                throw ex;
+            }
+            logger.warn("Server not reachable, using stale cached response", ex);
+            return cached;
+        }
+
+        if (response.isNotModified()) {
+            if (cached == null) {
+                throw new IOException("Server answered 304 Not Modified to an unconditional request");
+            }
+            logger.debug("Not modified, using cached response");
+            cached.storedAt = now;
+            if (store != null) {
+                store.refresh(key, now);
+            }
+            return cached;
+        }
+
+        Entry entry = new Entry(response.getEtag().orNull(), response.getLastModified().orNull(), now,
+                response.getBodyBytes(), response.getCharset());
+        boolean cacheable = response.hasValidators() || timeToLive > 0;
+        synchronized (entries) {
+            if (cacheable) {
+                entries.put(key, entry);
+            } else {
+                entries.remove(key);
+            }
+        }
+        if (cacheable && store != null) {
+            store.write(key, response, now);
+        }
+        return entry;
+    }
+
+    /**
+     * Loads a response persisted by an earlier run into memory. It is parsed
+     * once here so that a damaged one is fetched again instead of used.
+     */
+    private Entry restore(String key, ResponseParser<T> parser) {
+        if (store == null) {
+            return null;
+        }
+        Optional<ResponseStore.StoredResponse> stored = store.read(key);
+        if (!stored.isPresent()) {
+            return null;
+        }
+        ResponseStore.StoredResponse response = stored.get();
+        try (Reader body = response.openBody()) {
+            parser.parse(body);
+        } catch (IOException | RuntimeException ex) {
+            logger.warn("Failed to parse cached response, ignoring it", ex);
+            store.delete(key);
+            return null;
+        }
+        Entry entry = new Entry(response.etag, response.lastModified, response.storedAt, response.body,
+                response.charset);
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+        return entry;
+    }
+
+    private void discard(String key, Entry entry) {
+        synchronized (entries) {
+            if (entries.get(key) == entry) {
+                entries.remove(key);
+            }
+        }
+        if (store != null) {
+            store.delete(key);
+        }
+    }
+
+    /*package*/ void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+}
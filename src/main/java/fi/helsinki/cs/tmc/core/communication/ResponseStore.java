@@ -0,0 +1,383 @@
+package fi.helsinki.cs.tmc.core.communication;
+
+import fi.helsinki.cs.tmc.core.communication.http.ConditionalResponse;
+import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Striped;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Keeps response bodies and their validators in the config directory so
+ * they survive restarts.
+ *
+ * <p>The store is bounded by total size and evicts the least recently used
+ * responses first. Recency is kept in the body files' modification times.
+ * Files are read and written outside the store-wide lock, which guards
+ * only the index of sizes. Storing is best effort: if the config directory is unavailable the store
+ * simply behaves as empty.
+ */
+/*package*/ class ResponseStore {
+
+    /*package*/ static class StoredResponse {
+        final byte[] body;
+        final Charset charset;
+        final String etag;
+        final String lastModified;
+        final long storedAt;
+
+        StoredResponse(byte[] body, Charset charset, String etag, String lastModified, long storedAt) {
+            this.body = body;
+            this.charset = charset;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.storedAt = storedAt;
+        }
+
+        Reader openBody() {
+            return new InputStreamReader(new ByteArrayInputStream(body), charset);
+        }
+    }
+
+    public static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+    private static final Logger logger = LoggerFactory.getLogger(ResponseStore.class);
+    private static final String DIRECTORY_NAME = "http-cache";
+    private static final String BODY_SUFFIX = ".body";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final Set<String> VOLATILE_PARAMS =
+            ImmutableSet.of("access_token", "client_version");
+
+    private final long maxBytes;
+
+    // Held while reading or writing the files of a key, so that the body of
+    // one response is never read with the validators of another. Only the
+    // index is guarded by the lock on this, which may be taken while holding
+    // a key lock but not the other way round.
+    private final Striped<Lock> keyLocks = Striped.lock(64);
+
+    // The following variables must only be accessed while holding the lock on this.
+    private Path directory;
+    private final LinkedHashMap<String, Long> sizes = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    /*package*/ ResponseStore(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /*package*/ static String keyFor(URI url) {
+        return keyFor(url, null);
+    }
+
+    /**
+     * Identifies a response by its url and the user it was fetched for.
+     * The access token and client version are left out, so the key stays
+     * the same when the token is refreshed or the client is updated. Keys
+     * of different users never match.
+     */
+    /*package*/ static String keyFor(URI url, String user) {
+        List<NameValuePair> params = new ArrayList<>();
+        for (NameValuePair param : URLEncodedUtils.parse(url, "UTF-8")) {
+            if (!VOLATILE_PARAMS.contains(param.getName())) {
+                params.add(param);
+            }
+        }
+        String normalized = url.getScheme() + "://" + url.getRawAuthority() + url.getRawPath()
+                + "?" + URLEncodedUtils.format(params, "UTF-8");
+        return Hashing.sha256()
+                .hashString((user != null ? user : "") + "\n" + normalized, StandardCharsets.UTF_8)
+                .toString();
+    }
+
+    /*package*/ Optional<StoredResponse> read(String key) {
+        Lock lock = keyLocks.get(key);
+        lock.lock();
+        try {
+            Path dir = useIndexed(key);
+            if (dir == null) {
+                return Optional.absent();
+            }
+            try {
+                Path body = dir.resolve(key + BODY_SUFFIX);
+                Properties meta = readMeta(dir, key);
+                Files.setLastModifiedTime(body, FileTime.fromMillis(System.currentTimeMillis()));
+                return Optional.of(new StoredResponse(
+                        Files.readAllBytes(body),
+                        Charset.forName(meta.getProperty("charset", "UTF-8")),
+                        meta.getProperty("etag"),
+                        meta.getProperty("lastModified"),
+                        Long.parseLong(meta.getProperty("storedAt", "0"))));
+            } catch (IOException | RuntimeException ex) {
+                logger.warn("Failed to read cached response, discarding it", ex);
+                unindex(dir, key);
+                deleteFiles(dir, key);
+                return Optional.absent();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*package*/ void write(String key, ConditionalResponse response, long storedAt) {
+        Path dir = openDirectory();
+        if (dir == null) {
+            return;
+        }
+        List<String> evicted = Collections.emptyList();
+        Lock lock = keyLocks.get(key);
+        lock.lock();
+        try {
+            byte[] body = response.getBodyBytes();
+            writeAtomically(dir.resolve(key + BODY_SUFFIX), body);
+            Properties meta = new Properties();
+            meta.setProperty("charset", response.getCharset().name());
+            if (response.getEtag().isPresent()) {
+                meta.setProperty("etag", response.getEtag().get());
+            }
+            if (response.getLastModified().isPresent()) {
+                meta.setProperty("lastModified", response.getLastModified().get());
+            }
+            writeMeta(dir, key, meta, storedAt);
+            evicted = index(dir, key, body.length);
+        } catch (IOException ex) {
+            logger.warn("Failed to store response in cache", ex);
+            unindex(dir, key);
+            deleteFiles(dir, key);
+        } finally {
+            lock.unlock();
+        }
+        deleteEvicted(dir, evicted);
+    }
+
+    /**
+     * Marks a stored response as revalidated now.
+     */
+    /*package*/ void refresh(String key, long storedAt) {
+        Lock lock = keyLocks.get(key);
+        lock.lock();
+        try {
+            Path dir = useIndexed(key);
+            if (dir != null) {
+                writeMeta(dir, key, readMeta(dir, key), storedAt);
+            }
+        } catch (IOException ex) {
+            logger.warn("Failed to refresh cached response", ex);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*package*/ void delete(String key) {
+        Path dir = openDirectory();
+        if (dir == null) {
+            return;
+        }
+        Lock lock = keyLocks.get(key);
+        lock.lock();
+        try {
+            unindex(dir, key);
+            deleteFiles(dir, key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the directory the response is stored in and marks it as the
+     * most recently used, or returns null if it isn't stored.
+     */
+    private synchronized Path useIndexed(String key) {
+        if (openDirectory() == null || sizes.get(key) == null) {
+            return null;
+        }
+        return directory;
+    }
+
+    /**
+     * Adds a written response to the index and returns the keys evicted to
+     * make room for it. Their files are left for the caller to delete.
+     */
+    private synchronized List<String> index(Path dir, String key, long size) {
+        if (!dir.equals(directory)) {
+            return Collections.emptyList();
+        }
+        Long previous = sizes.put(key, size);
+        totalBytes += size - (previous != null ? previous : 0);
+        return evictToBudget();
+    }
+
+    private synchronized void unindex(Path dir, String key) {
+        if (dir.equals(directory)) {
+            Long size = sizes.remove(key);
+            if (size != null) {
+                totalBytes -= size;
+            }
+        }
+    }
+
+    private synchronized boolean isIndexed(Path dir, String key) {
+        return dir.equals(directory) && sizes.containsKey(key);
+    }
+
+    private void deleteEvicted(Path dir, List<String> keys) {
+        for (String key : keys) {
+            Lock lock = keyLocks.get(key);
+            lock.lock();
+            try {
+                // Stored again since it was evicted.
+                if (!isIndexed(dir, key)) {
+                    deleteFiles(dir, key);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static Properties readMeta(Path dir, String key) throws IOException {
+        Properties meta = new Properties();
+        try (InputStream in = Files.newInputStream(dir.resolve(key + META_SUFFIX))) {
+            meta.load(in);
+        }
+        return meta;
+    }
+
+    private static void writeMeta(Path dir, String key, Properties meta, long storedAt) throws IOException {
+        meta.setProperty("storedAt", Long.toString(storedAt));
+        Path temp = Files.createTempFile(dir, key, TEMP_SUFFIX);
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            meta.store(out, null);
+        }
+        Files.move(temp, dir.resolve(key + META_SUFFIX), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeAtomically(Path target, byte[] content) throws IOException {
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), TEMP_SUFFIX);
+        Files.write(temp, content);
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Returns the evicted keys.
+    private List<String> evictToBudget() {
+        List<String> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, Long>> eldest = sizes.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            eldest.remove();
+            totalBytes -= entry.getValue();
+            evicted.add(entry.getKey());
+        }
+        return evicted;
+    }
+
+    private static void deleteFiles(Path dir, String key) {
+        try {
+            Files.deleteIfExists(dir.resolve(key + BODY_SUFFIX));
+            Files.deleteIfExists(dir.resolve(key + META_SUFFIX));
+        } catch (IOException ex) {
+            logger.warn("Failed to delete cached response", ex);
+        }
+    }
+
+    /**
+     * Resolves the cache directory from the current settings and indexes it
+     * if it changed since the last call. Returns null if it isn't available.
+     */
+    private synchronized Path openDirectory() {
+        Path current;
+        try {
+            current = TmcSettingsHolder.get().getConfigRoot().resolve(DIRECTORY_NAME);
+            Files.createDirectories(current);
+        } catch (IOException | RuntimeException ex) {
+            logger.debug("Response cache directory not available", ex);
+            return null;
+        }
+        if (!current.equals(directory)) {
+            directory = current;
+            loadIndex();
+        }
+        return directory;
+    }
+
+    // Only the files of responses that are not in use yet are touched, so
+    // this is done while holding the lock on this.
+    private void loadIndex() {
+        sizes.clear();
+        totalBytes = 0;
+
+        // Left behind by writes cut short by a crash.
+        try (DirectoryStream<Path> temps = Files.newDirectoryStream(directory, "*" + TEMP_SUFFIX)) {
+            for (Path temp : temps) {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException ex) {
+            logger.warn("Failed to delete temporary files of the response cache", ex);
+        }
+
+        final Map<Path, FileTime> accessTimes = new LinkedHashMap<>();
+        try (DirectoryStream<Path> bodies = Files.newDirectoryStream(directory, "*" + BODY_SUFFIX)) {
+            for (Path body : bodies) {
+                accessTimes.put(body, Files.getLastModifiedTime(body));
+            }
+        } catch (IOException ex) {
+            logger.warn("Failed to index the response cache", ex);
+            return;
+        }
+
+        List<Path> byAccess = new ArrayList<>(accessTimes.keySet());
+        Collections.sort(byAccess, new Comparator<Path>() {
+            @Override
+            public int compare(Path first, Path second) {
+                return accessTimes.get(first).compareTo(accessTimes.get(second));
+            }
+        });
+        for (Path body : byAccess) {
+            String name = body.getFileName().toString();
+            String key = name.substring(0, name.length() - BODY_SUFFIX.length());
+            try {
+                long size = Files.size(body);
+                sizes.put(key, size);
+                totalBytes += size;
+            } catch (IOException ex) {
+                deleteFiles(directory, key);
+            }
+        }
+        for (String key : evictToBudget()) {
+            deleteFiles(directory, key);
+        }
+    }
+}
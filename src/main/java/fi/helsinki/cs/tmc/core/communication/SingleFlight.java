@@ -0,0 +1,55 @@
+package fi.helsinki.cs.tmc.core.communication;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Coalesces concurrent calls with the same key so that only one of them does
+ * the work and the others wait for and share its result.
+ *
+ * <p>Nothing is remembered once the call finishes; a later call with the
+ * same key runs again.
+ */
+/*package*/ class SingleFlight<T> {
+
+    private final ConcurrentMap<String, FutureTask<T>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the task unless an identical one is already running, in which case
+     * its result (or exception) is returned instead.
+     */
+    /*package*/ T run(String key, Callable<T> task) throws Exception {
+        while (true) {
+            FutureTask<T> flight = new FutureTask<>(task);
+            FutureTask<T> running = inFlight.putIfAbsent(key, flight);
+            if (running == null) {
+                running = flight;
+                try {
+                    flight.run();
+                } finally {
+                    inFlight.remove(key, flight);
+                }
+            }
+
+            try {
+                return running.get();
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof InterruptedException && running != flight) {
+                    // The caller that ran the task was cancelled, not us. Try again.
+                    continue;
+                }
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw ex;
+            }
+        }
+    }
+}
@@ -21,7 +21,7 @@ public class TmcBandicootCommunicationTaskFactory {
      */
     public Callable<Void> sendDiagnostics(Diagnostics diagnostics) {
         URI uri = getUrl(diagnostics);
-        final Callable<String> send = new HttpTasks().postJson(uri.resolve("client_infos"), diagnostics);
+        final Callable<String> send = HttpTasks.postJsonInBackground(uri.resolve("client_infos"), diagnostics);
 
         return new Callable<Void>() {
             @Override
@@ -37,7 +37,7 @@ public class TmcBandicootCommunicationTaskFactory {
      * @param crash a crash
      */
     public Callable<Void> sendCrash(Crash crash) {
-        final Callable<String> send = new HttpTasks().postJson(diagnosticsUrl.resolve("crashes"), crash);
+        final Callable<String> send = HttpTasks.postJsonInBackground(diagnosticsUrl.resolve("crashes"), crash);
 
         return new Callable<Void>() {
             @Override
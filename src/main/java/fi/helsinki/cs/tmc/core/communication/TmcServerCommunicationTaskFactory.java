@@ -1,11 +1,13 @@
 package fi.helsinki.cs.tmc.core.communication;
 
 import fi.helsinki.cs.tmc.core.communication.http.HttpTasks;
+import fi.helsinki.cs.tmc.core.communication.http.ResponseParser;
 import fi.helsinki.cs.tmc.core.communication.http.UriUtils;
 import fi.helsinki.cs.tmc.core.communication.oauth2.Oauth;
 import fi.helsinki.cs.tmc.core.communication.serialization.ByteArrayGsonSerializer;
 import fi.helsinki.cs.tmc.core.communication.serialization.CourseInfoParser;
 import fi.helsinki.cs.tmc.core.communication.serialization.CourseListParser;
+import fi.helsinki.cs.tmc.core.communication.serialization.DomainGson;
 import fi.helsinki.cs.tmc.core.communication.serialization.ReviewListParser;
 import fi.helsinki.cs.tmc.core.configuration.TmcSettings;
 import fi.helsinki.cs.tmc.core.domain.Course;
@@ -41,24 +43,53 @@ import org.slf4j.LoggerFactory;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.net.URI;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPOutputStream;
 
 /**
  * A frontend for the server.
+ *
+ * <p>Interrupting the thread that runs a returned task aborts its HTTP
+ * request, so tasks can be cancelled with {@code Future.cancel(true)}.
  */
 public class TmcServerCommunicationTaskFactory {
 
     private static final Logger LOG = LoggerFactory.getLogger(TmcServerCommunicationTaskFactory.class.getName());
     public static final int API_VERSION = 8;
 
+    private static final int MAX_CACHED_RESPONSES = 64;
+
+    // How long responses are used without asking the server, in milliseconds.
+    // Courses and exercises carry the user's progress, which changes when
+    // they submit or download, so they are always revalidated.
+    private static final long COURSE_LIST_TTL = 0;
+    private static final long COURSE_INFO_TTL = 0;
+    private static final long ORGANIZATION_LIST_TTL = TimeUnit.HOURS.toMillis(24);
+    private static final long EXERCISE_LIST_TTL = 0;
+
+    // Shared by all instances since commands create a new factory each time.
+    private static final ResponseStore responseStore = new ResponseStore(ResponseStore.DEFAULT_MAX_BYTES);
+    private static final ConditionalGetCache<List<Course>> courseListCache =
+            new ConditionalGetCache<>(MAX_CACHED_RESPONSES, COURSE_LIST_TTL, responseStore);
+    private static final ConditionalGetCache<Course> courseInfoCache =
+            new ConditionalGetCache<>(MAX_CACHED_RESPONSES, COURSE_INFO_TTL, responseStore);
+    private static final ConditionalGetCache<List<Organization>> organizationListCache =
+            new ConditionalGetCache<>(MAX_CACHED_RESPONSES, ORGANIZATION_LIST_TTL, responseStore);
+    private static final ConditionalGetCache<List<Exercise>> exerciseListCache =
+            new ConditionalGetCache<>(MAX_CACHED_RESPONSES, EXERCISE_LIST_TTL, responseStore);
+    // Each key is one endpoint, so the values under it are of one type.
+    private static final SingleFlight<Object> uncachedRequests = new SingleFlight<>();
+
     private TmcSettings settings;
     private Oauth oauth;
     private CourseListParser courseListParser;
@@ -147,30 +178,60 @@ public class TmcServerCommunicationTaskFactory {
         return url;
     }
 
+    /**
+     * Whom the cached responses about courses and exercises belong to.
+     */
+    private String cacheUser() {
+        return settings.getUsername().or("");
+    }
+
+    /**
+     * Fetches and parses a response that isn't cached, straight from the
+     * connection. Concurrent calls for the same response, keyed like the
+     * cached ones, share one request and the value parsed from it.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T getShared(final URI url, String user, final ResponseParser<T> parser) throws Exception {
+        return (T) uncachedRequests.run(ResponseStore.keyFor(url, user), new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return HttpTasks.getAndParse(url, parser).call();
+            }
+        });
+    }
+
     public Callable<List<Course>> getDownloadingCourseListTask() {
         return wrapWithNotLoggedInException(new Callable<List<Course>>() {
             @Override
             public List<Course> call() throws Exception {
                 try {
-                    Callable<String> download = HttpTasks.getForText(getCourseListUrl());
-                    String text = download.call();
-                    return courseListParser.parseFromJson(text);
+                    return fetchCourseList();
                 } catch (FailedHttpResponseException ex) {
                     return checkForObsoleteClient(ex);
                 }
-                // TODO: Cancellable?
             }
         });
     }
 
+    /**
+     * Returns the course stubs, parsed from a possibly cached response.
+     */
+    private List<Course> fetchCourseList() throws Exception {
+        return courseListCache.get(getCourseListUrl(), cacheUser(),
+                new ResponseParser<List<Course>>() {
+                    @Override
+                    public List<Course> parse(Reader body) {
+                        return courseListParser.parseFromJson(body);
+                    }
+                });
+    }
+
     public Callable<Optional<Course>> getCourseByIdTask(final int id) {
         return wrapWithNotLoggedInException(new Callable<Optional<Course>>() {
             @Override
             public Optional<Course> call() throws Exception {
                 try {
-                    Callable<String> download = HttpTasks.getForText(getCourseListUrl());
-                    String text = download.call();
-                    List<Course> courses = courseListParser.parseFromJson(text);
+                    List<Course> courses = fetchCourseList();
                     for (Course course : courses) {
                         if (course.getId() == id) {
                             return Optional.of(course);
@@ -195,9 +256,12 @@ public class TmcServerCommunicationTaskFactory {
         }
         url = url + "/courses/" + id;
         URI courseUrl = this.addApiCallQueryParameters(URI.create(url));
-        String response = HttpTasks.getForText(courseUrl).call();
-        Course course = new Gson().fromJson(response, new TypeToken<Course>() {
-        }.getType());
+        Course course = getShared(courseUrl, cacheUser(), new ResponseParser<Course>() {
+            @Override
+            public Course parse(Reader body) {
+                return DomainGson.get().fromJson(body, Course.class);
+            }
+        });
         return Optional.fromNullable(course);
     }
 
@@ -207,15 +271,16 @@ public class TmcServerCommunicationTaskFactory {
             public Course call() throws Exception {
                 try {
                     URI url = addApiCallQueryParameters(courseStub.getDetailsUrl());
-                    final Callable<String> download = HttpTasks.getForText(url);
-                    String text = download.call();
-                    return courseInfoParser.parseFromJson(text);
+                    return courseInfoCache.get(url, cacheUser(), new ResponseParser<Course>() {
+                        @Override
+                        public Course parse(Reader body) {
+                            return courseInfoParser.parseFromJson(body);
+                        }
+                    });
                 } catch (FailedHttpResponseException ex) {
                     return checkForObsoleteClient(ex);
                 }
             }
-
-            // TODO: Cancellable?
         });
     }
 
@@ -232,8 +297,6 @@ public class TmcServerCommunicationTaskFactory {
                     return checkForObsoleteClient(ex);
                 }
             }
-
-            // TODO: Cancellable?
         });
     }
 
@@ -246,27 +309,82 @@ public class TmcServerCommunicationTaskFactory {
         return HttpTasks.getForBinary(addApiCallQueryParameters(zipUrl));
     }
 
+    /**
+     * Streams the exercise zip into the given file instead of memory. A
+     * download of the same version of the exercise into the same file that
+     * broke off earlier is resumed.
+     *
+     * <p>{@link fi.helsinki.cs.tmc.core.commands.DownloadOrUpdateExercises}
+     * doesn't use this: tmc-langs-cli downloads the exercises itself, so its
+     * downloads start over when they break off.
+     */
+    public Callable<Path> getDownloadingExerciseZipTask(Exercise exercise, Path target)
+            throws NotLoggedInException {
+        URI zipUrl = exercise.getDownloadUrl();
+        return HttpTasks.getForFileResumable(addApiCallQueryParameters(zipUrl), target, exercise.getChecksum());
+    }
+
     public Callable<byte[]> getDownloadingExerciseSolutionZipTask(Exercise exercise) throws NotLoggedInException {
         URI zipUrl = exercise.getSolutionDownloadUrl();
         return HttpTasks.getForBinary(addApiCallQueryParameters(zipUrl));
     }
 
+    /**
+     * Streams the solution zip into the given file instead of memory.
+     */
+    public Callable<Path> getDownloadingExerciseSolutionZipTask(Exercise exercise, Path target)
+            throws NotLoggedInException {
+        URI zipUrl = exercise.getSolutionDownloadUrl();
+        return HttpTasks.getForFile(addApiCallQueryParameters(zipUrl), target);
+    }
+
     public Callable<SubmissionResponse> getSubmittingExerciseTask(final Exercise exercise, final byte[] sourceZip,
             Map<String, String> extraParams) {
+        final Map<String, String> params = makeSubmissionParams(extraParams);
+        return getSubmittingTask(exercise, new UploadFactory() {
+            @Override
+            public Callable<String> makeUpload(URI submitUrl) {
+                return HttpTasks.uploadFileForTextDownload(submitUrl, params, "submission[file]", sourceZip);
+            }
+        });
+    }
 
+    /**
+     * Submits a zip that has already been written to disk. The zip is
+     * streamed into the request instead of being held in memory.
+     */
+    public Callable<SubmissionResponse> getSubmittingExerciseTask(final Exercise exercise, final Path sourceZip,
+            Map<String, String> extraParams) {
+        final Map<String, String> params = makeSubmissionParams(extraParams);
+        return getSubmittingTask(exercise, new UploadFactory() {
+            @Override
+            public Callable<String> makeUpload(URI submitUrl) {
+                return HttpTasks.uploadFileForTextDownload(submitUrl, params, "submission[file]", sourceZip);
+            }
+        });
+    }
+
+    private interface UploadFactory {
+        Callable<String> makeUpload(URI submitUrl);
+    }
+
+    private Map<String, String> makeSubmissionParams(Map<String, String> extraParams) {
         final Map<String, String> params = new LinkedHashMap<>();
         params.put("client_time", "" + (System.currentTimeMillis() / 1000L));
         params.put("client_nanotime", "" + System.nanoTime());
         params.putAll(extraParams);
+        return params;
+    }
 
+    private Callable<SubmissionResponse> getSubmittingTask(final Exercise exercise,
+            final UploadFactory uploadFactory) {
         return wrapWithNotLoggedInException(new Callable<SubmissionResponse>() {
             @Override
             public SubmissionResponse call() throws Exception {
                 String response;
                 try {
                     final URI submitUrl = addApiCallQueryParameters(exercise.getReturnUrl());
-                    final Callable<String> upload = HttpTasks.uploadFileForTextDownload(submitUrl, params,
-                            "submission[file]", sourceZip);
+                    final Callable<String> upload = uploadFactory.makeUpload(submitUrl);
                     response = upload.call();
                 } catch (FailedHttpResponseException ex) {
                     return checkForObsoleteClient(ex);
@@ -289,8 +407,6 @@ public class TmcServerCommunicationTaskFactory {
                     throw new RuntimeException("Server returned unknown response");
                 }
             }
-
-            // TODO: Cancellable?
         });
     }
 
@@ -317,15 +433,16 @@ public class TmcServerCommunicationTaskFactory {
             public List<Review> call() throws Exception {
                 try {
                     URI url = addApiCallQueryParameters(course.getReviewsUrl());
-                    final Callable<String> download = HttpTasks.getForText(url);
-                    String text = download.call();
-                    return reviewListParser.parseFromJson(text);
+                    return getShared(url, cacheUser(), new ResponseParser<List<Review>>() {
+                        @Override
+                        public List<Review> parse(Reader body) {
+                            return reviewListParser.parseFromJson(body);
+                        }
+                    });
                 } catch (FailedHttpResponseException ex) {
                     return checkForObsoleteClient(ex);
                 }
             }
-
-            // TODO: Cancellable?
         });
     }
 
@@ -346,8 +463,6 @@ public class TmcServerCommunicationTaskFactory {
                 task.call();
                 return null;
             }
-
-            // TODO: Cancellable?
         });
     }
 
@@ -371,8 +486,6 @@ public class TmcServerCommunicationTaskFactory {
                     return checkForObsoleteClient(ex);
                 }
             }
-
-            // TODO: Cancellable?
         });
     }
 
@@ -395,12 +508,10 @@ public class TmcServerCommunicationTaskFactory {
             @Override
             public Object call() throws Exception {
                 URI url = addApiCallQueryParameters(snapshotServerUrl);
-                final Callable<String> upload = HttpTasks.rawPostForText(url, data, extraHeaders);
+                final Callable<String> upload = HttpTasks.rawPostForTextInBackground(url, data, extraHeaders);
                 upload.call();
                 return null;
             }
-
-            // TODO: Cancellable?
         });
     }
 
@@ -428,10 +539,14 @@ public class TmcServerCommunicationTaskFactory {
             url = serverAddress + "/" + urlLastPart;
         }
         URI organizationUrl = URI.create(url);
-        String response = HttpTasks.getForText(organizationUrl).call();
-        List<Organization> organizations = new Gson().fromJson(response, new TypeToken<List<Organization>>() {
-        }.getType());
-        return organizations;
+        return organizationListCache.get(organizationUrl,
+                new ResponseParser<List<Organization>>() {
+                    @Override
+                    public List<Organization> parse(Reader body) {
+                        return DomainGson.get().fromJson(body, new TypeToken<List<Organization>>() {
+                        }.getType());
+                    }
+                });
     }
 
     public List<Exercise> getExercisesForCourse(int id) throws Exception {
@@ -443,11 +558,15 @@ public class TmcServerCommunicationTaskFactory {
         } else {
             url = serverAddress + "/" + urlLastPart;
         }
-        URI organizationUrl = this.addApiCallQueryParameters(URI.create(url));
-        String response = HttpTasks.getForText(organizationUrl).call();
-        List<Exercise> exercises = new Gson().fromJson(response, new TypeToken<List<Exercise>>() {
-        }.getType());
-        return exercises;
+        URI exercisesUrl = this.addApiCallQueryParameters(URI.create(url));
+        return exerciseListCache.get(exercisesUrl, cacheUser(),
+                new ResponseParser<List<Exercise>>() {
+                    @Override
+                    public List<Exercise> parse(Reader body) {
+                        return DomainGson.get().fromJson(body, new TypeToken<List<Exercise>>() {
+                        }.getType());
+                    }
+                });
     }
 
     public Organization getOrganizationBySlug(String slug) throws Exception {
@@ -465,10 +584,12 @@ public class TmcServerCommunicationTaskFactory {
             url = url + "/org/" + slug + ".json";
         }
         URI organizationUrl = URI.create(url);
-        String response = HttpTasks.getForText(organizationUrl).call();
-        Organization organization = new Gson().fromJson(response, new TypeToken<Organization>() {
-        }.getType());
-        return organization;
+        return getShared(organizationUrl, null, new ResponseParser<Organization>() {
+            @Override
+            public Organization parse(Reader body) {
+                return DomainGson.get().fromJson(body, Organization.class);
+            }
+        });
     }
 
     public UserInfo getUserInfo() throws Exception {
@@ -482,10 +603,14 @@ public class TmcServerCommunicationTaskFactory {
         }
 
         URI userInfoUrl = this.addApiCallQueryParameters(URI.create(url));
-        String response = HttpTasks.getForText(userInfoUrl).call();
-        UserInfo userInfo = new Gson().fromJson(response, new TypeToken<UserInfo>() {
-        }.getType());
-        return userInfo;
+        // The username isn't known before this returns, so the token tells
+        // the users apart.
+        return getShared(userInfoUrl, oauth.getToken(), new ResponseParser<UserInfo>() {
+            @Override
+            public UserInfo parse(Reader body) {
+                return DomainGson.get().fromJson(body, UserInfo.class);
+            }
+        });
     }
 
     private byte[] eventListToPostBody(List<LoggableEvent> events) throws IOException {
@@ -0,0 +1,155 @@
+package fi.helsinki.cs.tmc.core.communication.http;
+
+import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
+
+import com.google.common.base.Optional;
+
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shapes the bandwidth of background uploads so they don't crowd out what
+ * the user is waiting for.
+ *
+ * <p>Background request bodies are written through a token bucket shared by
+ * all background uploads, refilled at the rate given by
+ * {@link fi.helsinki.cs.tmc.core.configuration.TmcSettings#getBackgroundUploadLimit()}
+ * and holding at most one second's worth of bytes. Whenever a foreground
+ * request is in flight background uploads pause between chunks, but each
+ * upload pauses for at most {@link #MAX_YIELD} ms in total so that the
+ * server doesn't give up on it. After that it only keeps to the rate.
+ */
+public final class BandwidthLimiter {
+
+    /*package*/ static final String CONTEXT_ATTRIBUTE = BandwidthLimiter.class.getName();
+    /*package*/ static final long MAX_YIELD = 5 * 1000;
+
+    private static final int CHUNK_SIZE = 4 * 1024;
+
+    private static final Object lock = new Object();
+
+    // The following variables must only be accessed while holding lock.
+    private static int foregroundRequests = 0;
+    private static double tokens = 0;
+    private static long lastRefill = System.nanoTime();
+
+    private BandwidthLimiter() {}
+
+    /*package*/ static void foregroundStarted() {
+        synchronized (lock) {
+            foregroundRequests++;
+        }
+    }
+
+    /*package*/ static void foregroundFinished() {
+        synchronized (lock) {
+            foregroundRequests--;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Blocks until {@code bytes} more may be sent at the given rate, first
+     * yielding to foreground requests for at most {@code maxYield} ms.
+     *
+     * @return how many ms were spent yielding
+     */
+    /*package*/ static long acquire(int bytes, int bytesPerSecond, long maxYield) throws InterruptedException {
+        long yielded;
+        long waitNanos;
+        synchronized (lock) {
+            long start = System.currentTimeMillis();
+            long yieldUntil = start + maxYield;
+            long now;
+            while (foregroundRequests > 0 && (now = System.currentTimeMillis()) < yieldUntil) {
+                lock.wait(yieldUntil - now);
+            }
+            yielded = Math.max(0, System.currentTimeMillis() - start);
+            if (bytesPerSecond <= 0) {
+                return yielded;
+            }
+            refill(bytesPerSecond);
+            tokens -= bytes;
+            waitNanos = tokens < 0 ? (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond) : 0;
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        return yielded;
+    }
+
+    private static void refill(int bytesPerSecond) {
+        long now = System.nanoTime();
+        double elapsedSeconds = (now - lastRefill) / (double) TimeUnit.SECONDS.toNanos(1);
+        tokens = Math.min(bytesPerSecond, tokens + elapsedSeconds * bytesPerSecond);
+        lastRefill = now;
+    }
+
+    /**
+     * Throttles the body of requests marked as background. Added last so
+     * that it throttles the entity that is actually sent.
+     */
+    /*package*/ static final HttpRequestInterceptor REQUEST_THROTTLE = new HttpRequestInterceptor() {
+        @Override
+        public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+            if (context.getAttribute(CONTEXT_ATTRIBUTE) == null
+                    || !(request instanceof HttpEntityEnclosingRequest)) {
+                return;
+            }
+            HttpEntityEnclosingRequest enclosing = (HttpEntityEnclosingRequest) request;
+            if (enclosing.getEntity() == null) {
+                return;
+            }
+            Optional<Integer> limit = TmcSettingsHolder.get().getBackgroundUploadLimit();
+            final int bytesPerSecond = limit.isPresent() ? limit.get() : 0;
+            enclosing.setEntity(new HttpEntityWrapper(enclosing.getEntity()) {
+                @Override
+                public void writeTo(OutputStream out) throws IOException {
+                    super.writeTo(new ThrottledOutputStream(out, bytesPerSecond));
+                }
+            });
+        }
+    };
+
+    private static class ThrottledOutputStream extends FilterOutputStream {
+
+        private final int bytesPerSecond;
+        private long yieldLeft = MAX_YIELD;
+
+        ThrottledOutputStream(OutputStream out, int bytesPerSecond) {
+            super(out);
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            while (length > 0) {
+                int chunk = Math.min(length, CHUNK_SIZE);
+                try {
+                    yieldLeft -= Math.min(yieldLeft, acquire(chunk, bytesPerSecond, yieldLeft));
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Upload interrupted");
+                }
+                out.write(buffer, offset, chunk);
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+    }
+}
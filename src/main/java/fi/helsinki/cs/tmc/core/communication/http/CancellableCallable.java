@@ -0,0 +1,18 @@
+package fi.helsinki.cs.tmc.core.communication.http;
+
+import java.util.concurrent.Callable;
+
+/**
+ * A {@link Callable} whose work can be aborted from another thread.
+ */
+public interface CancellableCallable<V> extends Callable<V> {
+
+    /**
+     * Aborts the task. A running {@link #call()} fails with an
+     * {@link InterruptedException} and a task that hasn't started yet fails
+     * as soon as it is called.
+     *
+     * @return true if the task had not already finished
+     */
+    boolean cancel();
+}
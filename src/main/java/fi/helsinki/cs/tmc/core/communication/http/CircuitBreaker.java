@@ -0,0 +1,111 @@
+package fi.helsinki.cs.tmc.core.communication.http;
+
+import fi.helsinki.cs.tmc.core.exceptions.ServerUnavailableException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Stops requests to a host for a while after several consecutive failures.
+ *
+ * <p>After {@link #FAILURE_THRESHOLD} failures in a row the circuit opens and
+ * requests fail immediately with a {@link ServerUnavailableException}. Once
+ * the open period is over a single trial request is let through: if it
+ * succeeds the circuit closes, otherwise it opens again. The open period is
+ * jittered so that clients don't all come back at the same moment.
+ *
+ * <p>Only connection failures and 5xx responses count as failures; any other
+ * response shows the server is up.
+ */
+/*package*/ final class CircuitBreaker {
+
+    /*package*/ static final int FAILURE_THRESHOLD = 5;
+    /*package*/ static final long OPEN_DURATION = 30 * 1000;
+
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+    private static final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    private final String host;
+
+    // The following variables must only be accessed while holding the lock on this.
+    private int failures;
+    private long openUntil;
+    private boolean trialRunning;
+
+    private CircuitBreaker(String host) {
+        this.host = host;
+    }
+
+    /*package*/ static CircuitBreaker forHost(URI url) {
+        String host = url.getHost() + ":" + url.getPort();
+        CircuitBreaker breaker = breakers.get(host);
+        if (breaker == null) {
+            CircuitBreaker created = new CircuitBreaker(host);
+            breaker = breakers.putIfAbsent(host, created);
+            if (breaker == null) {
+                breaker = created;
+            }
+        }
+        return breaker;
+    }
+
+    /*package*/ static void resetAll() {
+        breakers.clear();
+    }
+
+    /**
+     * Must be called before each request, and be followed by exactly one call
+     * to {@link #onResponse} or {@link #onNoResponse} if it doesn't throw.
+     */
+    /*package*/ synchronized void beforeRequest() throws ServerUnavailableException {
+        if (failures < FAILURE_THRESHOLD) {
+            return;
+        }
+        if (System.currentTimeMillis() < openUntil || trialRunning) {
+            throw new ServerUnavailableException(
+                    "The server is not responding, please try again in a moment.");
+        }
+        logger.info("Trying {} again after repeated failures", host);
+        trialRunning = true;
+    }
+
+    /*package*/ synchronized void onResponse(int statusCode) {
+        if (statusCode >= 500) {
+            recordFailure();
+        } else {
+            if (failures >= FAILURE_THRESHOLD) {
+                logger.info("{} is responding again", host);
+            }
+            failures = 0;
+            trialRunning = false;
+        }
+    }
+
+    /**
+     * Records a request that ended without a complete response, including
+     * one whose body broke off. Cancelled requests say nothing about the
+     * server and are not counted.
+     */
+    /*package*/ synchronized void onNoResponse(boolean cancelled) {
+        if (cancelled) {
+            trialRunning = false;
+        } else {
+            recordFailure();
+        }
+    }
+
+    private void recordFailure() {
+        trialRunning = false;
+        failures++;
+        if (failures >= FAILURE_THRESHOLD) {
+            long duration = OPEN_DURATION + ThreadLocalRandom.current().nextLong(OPEN_DURATION / 2);
+            openUntil = System.currentTimeMillis() + duration;
+            logger.warn("{} failed {} times in a row, not contacting it for {} ms", host, failures, duration);
+        }
+    }
+}
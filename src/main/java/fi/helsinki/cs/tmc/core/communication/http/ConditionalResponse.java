@@ -0,0 +1,94 @@
+package fi.helsinki.cs.tmc.core.communication.http;
+
+import com.google.common.base.Optional;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The result of a conditional GET: either a fresh body with its cache
+ * validators or a notice that the previously seen body is still current.
+ *
+ * <p>The body is kept as the bytes received, so it can be parsed with
+ * {@link #openBody()} and stored without decoding it into a string.
+ */
+public final class ConditionalResponse {
+
+    private final boolean notModified;
+    private final byte[] body;
+    private final Charset charset;
+    private final Optional<String> etag;
+    private final Optional<String> lastModified;
+
+    private ConditionalResponse(
+            boolean notModified, byte[] body, Charset charset, Optional<String> etag,
+            Optional<String> lastModified) {
+        this.notModified = notModified;
+        this.body = body;
+        this.charset = charset;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    /*package*/ static ConditionalResponse notModified() {
+        return new ConditionalResponse(true, null, StandardCharsets.UTF_8,
+                Optional.<String>absent(), Optional.<String>absent());
+    }
+
+    /*package*/ static ConditionalResponse modified(
+            byte[] body, Charset charset, String etag, String lastModified) {
+        return new ConditionalResponse(false, body, charset,
+                Optional.fromNullable(etag), Optional.fromNullable(lastModified));
+    }
+
+    /**
+     * True if the server answered 304 Not Modified. There is no body then.
+     */
+    public boolean isNotModified() {
+        return notModified;
+    }
+
+    /**
+     * Decodes the whole body into a string. Prefer {@link #openBody()}.
+     */
+    public String getBody() {
+        return body != null ? new String(body, charset) : null;
+    }
+
+    /**
+     * Returns a reader that decodes the body as it is read.
+     */
+    public Reader openBody() {
+        return new InputStreamReader(new ByteArrayInputStream(body), charset);
+    }
+
+    /**
+     * Returns the body as received. The array is not copied and must not be
+     * modified.
+     */
+    public byte[] getBodyBytes() {
+        return body;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public Optional<String> getEtag() {
+        return etag;
+    }
+
+    public Optional<String> getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * True if the response carried something to revalidate against later.
+     */
+    public boolean hasValidators() {
+        return etag.isPresent() || lastModified.isPresent();
+    }
+}
@@ -0,0 +1,230 @@
+package fi.helsinki.cs.tmc.core.communication.http;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.routing.HttpRoutePlanner;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultRedirectStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultRoutePlanner;
+import org.apache.http.protocol.HttpContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.ProxySelector;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds the process-wide HTTP client that all {@link HttpTasks} share.
+ *
+ * <p>Connections are pooled and kept alive between requests so that
+ * consecutive calls to the same server don't pay for a new TCP and TLS
+ * handshake each time. The proxy returned by
+ * {@link fi.helsinki.cs.tmc.core.configuration.TmcSettings#proxy()} is looked
+ * up again for every request, so changing it doesn't require a new client.
+ * The pool limits and timeouts are applied to the existing client too, so
+ * requests in flight on other threads are never cut off by reconfiguring.
+ */
+public final class HttpClientPool {
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 20;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 5;
+    public static final long DEFAULT_IDLE_TIMEOUT = 30 * 1000;
+    public static final long DEFAULT_KEEP_ALIVE = 60 * 1000;
+
+    private static final Logger logger = LoggerFactory.getLogger(HttpClientPool.class);
+
+    // The following variables must only be accessed while holding the class lock.
+    private static int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private static int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+    private static CloseableHttpClient client;
+    private static PoolingHttpClientConnectionManager connectionManager;
+
+    // Read by the keep-alive strategy of the client for every response.
+    private static volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private static volatile long keepAlive = DEFAULT_KEEP_ALIVE;
+    private static volatile HttpMetrics metrics = HttpMetrics.NONE;
+
+    private HttpClientPool() {}
+
+    /**
+     * Returns the shared client, building it on first use.
+     *
+     * <p>The returned client must not be closed by the caller.
+     */
+    public static synchronized CloseableHttpClient getClient() {
+        if (client == null) {
+            client = makeHttpClient();
+        }
+        return client;
+    }
+
+    public static synchronized void setMaxConnections(int maxConnections) {
+        checkArgument(maxConnections > 0);
+        HttpClientPool.maxConnections = maxConnections;
+        if (connectionManager != null) {
+            connectionManager.setMaxTotal(maxConnections);
+            closeIdleConnections(0);
+        }
+    }
+
+    public static synchronized void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        checkArgument(maxConnectionsPerRoute > 0);
+        HttpClientPool.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        if (connectionManager != null) {
+            connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+            closeIdleConnections(0);
+        }
+    }
+
+    /**
+     * Sets how long a pooled connection may sit unused before it is closed.
+     */
+    public static synchronized void setIdleTimeout(long idleTimeoutMs) {
+        checkArgument(idleTimeoutMs > 0);
+        HttpClientPool.idleTimeout = idleTimeoutMs;
+        if (connectionManager != null) {
+            connectionManager.setValidateAfterInactivity(toIntMillis(idleTimeoutMs));
+            closeIdleConnections(idleTimeoutMs);
+        }
+    }
+
+    /**
+     * Sets the upper bound for keeping a connection alive when the server
+     * doesn't specify one with a {@code Keep-Alive} header.
+     *
+     * <p>Applies to connections returned to the pool from now on.
+     */
+    public static void setKeepAlive(long keepAliveMs) {
+        checkArgument(keepAliveMs > 0);
+        HttpClientPool.keepAlive = keepAliveMs;
+    }
+
+    /**
+     * Sets where the metrics of every request attempt are reported.
+     */
+    public static void setMetrics(HttpMetrics metrics) {
+        HttpClientPool.metrics = checkNotNull(metrics);
+    }
+
+    public static HttpMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Closes the shared client and all of its pooled connections.
+     *
+     * <p>A new client is built on the next call to {@link #getClient()}.
+     */
+    public static synchronized void shutdown() {
+        if (client == null) {
+            return;
+        }
+        try {
+            client.close();
+        } catch (IOException ex) {
+            logger.warn("Closing the shared http client failed", ex);
+        }
+        client = null;
+        connectionManager = null;
+    }
+
+    private static CloseableHttpClient makeHttpClient() {
+        connectionManager = new PoolingHttpClientConnectionManager(makeSocketFactoryRegistry());
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        connectionManager.setValidateAfterInactivity(toIntMillis(idleTimeout));
+
+        HttpClientBuilder httpClientBuilder =
+                HttpClients.custom()
+                        .useSystemProperties()
+                        .setConnectionManager(connectionManager)
+                        // Idle connections expire through the keep-alive strategy.
+                        .setKeepAliveStrategy(new BoundedKeepAliveStrategy())
+                        .evictExpiredConnections()
+                        .setRoutePlanner(new SettingsRoutePlanner())
+                        .setRedirectStrategy(new DefaultRedirectStrategy())
+                        // Content compression is on by default: gzip is requested and decoded on the fly.
+                        .addInterceptorLast(BandwidthLimiter.REQUEST_THROTTLE)
+                        .addInterceptorLast(TransferStats.REQUEST_COUNTER)
+                        .addInterceptorFirst(TransferStats.RESPONSE_COUNTER);
+
+        return httpClientBuilder.build();
+    }
+
+    // Free pooled connections are reused even past a lowered limit, so the
+    // ones not in use are closed. Those in use close once they sit idle.
+    private static void closeIdleConnections(long idleTimeMs) {
+        connectionManager.closeIdleConnections(idleTimeMs, TimeUnit.MILLISECONDS);
+    }
+
+    private static int toIntMillis(long millis) {
+        return (int) Math.min(millis, Integer.MAX_VALUE);
+    }
+
+    // An explicit connection manager bypasses useSystemProperties(), so the
+    // system SSL configuration has to be picked up here instead.
+    private static Registry<ConnectionSocketFactory> makeSocketFactoryRegistry() {
+        return RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", SSLConnectionSocketFactory.getSystemSocketFactory())
+                .build();
+    }
+
+    /**
+     * Routes each request through the proxy currently configured in the
+     * settings, falling back to the system proxy selector.
+     */
+    private static class SettingsRoutePlanner implements HttpRoutePlanner {
+
+        private final HttpRoutePlanner systemDefault =
+                new SystemDefaultRoutePlanner(ProxySelector.getDefault());
+
+        @Override
+        public HttpRoute determineRoute(HttpHost target, HttpRequest request, HttpContext context)
+                throws HttpException {
+            SystemDefaultRoutePlanner proxy = TmcSettingsHolder.get().proxy();
+            if (proxy != null) {
+                return proxy.determineRoute(target, request, context);
+            }
+            return systemDefault.determineRoute(target, request, context);
+        }
+    }
+
+    /**
+     * Keeps a connection in the pool for as long as the server allows, but no
+     * longer than the keep-alive or the idle timeout currently configured.
+     */
+    private static class BoundedKeepAliveStrategy implements ConnectionKeepAliveStrategy {
+
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            long duration =
+                    DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            long max = Math.min(keepAlive, idleTimeout);
+            if (duration <= 0) {
+                return max;
+            }
+            return Math.min(duration, max);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package fi.helsinki.cs.tmc.core.communication.http;
+
+/**
+ * Receives a {@link RequestMetrics} for every attempt at an HTTP request
+ * made through {@link HttpTasks}.
+ *
+ * <p>Install an implementation with {@link HttpClientPool#setMetrics}, e.g.
+ * a {@link HttpMetricsCollector} or an adapter to the host application's
+ * own metrics library. Implementations are called from the threads making
+ * the requests, so they must be thread safe and should return quickly.
+ */
+public interface HttpMetrics {
+
+    HttpMetrics NONE = new HttpMetrics() {
+        @Override
+        public void record(RequestMetrics attempt) {
+        }
+    };
+
+    void record(RequestMetrics attempt);
+}
@@ -0,0 +1,199 @@
+package fi.helsinki.cs.tmc.core.communication.http;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps per-endpoint totals of the requests made in this process, for host
+ * applications that don't have metrics of their own to feed.
+ *
+ * <p>Latencies are kept in a histogram with fixed bucket bounds, so
+ * percentiles are only as exact as {@link #LATENCY_BUCKETS}. Once
+ * {@link #MAX_ENDPOINTS} endpoints have been seen, requests to new ones are
+ * counted under {@link #OTHER_ENDPOINT}, so urls the server hands out can't
+ * grow the totals without bound.
+ */
+public final class HttpMetricsCollector implements HttpMetrics {
+
+    /**
+     * Upper bounds of the latency histogram buckets in milliseconds. Slower
+     * attempts fall into one more bucket after the last.
+     */
+    public static final long[] LATENCY_BUCKETS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+
+    public static final int MAX_ENDPOINTS = 200;
+    public static final String OTHER_ENDPOINT = "other";
+
+    private final ConcurrentMap<String, EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+
+    @Override
+    public void record(RequestMetrics attempt) {
+        String endpoint = attempt.getEndpoint();
+        EndpointMetrics metrics = endpoints.get(endpoint);
+        if (metrics == null) {
+            // Concurrent calls may go a few over the limit, which is fine.
+            if (endpoints.size() >= MAX_ENDPOINTS) {
+                endpoint = OTHER_ENDPOINT;
+            }
+            EndpointMetrics created = new EndpointMetrics();
+            metrics = endpoints.putIfAbsent(endpoint, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        metrics.add(attempt);
+    }
+
+    /**
+     * Returns a copy of the current totals by endpoint.
+     */
+    public SortedMap<String, EndpointMetrics> getEndpoints() {
+        SortedMap<String, EndpointMetrics> copy = new TreeMap<>();
+        for (Map.Entry<String, EndpointMetrics> entry : endpoints.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue().copy());
+        }
+        return copy;
+    }
+
+    public void reset() {
+        endpoints.clear();
+    }
+
+    public static final class EndpointMetrics {
+
+        private long attempts;
+        private long failures;
+        private long retries;
+        private long reusedConnections;
+        private long bytesSent;
+        private long bytesReceived;
+        private long totalNanos;
+        private final long[] latencyCounts = new long[LATENCY_BUCKETS.length + 1];
+        private final SortedMap<Integer, Long> statusCodes = new TreeMap<>();
+
+        private synchronized void add(RequestMetrics attempt) {
+            attempts++;
+            if (!attempt.isSuccessful()) {
+                failures++;
+            }
+            if (attempt.isRetry()) {
+                retries++;
+            }
+            if (attempt.isConnectionReused()) {
+                reusedConnections++;
+            }
+            bytesSent += attempt.getBytesSent();
+            bytesReceived += attempt.getBytesReceived();
+            totalNanos += attempt.getDurationNanos();
+            latencyCounts[bucketOf(TimeUnit.NANOSECONDS.toMillis(attempt.getDurationNanos()))]++;
+            Long count = statusCodes.get(attempt.getStatusCode());
+            statusCodes.put(attempt.getStatusCode(), count == null ? 1 : count + 1);
+        }
+
+        private synchronized EndpointMetrics copy() {
+            EndpointMetrics copy = new EndpointMetrics();
+            copy.attempts = attempts;
+            copy.failures = failures;
+            copy.retries = retries;
+            copy.reusedConnections = reusedConnections;
+            copy.bytesSent = bytesSent;
+            copy.bytesReceived = bytesReceived;
+            copy.totalNanos = totalNanos;
+            System.arraycopy(latencyCounts, 0, copy.latencyCounts, 0, latencyCounts.length);
+            copy.statusCodes.putAll(statusCodes);
+            return copy;
+        }
+
+        private static int bucketOf(long millis) {
+            for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+                if (millis <= LATENCY_BUCKETS[i]) {
+                    return i;
+                }
+            }
+            return LATENCY_BUCKETS.length;
+        }
+
+        public long getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * Returns the number of attempts that didn't get a successful response.
+         */
+        public long getFailures() {
+            return failures;
+        }
+
+        public long getRetries() {
+            return retries;
+        }
+
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived;
+        }
+
+        /**
+         * Returns the share of attempts that reused a pooled connection.
+         */
+        public double getConnectionReuseRatio() {
+            return attempts == 0 ? 0 : (double) reusedConnections / attempts;
+        }
+
+        /**
+         * Returns the number of responses by status code, with 0 counting
+         * attempts that got no response.
+         */
+        public SortedMap<Integer, Long> getStatusCodes() {
+            return Collections.unmodifiableSortedMap(statusCodes);
+        }
+
+        /**
+         * Returns the number of attempts in each bucket of {@link #LATENCY_BUCKETS}.
+         */
+        public long[] getLatencyHistogram() {
+            return latencyCounts.clone();
+        }
+
+        public long getMeanLatencyMillis() {
+            return attempts == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos / attempts);
+        }
+
+        /**
+         * Returns the upper bound of the bucket the given percentile falls
+         * into, or -1 if it is above the last bound.
+         */
+        public long getLatencyPercentileMillis(double percentile) {
+            checkArgument(0 < percentile && percentile <= 100);
+            if (attempts == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(attempts * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+                seen += latencyCounts[i];
+                if (seen >= rank) {
+                    return LATENCY_BUCKETS[i];
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public String toString() {
+            return attempts + " attempts, " + failures + " failed, " + retries + " retries, mean "
+                    + getMeanLatencyMillis() + " ms, p95 <= " + getLatencyPercentileMillis(95) + " ms, sent "
+                    + bytesSent + " bytes, received " + bytesReceived + " bytes, status codes " + statusCodes;
+        }
+    }
+}
@@ -2,48 +2,133 @@ package fi.helsinki.cs.tmc.core.communication.http;
 
 import fi.helsinki.cs.tmc.core.exceptions.ConnectionFailedException;
 import fi.helsinki.cs.tmc.core.exceptions.FailedHttpResponseException;
-import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
 
+import org.apache.http.Header;
+import org.apache.http.HttpConnection;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
+import org.apache.http.HttpStatus;
+import org.apache.http.ParseException;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.entity.BufferedHttpEntity;
-import org.apache.http.impl.NoConnectionReuseStrategy;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.DefaultRedirectStrategy;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.SystemDefaultRoutePlanner;
-import org.apache.http.protocol.BasicHttpContext;
-import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
-import java.util.concurrent.Callable;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
 
 /**
- * Downloads a single file over HTTP into memory while being cancellable.
+ * Downloads a single file over HTTP into memory or into a channel while
+ * being cancellable.
+ *
+ * <p>Requests are executed with the shared client from {@link HttpClientPool}
+ * so that connections are reused between calls.
+ *
+ * <p>Failed attempts are repeated according to a {@link RetryPolicy}, and a
+ * per-host {@link CircuitBreaker} stops requests to a server that keeps
+ * failing. Every attempt is reported to the {@link HttpMetrics} set in
+ * {@link HttpClientPool}.
  *
  * <p>If the response was not a successful one (status code 2xx) then a
  * {@link FailedHttpResponseException} with a preloaded buffered entity is
  * thrown.
  */
-/*package*/ class HttpRequestExecutor implements Callable<BufferedHttpEntity> {
+/*package*/ class HttpRequestExecutor implements CancellableCallable<BufferedHttpEntity> {
+
+    /**
+     * Where {@link #writeTo(ResponseTarget)} streams a successful response.
+     */
+    /*package*/ interface ResponseTarget {
+        /**
+         * Called when the headers of a successful response have arrived,
+         * before any of the body is read. The caller closes the channel.
+         */
+        WritableByteChannel open(HttpResponse response) throws IOException;
+    }
+
+    private interface ResponseHandler<T> {
+        T handle(CloseableHttpResponse response)
+                throws IOException, InterruptedException, FailedHttpResponseException;
+    }
+
+    /**
+     * Counts the bytes read and remembers why reading failed, in case the
+     * reader hides it.
+     */
+    private static class TrackingInputStream extends FilterInputStream {
+        long count;
+        IOException failure;
+
+        TrackingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                int read = super.read();
+                if (read != -1) {
+                    count++;
+                }
+                return read;
+            } catch (IOException ex) {
+                failure = ex;
+                throw ex;
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            try {
+                int read = super.read(buffer, offset, length);
+                if (read != -1) {
+                    count += read;
+                }
+                return read;
+            } catch (IOException ex) {
+                failure = ex;
+                throw ex;
+            }
+        }
+    }
 
     private static final int DEFAULT_TIMEOUT = 10 * 1000;
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
     private static final Logger logger = LoggerFactory.getLogger(HttpRequestExecutor.class);
 
     private final Object shutdownLock = new Object();
 
+    private final HttpUriRequest request;
     private int timeout = DEFAULT_TIMEOUT;
-    private HttpUriRequest request;
+    private RetryPolicy retryPolicy;
+    private volatile boolean cancelled;
+    private boolean running;
+    private boolean bodyStarted;
+    private boolean notModifiedAllowed;
+    private boolean background;
+    private Header[] responseHeaders = new Header[0];
+    private TransferStats transferStats = new TransferStats();
+    private boolean connectionReused;
 
     /*package*/ HttpRequestExecutor(URI url) {
         this(new HttpGet(url));
@@ -51,6 +136,7 @@ import java.util.concurrent.Callable;
 
     /*package*/ HttpRequestExecutor(HttpUriRequest request) {
         this.request = request;
+        this.retryPolicy = RetryPolicy.forMethod(request.getMethod());
     }
 
     public HttpRequestExecutor setTimeout(int timeoutMs) {
@@ -58,75 +144,343 @@ import java.util.concurrent.Callable;
         return this;
     }
 
+    /*package*/ HttpRequestExecutor setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    /**
+     * Makes {@link #call()} return null on 304 Not Modified instead of
+     * treating it as a failure. Used for conditional requests.
+     */
+    /*package*/ HttpRequestExecutor allowNotModified() {
+        this.notModifiedAllowed = true;
+        return this;
+    }
+
+    /**
+     * Marks the request as a background upload whose body is throttled by
+     * {@link BandwidthLimiter}. Other requests are foreground requests that
+     * background uploads yield to.
+     */
+    /*package*/ HttpRequestExecutor inBackground() {
+        this.background = true;
+        return this;
+    }
+
+    /**
+     * Returns the value of a header from the last response, or null.
+     */
+    /*package*/ String getResponseHeader(String name) {
+        for (Header header : responseHeaders) {
+            if (header.getName().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the byte counts of the last attempt.
+     */
+    /*package*/ TransferStats getTransferStats() {
+        return transferStats;
+    }
+
     @Override
     public BufferedHttpEntity call()
             throws IOException, InterruptedException, FailedHttpResponseException, ConnectionFailedException {
-        CloseableHttpClient httpClient = makeHttpClient();
+        return execute(new ResponseHandler<BufferedHttpEntity>() {
+            @Override
+            public BufferedHttpEntity handle(CloseableHttpResponse response)
+                    throws IOException, FailedHttpResponseException {
+                return handleResponse(response);
+            }
+        });
+    }
+
+    /**
+     * Executes the request and streams a successful response body into the
+     * given channel through a fixed size buffer, so the body is never held
+     * in memory as a whole.
+     *
+     * <p>Unsuccessful responses are buffered and thrown as a
+     * {@link FailedHttpResponseException} like in {@link #call()}. Once
+     * the body has started to arrive the request is no longer retried, as
+     * part of it has already been written.
+     *
+     * @return the number of bytes written
+     */
+    public long writeTo(final WritableByteChannel target)
+            throws IOException, InterruptedException, FailedHttpResponseException, ConnectionFailedException {
+        return writeTo(new ResponseTarget() {
+            @Override
+            public WritableByteChannel open(HttpResponse response) {
+                return target;
+            }
+        });
+    }
+
+    /**
+     * Like {@link #writeTo(WritableByteChannel)}, but lets the caller pick
+     * the channel based on the response.
+     */
+    /*package*/ long writeTo(final ResponseTarget target)
+            throws IOException, InterruptedException, FailedHttpResponseException, ConnectionFailedException {
+        return execute(new ResponseHandler<Long>() {
+            @Override
+            public Long handle(CloseableHttpResponse response)
+                    throws IOException, InterruptedException, FailedHttpResponseException {
+                HttpEntity entity = getSuccessfulEntity(response);
+                bodyStarted = true;
+                WritableByteChannel channel = target.open(response);
+                try (ReadableByteChannel source = Channels.newChannel(entity.getContent())) {
+                    long written = copy(source, channel);
+                    transferStats.setContentBytes(written);
+                    return written;
+                }
+            }
+        });
+    }
+
+    /**
+     * Executes the request and hands a successful response body to the
+     * parser as it arrives, so the body is never held in memory as a whole.
+     *
+     * <p>Unlike {@link #writeTo(WritableByteChannel)} the request is retried
+     * if reading the body fails, as nothing has been handed out yet. Parsers
+     * that wrap the read failure in a runtime exception, like Gson does, are
+     * retried too.
+     */
+    /*package*/ <T> T parse(final ResponseParser<T> parser)
+            throws IOException, InterruptedException, FailedHttpResponseException, ConnectionFailedException {
+        return execute(new ResponseHandler<T>() {
+            @Override
+            public T handle(CloseableHttpResponse response) throws IOException, FailedHttpResponseException {
+                HttpEntity entity = getSuccessfulEntity(response);
+                TrackingInputStream content = new TrackingInputStream(entity.getContent());
+                try (Reader body = new InputStreamReader(content, charsetOf(entity))) {
+                    return parser.parse(body);
+                } catch (RuntimeException ex) {
+                    if (content.failure != null) {
+                        throw content.failure;
+                    }
+                    throw ex;
+                } finally {
+                    transferStats.setContentBytes(content.count);
+                }
+            }
+        });
+    }
 
+    /**
+     * Returns the charset declared by the entity, defaulting to UTF-8 like
+     * the server's JSON responses.
+     */
+    /*package*/ static Charset charsetOf(HttpEntity entity) {
         try {
-            return executeRequest(httpClient);
-        } finally {
-            synchronized (shutdownLock) {
-                request = null;
-                disposeOfHttpClient(httpClient);
+            ContentType type = ContentType.get(entity);
+            if (type != null && type.getCharset() != null) {
+                return type.getCharset();
             }
+        } catch (ParseException | UnsupportedCharsetException ex) {
+            logger.debug("Unusable content type, assuming UTF-8", ex);
         }
+        return StandardCharsets.UTF_8;
     }
 
-    private CloseableHttpClient makeHttpClient() {
-        RequestConfig config = RequestConfig.custom().setConnectTimeout(timeout).setSocketTimeout(timeout).build();
-        HttpClientBuilder httpClientBuilder =
-                HttpClients.custom()
-                        .useSystemProperties()
-                        .setRedirectStrategy(new DefaultRedirectStrategy())
-                        .setDefaultRequestConfig(config);
-        maybeSetProxy(httpClientBuilder);
-
-        return httpClientBuilder.build();
+    private <T> T execute(ResponseHandler<T> handler)
+            throws IOException, InterruptedException, FailedHttpResponseException, ConnectionFailedException {
+        CircuitBreaker breaker = CircuitBreaker.forHost(request.getURI());
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return attempt(handler, breaker, attempt);
+            } catch (IOException | FailedHttpResponseException | ConnectionFailedException ex) {
+                if (ex instanceof FailedHttpResponseException && RequestCompression.uncompressIfRejected(
+                        request, ((FailedHttpResponseException) ex).getStatusCode())) {
+                    continue;
+                }
+                if (attempt >= retryPolicy.getMaxAttempts() || bodyStarted || !RetryPolicy.isRetryable(ex)) {
+                    throw ex;
+                }
+                long delay = retryPolicy.getDelay(attempt);
+                logger.info("Request to {} failed, retrying in {} ms: {}", request.getURI().getHost(), delay, ex);
+                Thread.sleep(delay);
+            }
+        }
     }
 
-    private void disposeOfHttpClient(CloseableHttpClient httpClient) {
+    private <T> T attempt(ResponseHandler<T> handler, CircuitBreaker breaker, int attempt)
+            throws IOException, InterruptedException, FailedHttpResponseException, ConnectionFailedException {
+        breaker.beforeRequest();
+        // Set once the whole response, body included, has arrived. A server
+        // that fails halfway through the body counts as not answering.
+        boolean answered = false;
+        int statusCode = 0;
+        long start = System.nanoTime();
+        if (!background) {
+            BandwidthLimiter.foregroundStarted();
+        }
         try {
-            httpClient.close();
+            begin();
+            transferStats = new TransferStats();
+            connectionReused = false;
+            try (CloseableHttpResponse response = executeRequest(HttpClientPool.getClient())) {
+                statusCode = response.getStatusLine().getStatusCode();
+                try {
+                    T result = handler.handle(response);
+                    answered = true;
+                    return result;
+                } catch (FailedHttpResponseException | RuntimeException ex) {
+                    // The body was read, it just wasn't what we wanted.
+                    answered = true;
+                    throw ex;
+                }
+            }
         } catch (IOException ex) {
-            logger.warn("Dispose of httpClient failed {0}", ex);
+            throw interruptedIfCancelled(ex);
+        } finally {
+            if (answered) {
+                breaker.onResponse(statusCode);
+            } else {
+                breaker.onNoResponse(cancelled || Thread.currentThread().isInterrupted());
+            }
+            end();
+            if (!background) {
+                BandwidthLimiter.foregroundFinished();
+            }
+            logger.debug("{} {}: {}", request.getMethod(), request.getURI().getPath(), transferStats);
+            recordMetrics(new RequestMetrics(request.getMethod(), request.getURI(), statusCode,
+                    System.nanoTime() - start, attempt, transferStats, connectionReused));
         }
     }
 
-    private BufferedHttpEntity executeRequest(HttpClient httpClient)
-            throws IOException, InterruptedException, FailedHttpResponseException, ConnectionFailedException {
-        HttpResponse response;
-        HttpContext context = new BasicHttpContext();
+    private static void recordMetrics(RequestMetrics attempt) {
+        try {
+            HttpClientPool.getMetrics().record(attempt);
+        } catch (RuntimeException ex) {
+            logger.warn("Recording http metrics failed", ex);
+        }
+    }
 
+    private void begin() throws InterruptedException {
+        synchronized (shutdownLock) {
+            if (cancelled || Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+            running = true;
+        }
+        applyTimeout();
+        InterruptWatcher.register(this);
+    }
+
+    private void end() {
+        InterruptWatcher.unregister(this);
+        synchronized (shutdownLock) {
+            running = false;
+        }
+    }
+
+    // Aborting a request surfaces as an IOException from whatever was blocked on the socket.
+    private IOException interruptedIfCancelled(IOException ex) throws InterruptedException {
+        if (cancelled) {
+            InterruptedException interrupted = new InterruptedException();
+            interrupted.initCause(ex);
+            throw interrupted;
+        }
+        return ex;
+    }
+
+    private long copy(ReadableByteChannel source, WritableByteChannel target)
+            throws IOException, InterruptedException {
+        ByteBuffer buffer = ByteBuffer.allocate(TRANSFER_BUFFER_SIZE);
+        long written = 0;
+        while (source.read(buffer) != -1) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                written += target.write(buffer);
+            }
+            buffer.clear();
+        }
+        return written;
+    }
+
+    private void applyTimeout() {
+        if (request instanceof HttpRequestBase) {
+            RequestConfig config =
+                    RequestConfig.custom()
+                            .setConnectTimeout(timeout)
+                            .setConnectionRequestTimeout(timeout)
+                            .setSocketTimeout(timeout)
+                            .build();
+            ((HttpRequestBase) request).setConfig(config);
+        }
+    }
+
+    // Closing the returned response hands the connection back to the shared pool.
+    private CloseableHttpResponse executeRequest(CloseableHttpClient httpClient)
+            throws IOException, InterruptedException, ConnectionFailedException {
         try {
-            response = httpClient.execute(request);
+            HttpClientContext context = HttpClientContext.create();
+            context.setAttribute(TransferStats.CONTEXT_ATTRIBUTE, transferStats);
+            if (background) {
+                context.setAttribute(BandwidthLimiter.CONTEXT_ATTRIBUTE, Boolean.TRUE);
+            }
+            CloseableHttpResponse response = httpClient.execute(request, context);
+            responseHeaders = response.getAllHeaders();
+            connectionReused = isConnectionReused(context);
+            return response;
         } catch (IOException ex) {
             logger.info("Executing http request failed: {0}", ex.toString());
-            if (request.isAborted()) {
+            if (cancelled || request.isAborted()) {
                 throw new InterruptedException();
-            } else if (ex.getMessage().contains("connect timed out")) {
+            } else if (ex.getMessage() != null && ex.getMessage().contains("connect timed out")) {
                 throw new ConnectionFailedException("Communication with server failed! Please check your internet connection and try again.\n"
                         + "Try opening a browser and see if you can load any pages.");
             } else {
                 throw new IOException("Download failed: " + ex.getMessage(), ex);
             }
         }
+    }
+
+    // The connection is only available until the response has been consumed.
+    private static boolean isConnectionReused(HttpClientContext context) {
+        try {
+            HttpConnection connection = context.getConnection();
+            return connection != null && connection.getMetrics().getRequestCount() > 1;
+        } catch (IllegalStateException ex) {
+            return false;
+        }
+    }
+
+    private BufferedHttpEntity handleResponse(CloseableHttpResponse response)
+            throws IOException, FailedHttpResponseException {
+        if (notModifiedAllowed && response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+            EntityUtils.consume(response.getEntity());
+            return null;
+        }
 
-        return handleResponse(response);
+        BufferedHttpEntity entity = new BufferedHttpEntity(getSuccessfulEntity(response));
+        EntityUtils.consume(entity); // Ensure it's loaded into memory
+        transferStats.setContentBytes(entity.getContentLength());
+        return entity;
     }
 
-    private BufferedHttpEntity handleResponse(HttpResponse response)
+    private HttpEntity getSuccessfulEntity(CloseableHttpResponse response)
             throws IOException, FailedHttpResponseException {
         int responseCode = response.getStatusLine().getStatusCode();
         if (response.getEntity() == null) {
             throw new IOException("HTTP " + responseCode + " with no response");
         }
 
-        BufferedHttpEntity entity = new BufferedHttpEntity(response.getEntity());
-        EntityUtils.consume(entity); // Ensure it's loaded into memory
         if (200 <= responseCode && responseCode <= 299) {
-            return entity;
+            return response.getEntity();
         } else {
+            BufferedHttpEntity entity = new BufferedHttpEntity(response.getEntity());
+            EntityUtils.consume(entity); // Ensure it's loaded into memory
             logger.info(
                     "Received http response with non 2xx response code "
                             + responseCode
@@ -140,21 +494,15 @@ import java.util.concurrent.Callable;
     /**
      * May be called from another thread to cancel an ongoing download.
      */
-    //@Override
-    //TODO: Cancellable?
+    @Override
     public boolean cancel() {
         synchronized (shutdownLock) {
-            if (request != null) {
+            cancelled = true;
+            if (running) {
                 request.abort();
+                return true;
             }
         }
-        return true;
-    }
-
-    private void maybeSetProxy(HttpClientBuilder httpClientBuilder) {
-        SystemDefaultRoutePlanner systemDefaultRoutePlanner = TmcSettingsHolder.get().proxy();
-        if (systemDefaultRoutePlanner != null) {
-            httpClientBuilder.setRoutePlanner(systemDefaultRoutePlanner);
-        }
+        return false;
     }
 }
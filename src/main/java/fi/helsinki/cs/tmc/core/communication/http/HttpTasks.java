@@ -4,30 +4,47 @@ import fi.helsinki.cs.tmc.core.exceptions.FailedHttpResponseException;
 
 import com.google.gson.Gson;
 
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.entity.mime.HttpMultipartMode;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
 import org.apache.http.entity.mime.content.ByteArrayBody;
+import org.apache.http.entity.mime.content.ContentBody;
+import org.apache.http.entity.mime.content.FileBody;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EntityUtils;
 
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Map;
-import java.util.concurrent.Callable;
 
 /**
  * Convenient methods to start asynchronous HTTP tasks.
  *
+ * <p>All tasks share the pooled client from {@link HttpClientPool}. Tasks can
+ * be aborted with {@link CancellableCallable#cancel()} or by interrupting the
+ * thread that runs them.
+ *
+ * <p>Responses are requested gzipped and decoded while they are read. Form
+ * and JSON posts can be compressed too, see {@link RequestCompression}.
+ * Background uploads are throttled, see {@link BandwidthLimiter}.
+ *
  * <p>Tasks throw a {@link FailedHttpResponseException} when getting a response
  * with a non-successful status code.
  */
@@ -40,77 +57,213 @@ public class HttpTasks {
         return new HttpRequestExecutor(url);
     }
 
-    private static HttpRequestExecutor createExecutor(HttpPost request) {
+    private static HttpRequestExecutor createExecutor(HttpUriRequest request) {
         return new HttpRequestExecutor(request);
     }
 
     /**
      * Posts json to a url without authentication.
      */
-    public static Callable<String> postJson(final URI uri, final Serializable json) {
-        return new Callable<String>() {
-            @Override
-            public String call() throws Exception {
-                String string = gson.toJson(json);
-                StringEntity content = new StringEntity(string, "UTF-8");
-                HttpPost httpPost = new HttpPost(uri);
-                httpPost.setHeader("content-type", "application/json");
-                httpPost.setEntity(content);
-                HttpRequestExecutor executor = new HttpRequestExecutor(httpPost);
-                return EntityUtils.toString(executor.call());
-            }
-        };
+    public static CancellableCallable<String> postJson(final URI uri, final Serializable json) {
+        String string = gson.toJson(json);
+        StringEntity content = new StringEntity(string, "UTF-8");
+        HttpPost httpPost = new HttpPost(uri);
+        httpPost.setHeader("content-type", "application/json");
+        httpPost.setEntity(RequestCompression.compressIfAccepted(uri, content));
+        return downloadToText(createExecutor(httpPost));
     }
 
-    public static Callable<byte[]> getForBinary(URI url) {
+    /**
+     * Like {@link #postJson(URI, Serializable)}, but as a background upload
+     * that is throttled by {@link BandwidthLimiter}.
+     */
+    public static CancellableCallable<String> postJsonInBackground(final URI uri, final Serializable json) {
+        StringEntity content = new StringEntity(gson.toJson(json), "UTF-8");
+        HttpPost httpPost = new HttpPost(uri);
+        httpPost.setHeader("content-type", "application/json");
+        httpPost.setEntity(RequestCompression.compressIfAccepted(uri, content));
+        return downloadToText(createExecutor(httpPost).inBackground());
+    }
+
+    public static CancellableCallable<byte[]> getForBinary(URI url) {
         return downloadToBinary(createExecutor(url));
     }
 
-    public static Callable<String> getForText(URI url) {
+    /**
+     * Downloads a url straight into the given file without buffering the
+     * whole response in memory. The file is created or truncated.
+     */
+    public static CancellableCallable<Path> getForFile(URI url, Path target) {
+        return downloadToFile(createExecutor(url), target);
+    }
+
+    /**
+     * Downloads a url into the given file, resuming an earlier download that
+     * broke off. The partial download is kept next to the target until it is
+     * complete and is discarded if {@code version} differs from the one it
+     * was started with.
+     */
+    public static CancellableCallable<Path> getForFileResumable(URI url, Path target, String version) {
+        return new ResumableDownload(url, target, version);
+    }
+
+    public static CancellableCallable<String> getForText(URI url) {
         return downloadToText(createExecutor(url));
     }
 
-    public static Callable<byte[]> postForBinary(URI url, Map<String, String> params) {
+    /**
+     * Downloads a url and parses the response while it arrives, so that the
+     * body is never held in memory as a whole.
+     */
+    public static <T> CancellableCallable<T> getAndParse(URI url, ResponseParser<T> parser) {
+        return downloadAndParse(createExecutor(url), parser);
+    }
+
+    /**
+     * Makes a conditional GET with the given validators from an earlier
+     * response. Either validator may be null.
+     */
+    public static CancellableCallable<ConditionalResponse> getForTextIfModified(
+            URI url, String etag, String lastModified) {
+        HttpGet request = new HttpGet(url);
+        if (etag != null) {
+            request.setHeader(HttpHeaders.IF_NONE_MATCH, etag);
+        }
+        if (lastModified != null) {
+            request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+        }
+        return downloadToConditionalText(createExecutor(request).allowNotModified());
+    }
+
+    public static CancellableCallable<byte[]> postForBinary(URI url, Map<String, String> params) {
         return downloadToBinary(createExecutor(makePostRequest(url, params)));
     }
 
-    public static Callable<String> postForText(URI url, Map<String, String> params) {
+    public static CancellableCallable<String> postForText(URI url, Map<String, String> params) {
         return downloadToText(createExecutor(makePostRequest(url, params)));
     }
 
-    public static Callable<String> rawPostForText(URI url, byte[] data) {
+    public static CancellableCallable<String> rawPostForText(URI url, byte[] data) {
         return downloadToText(createExecutor(makeRawPostRequest(url, data)));
     }
 
-    public static Callable<String> rawPostForText(URI url, byte[] data, Map<String, String> extraHeaders) {
+    public static CancellableCallable<String> rawPostForText(URI url, byte[] data, Map<String, String> extraHeaders) {
         return downloadToText(createExecutor(makeRawPostRequest(url, data, extraHeaders)));
     }
 
-    public static Callable<String> uploadFileForTextDownload(
+    /**
+     * Like {@link #rawPostForText(URI, byte[], Map)}, but as a background
+     * upload that is throttled by {@link BandwidthLimiter}.
+     */
+    public static CancellableCallable<String> rawPostForTextInBackground(
+            URI url, byte[] data, Map<String, String> extraHeaders) {
+        return downloadToText(createExecutor(makeRawPostRequest(url, data, extraHeaders)).inBackground());
+    }
+
+    public static CancellableCallable<String> uploadFileForTextDownload(
             URI url, Map<String, String> params, String fileField, byte[] data) {
-        HttpPost request = makeFileUploadRequest(url, params, fileField, data);
+        HttpPost request = makeFileUploadRequest(url, params, fileField, new ByteArrayBody(data, "file"));
+        return downloadToText(createExecutor(request));
+    }
+
+    /**
+     * Uploads a file as a multipart form field. The file is streamed from
+     * disk while the request is written, so it is never loaded into memory.
+     */
+    public static CancellableCallable<String> uploadFileForTextDownload(
+            URI url, Map<String, String> params, String fileField, Path file) {
+        ContentBody body = new FileBody(file.toFile(), ContentType.DEFAULT_BINARY, "file");
+        HttpPost request = makeFileUploadRequest(url, params, fileField, body);
         return downloadToText(createExecutor(request));
     }
 
-    private static Callable<byte[]> downloadToBinary(final HttpRequestExecutor download) {
-        return new Callable<byte[]>() {
+    private static CancellableCallable<byte[]> downloadToBinary(final HttpRequestExecutor download) {
+        return new CancellableCallable<byte[]>() {
             @Override
             public byte[] call() throws Exception {
                 return EntityUtils.toByteArray(download.call());
             }
 
-            //TODO: Cancellable?
+            @Override
+            public boolean cancel() {
+                return download.cancel();
+            }
         };
     }
 
-    private static Callable<String> downloadToText(final HttpRequestExecutor download) {
-        return new Callable<String>() {
+    private static CancellableCallable<Path> downloadToFile(final HttpRequestExecutor download, final Path target) {
+        return new CancellableCallable<Path>() {
+            @Override
+            public Path call() throws Exception {
+                boolean completed = false;
+                try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    download.writeTo(channel);
+                    completed = true;
+                    return target;
+                } finally {
+                    if (!completed) {
+                        Files.deleteIfExists(target);
+                    }
+                }
+            }
+
+            @Override
+            public boolean cancel() {
+                return download.cancel();
+            }
+        };
+    }
+
+    private static <T> CancellableCallable<T> downloadAndParse(
+            final HttpRequestExecutor download, final ResponseParser<T> parser) {
+        return new CancellableCallable<T>() {
+            @Override
+            public T call() throws Exception {
+                return download.parse(parser);
+            }
+
+            @Override
+            public boolean cancel() {
+                return download.cancel();
+            }
+        };
+    }
+
+    private static CancellableCallable<ConditionalResponse> downloadToConditionalText(
+            final HttpRequestExecutor download) {
+        return new CancellableCallable<ConditionalResponse>() {
+            @Override
+            public ConditionalResponse call() throws Exception {
+                HttpEntity entity = download.call();
+                if (entity == null) {
+                    return ConditionalResponse.notModified();
+                }
+                return ConditionalResponse.modified(
+                        EntityUtils.toByteArray(entity),
+                        HttpRequestExecutor.charsetOf(entity),
+                        download.getResponseHeader(HttpHeaders.ETAG),
+                        download.getResponseHeader(HttpHeaders.LAST_MODIFIED));
+            }
+
+            @Override
+            public boolean cancel() {
+                return download.cancel();
+            }
+        };
+    }
+
+    private static CancellableCallable<String> downloadToText(final HttpRequestExecutor download) {
+        return new CancellableCallable<String>() {
             @Override
             public String call() throws Exception {
                 return EntityUtils.toString(download.call(), "UTF-8");
             }
 
-            //TODO: Cancellable?
+            @Override
+            public boolean cancel() {
+                return download.cancel();
+            }
         };
     }
 
@@ -124,7 +277,7 @@ public class HttpTasks {
 
         try {
             UrlEncodedFormEntity entity = new UrlEncodedFormEntity(pairs, "UTF-8");
-            request.setEntity(entity);
+            request.setEntity(RequestCompression.compressIfAccepted(url, entity));
             return request;
         } catch (UnsupportedEncodingException ex) {
             throw new RuntimeException(ex);
@@ -148,7 +301,7 @@ public class HttpTasks {
     }
 
     private static HttpPost makeFileUploadRequest(
-            URI url, Map<String, String> params, String fileField, byte[] data) {
+            URI url, Map<String, String> params, String fileField, ContentBody file) {
         MultipartEntityBuilder entityBuilder = MultipartEntityBuilder.create();
 
         entityBuilder.setMode(HttpMultipartMode.BROWSER_COMPATIBLE);
@@ -157,7 +310,7 @@ public class HttpTasks {
             entityBuilder.addTextBody(e.getKey(), e.getValue(), UTF8_TEXT_CONTENT_TYPE);
         }
 
-        entityBuilder.addPart(fileField, new ByteArrayBody(data, "file"));
+        entityBuilder.addPart(fileField, file);
 
         HttpPost request = new HttpPost(url);
 
@@ -0,0 +1,69 @@
+package fi.helsinki.cs.tmc.core.communication.http;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cancels in-flight requests whose calling thread has been interrupted.
+ *
+ * <p>Blocking socket IO doesn't react to {@link Thread#interrupt()}, so a
+ * background thread periodically looks for interrupted callers and aborts
+ * their requests. This lets {@code Future.cancel(true)} and command
+ * interruption release the connection right away instead of waiting for a
+ * timeout.
+ */
+/*package*/ final class InterruptWatcher {
+
+    private static final long POLL_INTERVAL = 200;
+    private static final Logger logger = LoggerFactory.getLogger(InterruptWatcher.class);
+
+    private static final Map<CancellableCallable<?>, Thread> running = new ConcurrentHashMap<>();
+
+    private static ScheduledExecutorService watcher;
+
+    private InterruptWatcher() {}
+
+    /*package*/ static void register(CancellableCallable<?> task) {
+        running.put(task, Thread.currentThread());
+        ensureStarted();
+    }
+
+    /*package*/ static void unregister(CancellableCallable<?> task) {
+        running.remove(task);
+    }
+
+    private static synchronized void ensureStarted() {
+        if (watcher != null) {
+            return;
+        }
+        watcher = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat("tmc-http-interrupt-watcher")
+                        .build());
+        watcher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                cancelInterrupted();
+            }
+        }, POLL_INTERVAL, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    private static void cancelInterrupted() {
+        for (Map.Entry<CancellableCallable<?>, Thread> entry : running.entrySet()) {
+            if (entry.getValue().isInterrupted()) {
+                logger.info("Calling thread {} was interrupted, aborting request", entry.getValue().getName());
+                running.remove(entry.getKey());
+                entry.getKey().cancel();
+            }
+        }
+    }
+}
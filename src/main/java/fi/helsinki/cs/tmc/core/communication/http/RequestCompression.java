@@ -0,0 +1,90 @@
+package fi.helsinki.cs.tmc.core.communication.http;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.entity.GzipCompressingEntity;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gzips JSON and form request bodies sent with {@link HttpTasks}.
+ *
+ * <p>Compression is off by default since a server can't announce that it
+ * accepts compressed requests. When enabled, bodies of at least
+ * {@link #MIN_COMPRESSED_SIZE} bytes are compressed while they are written.
+ * If a server answers 415 Unsupported Media Type the request is sent again
+ * uncompressed and the host is not sent compressed bodies again.
+ */
+public final class RequestCompression {
+
+    public static final int MIN_COMPRESSED_SIZE = 1024;
+
+    private static final Logger logger = LoggerFactory.getLogger(RequestCompression.class);
+    private static final Set<String> rejectingHosts =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private static volatile boolean enabled = false;
+
+    private RequestCompression() {}
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        RequestCompression.enabled = enabled;
+    }
+
+    /*package*/ static void reset() {
+        rejectingHosts.clear();
+    }
+
+    /*package*/ static HttpEntity compressIfAccepted(URI url, HttpEntity entity) {
+        if (!enabled || rejectingHosts.contains(hostOf(url))
+                || entity.getContentLength() < MIN_COMPRESSED_SIZE) {
+            return entity;
+        }
+        return new CompressedEntity(entity);
+    }
+
+    /**
+     * Restores the uncompressed body if the server refused a compressed one.
+     *
+     * @return true if the request should be sent again
+     */
+    /*package*/ static boolean uncompressIfRejected(HttpUriRequest request, int statusCode) {
+        if (statusCode != HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE
+                || !(request instanceof HttpEntityEnclosingRequest)) {
+            return false;
+        }
+        HttpEntityEnclosingRequest enclosing = (HttpEntityEnclosingRequest) request;
+        if (!(enclosing.getEntity() instanceof CompressedEntity)) {
+            return false;
+        }
+        logger.info("{} doesn't accept compressed requests", hostOf(request.getURI()));
+        rejectingHosts.add(hostOf(request.getURI()));
+        enclosing.setEntity(((CompressedEntity) enclosing.getEntity()).uncompressed);
+        return true;
+    }
+
+    private static String hostOf(URI url) {
+        return url.getHost() + ":" + url.getPort();
+    }
+
+    private static final class CompressedEntity extends GzipCompressingEntity {
+        private final HttpEntity uncompressed;
+
+        CompressedEntity(HttpEntity uncompressed) {
+            super(uncompressed);
+            this.uncompressed = uncompressed;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package fi.helsinki.cs.tmc.core.communication.http;
+
+import java.net.URI;
+import java.util.regex.Pattern;
+
+/**
+ * What happened during a single attempt at an HTTP request.
+ *
+ * <p>Requests are grouped by endpoint: the method, host and path with
+ * numeric path segments replaced by {@code {id}}, organization slugs and
+ * client names replaced by {@code {slug}} and the query left out, e.g.
+ * {@code GET tmc.mooc.fi/api/v8/courses/{id}/exercises} or
+ * {@code GET tmc.mooc.fi/api/v8/core/org/{slug}/courses.json}.
+ */
+public final class RequestMetrics {
+
+    private static final Pattern NUMERIC_SEGMENT = Pattern.compile("/\\d+(?=/|\\.|$)");
+    // The segments after these name an organization or a client.
+    private static final Pattern SLUG_SEGMENT = Pattern.compile("/(org|application)/[^/.]+(?=/|\\.|$)");
+
+    private final String endpoint;
+    private final int statusCode;
+    private final long durationNanos;
+    private final int attempt;
+    private final long bytesSent;
+    private final long bytesReceived;
+    private final boolean connectionReused;
+
+    /*package*/ RequestMetrics(String method, URI url, int statusCode, long durationNanos, int attempt,
+            TransferStats transferStats, boolean connectionReused) {
+        this.endpoint = endpointOf(method, url);
+        this.statusCode = statusCode;
+        this.durationNanos = durationNanos;
+        this.attempt = attempt;
+        this.bytesSent = transferStats.getRequestBytes();
+        this.bytesReceived = transferStats.getResponseBytes();
+        this.connectionReused = connectionReused;
+    }
+
+    /*package*/ static String endpointOf(String method, URI url) {
+        String path = url.getRawPath() != null ? url.getRawPath() : "";
+        path = SLUG_SEGMENT.matcher(path).replaceAll("/$1/{slug}");
+        return method + " " + url.getHost() + NUMERIC_SEGMENT.matcher(path).replaceAll("/{id}");
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Returns the status code of the response, or 0 if there was none.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Returns true if a 2xx or 304 Not Modified response was received.
+     */
+    public boolean isSuccessful() {
+        return (200 <= statusCode && statusCode <= 299) || statusCode == 304;
+    }
+
+    /**
+     * Returns the time from sending the request until the response body was
+     * read or the attempt failed.
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * Returns 1 for the first attempt, 2 for the first retry and so on.
+     */
+    public int getAttempt() {
+        return attempt;
+    }
+
+    public boolean isRetry() {
+        return attempt > 1;
+    }
+
+    /**
+     * Returns the request body bytes sent, as counted by {@link TransferStats}.
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Returns the response body bytes received, as counted by {@link TransferStats}.
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * Returns true if the request went over a pooled connection that had
+     * been used before.
+     */
+    public boolean isConnectionReused() {
+        return connectionReused;
+    }
+
+    @Override
+    public String toString() {
+        return endpoint + " -> " + statusCode + " in " + durationNanos / 1000000 + " ms (attempt " + attempt
+                + ", sent " + bytesSent + " bytes, received " + bytesReceived + " bytes"
+                + (connectionReused ? ", reused connection)" : ")");
+    }
+}
@@ -0,0 +1,16 @@
+package fi.helsinki.cs.tmc.core.communication.http;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Turns a response body into an object while it is being read, so that
+ * the body doesn't need to be held in memory as a string.
+ */
+public interface ResponseParser<T> {
+
+    /**
+     * Parses the body. The caller closes the reader.
+     */
+    T parse(Reader body) throws IOException;
+}
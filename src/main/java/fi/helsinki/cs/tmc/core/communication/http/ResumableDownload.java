@@ -0,0 +1,207 @@
+package fi.helsinki.cs.tmc.core.communication.http;
+
+import fi.helsinki.cs.tmc.core.exceptions.FailedHttpResponseException;
+
+import com.google.common.base.Strings;
+
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Downloads a url into a file, keeping what has been received in a partial
+ * file next to the target so that an interrupted download continues where
+ * it left off instead of starting over.
+ *
+ * <p>A download is resumed with a {@code Range} request guarded by
+ * {@code If-Range}, so the server sends the whole file again if it changed
+ * in the meantime. A partial file is also discarded if the caller asks for
+ * a different version. The file is moved to the target only once its size
+ * matches the length announced by the server.
+ */
+/*package*/ class ResumableDownload implements CancellableCallable<Path> {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResumableDownload.class);
+    private static final int MAX_RESUMES = 5;
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-\\d+/(\\d+|\\*)");
+
+    private final URI url;
+    private final Path target;
+    private final Path partial;
+    private final Path meta;
+    private final String version;
+
+    private volatile boolean cancelled;
+    private volatile HttpRequestExecutor current;
+
+    /*package*/ ResumableDownload(URI url, Path target, String version) {
+        this.url = url;
+        this.target = target;
+        this.partial = target.resolveSibling(target.getFileName() + ".part");
+        this.meta = target.resolveSibling(target.getFileName() + ".part.meta");
+        this.version = Strings.nullToEmpty(version);
+    }
+
+    @Override
+    public Path call() throws Exception {
+        for (int resumes = 0; ; resumes++) {
+            long before = sizeOf(partial);
+            try {
+                downloadOnce();
+                return complete();
+            } catch (IOException ex) {
+                if (cancelled || resumes >= MAX_RESUMES || sizeOf(partial) <= before || !isResumable()) {
+                    throw ex;
+                }
+                logger.info("Download of {} broke off after {} bytes, resuming", url.getPath(), sizeOf(partial), ex);
+            } catch (FailedHttpResponseException ex) {
+                if (ex.getStatusCode() != HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE || resumes >= MAX_RESUMES) {
+                    throw ex;
+                }
+                logger.info("Server can't resume download of {}, starting over", url.getPath());
+                discardPartial();
+            }
+        }
+    }
+
+    private void downloadOnce() throws Exception {
+        final Properties state = readState();
+        final long offset;
+        HttpGet request = new HttpGet(url);
+        // Ranges refer to the encoded body, so ask for the file as is
+        request.setHeader(HttpHeaders.ACCEPT_ENCODING, "identity");
+        String validator = state.getProperty("validator");
+        if (Files.exists(partial) && validator != null && version.equals(state.getProperty("version"))) {
+            offset = Files.size(partial);
+            request.setHeader(HttpHeaders.RANGE, "bytes=" + offset + "-");
+            request.setHeader(HttpHeaders.IF_RANGE, validator);
+            logger.debug("Resuming download of {} from byte {}", url.getPath(), offset);
+        } else {
+            offset = 0;
+        }
+
+        current = new HttpRequestExecutor(request);
+        if (cancelled) {
+            current.cancel();
+        }
+        final FileChannel[] opened = new FileChannel[1];
+        try {
+            current.writeTo(new HttpRequestExecutor.ResponseTarget() {
+                @Override
+                public WritableByteChannel open(HttpResponse response) throws IOException {
+                    if (response.getStatusLine().getStatusCode() == HttpStatus.SC_PARTIAL_CONTENT) {
+                        checkContentRangeStartsAt(response, offset);
+                        opened[0] = FileChannel.open(partial, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                    } else {
+                        writeState(validatorOf(response), response.getEntity().getContentLength());
+                        opened[0] = FileChannel.open(partial, StandardOpenOption.CREATE,
+                                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                    }
+                    return opened[0];
+                }
+            });
+        } finally {
+            if (opened[0] != null) {
+                opened[0].close();
+            }
+        }
+    }
+
+    private boolean isResumable() throws IOException {
+        return readState().getProperty("validator") != null;
+    }
+
+    private Path complete() throws IOException {
+        long expected = Long.parseLong(readState().getProperty("length", "-1"));
+        long actual = Files.size(partial);
+        if (expected >= 0 && actual != expected) {
+            if (actual > expected) {
+                discardPartial();
+            }
+            throw new IOException("Download incomplete: received " + actual + " of " + expected + " bytes");
+        }
+        Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(meta);
+        return target;
+    }
+
+    private void checkContentRangeStartsAt(HttpResponse response, long offset) throws IOException {
+        Header header = response.getFirstHeader(HttpHeaders.CONTENT_RANGE);
+        Matcher matcher = CONTENT_RANGE.matcher(header != null ? header.getValue() : "");
+        if (!matcher.matches() || Long.parseLong(matcher.group(1)) != offset) {
+            discardPartial();
+            throw new IOException("Server resumed download from an unexpected position: "
+                    + (header != null ? header.getValue() : "no Content-Range"));
+        }
+    }
+
+    /**
+     * Returns something the server can tell whether the file changed with.
+     * Weak ETags can't be used with If-Range.
+     */
+    private static String validatorOf(HttpResponse response) {
+        Header etag = response.getFirstHeader(HttpHeaders.ETAG);
+        if (etag != null && !etag.getValue().startsWith("W/")) {
+            return etag.getValue();
+        }
+        Header lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+        return lastModified != null ? lastModified.getValue() : null;
+    }
+
+    private Properties readState() throws IOException {
+        Properties state = new Properties();
+        if (Files.exists(meta)) {
+            try (InputStream in = Files.newInputStream(meta)) {
+                state.load(in);
+            }
+        }
+        return state;
+    }
+
+    private void writeState(String validator, long length) throws IOException {
+        Properties state = new Properties();
+        state.setProperty("version", version);
+        state.setProperty("length", Long.toString(length));
+        if (validator != null) {
+            state.setProperty("validator", validator);
+        }
+        try (OutputStream out = Files.newOutputStream(meta)) {
+            state.store(out, null);
+        }
+    }
+
+    private void discardPartial() throws IOException {
+        Files.deleteIfExists(partial);
+        Files.deleteIfExists(meta);
+    }
+
+    private static long sizeOf(Path file) throws IOException {
+        return Files.exists(file) ? Files.size(file) : 0;
+    }
+
+    @Override
+    public boolean cancel() {
+        cancelled = true;
+        HttpRequestExecutor executor = current;
+        return executor != null && executor.cancel();
+    }
+}
@@ -0,0 +1,121 @@
+package fi.helsinki.cs.tmc.core.communication.http;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import fi.helsinki.cs.tmc.core.exceptions.ConnectionFailedException;
+import fi.helsinki.cs.tmc.core.exceptions.FailedHttpResponseException;
+import fi.helsinki.cs.tmc.core.exceptions.ServerUnavailableException;
+
+import org.apache.http.HttpStatus;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How many times a failed request is attempted and how long to wait in
+ * between.
+ *
+ * <p>Delays grow exponentially from the initial delay up to the maximum and
+ * are jittered, i.e. picked at random between half of the current bound and
+ * the bound, so that clients that failed together don't retry together.
+ *
+ * <p>By default idempotent requests (GET, HEAD, PUT, DELETE, OPTIONS) are
+ * retried and others are not, since repeating e.g. a submission could
+ * submit it twice.
+ */
+public final class RetryPolicy {
+
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0);
+    public static final RetryPolicy DEFAULT_IDEMPOTENT = new RetryPolicy(3, 500, 8 * 1000);
+
+    private static volatile RetryPolicy forIdempotentRequests = DEFAULT_IDEMPOTENT;
+    private static volatile RetryPolicy forOtherRequests = NONE;
+
+    private final int maxAttempts;
+    private final long initialDelay;
+    private final long maxDelay;
+
+    /**
+     * @param maxAttempts how many times a request is made at most, including the first one
+     * @param initialDelay upper bound in milliseconds for the delay after the first failure
+     * @param maxDelay upper bound in milliseconds for any delay
+     */
+    public RetryPolicy(int maxAttempts, long initialDelay, long maxDelay) {
+        checkArgument(maxAttempts >= 1);
+        checkArgument(initialDelay >= 0 && maxDelay >= initialDelay);
+        this.maxAttempts = maxAttempts;
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    public static RetryPolicy getForIdempotentRequests() {
+        return forIdempotentRequests;
+    }
+
+    public static void setForIdempotentRequests(RetryPolicy policy) {
+        forIdempotentRequests = checkNotNull(policy);
+    }
+
+    public static RetryPolicy getForOtherRequests() {
+        return forOtherRequests;
+    }
+
+    public static void setForOtherRequests(RetryPolicy policy) {
+        forOtherRequests = checkNotNull(policy);
+    }
+
+    /*package*/ static RetryPolicy forMethod(String method) {
+        switch (method) {
+            case "GET":
+            case "HEAD":
+            case "PUT":
+            case "DELETE":
+            case "OPTIONS":
+                return forIdempotentRequests;
+            default:
+                return forOtherRequests;
+        }
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Returns a random delay in milliseconds to wait after the given number
+     * of consecutive failures.
+     */
+    public long getDelay(int failures) {
+        checkArgument(failures >= 1);
+        long bound = initialDelay;
+        for (int i = 1; i < failures && bound < maxDelay; i++) {
+            bound *= 2;
+        }
+        bound = Math.min(bound, maxDelay);
+        long half = bound / 2;
+        return half + ThreadLocalRandom.current().nextLong(bound - half + 1);
+    }
+
+    /**
+     * True if the failure is likely temporary so the request is worth
+     * repeating: the connection failed or the server said it is overloaded.
+     * Requests short-circuited by an open circuit are not retried.
+     */
+    /*package*/ static boolean isRetryable(Exception ex) {
+        if (ex instanceof ServerUnavailableException) {
+            return false;
+        }
+        if (ex instanceof IOException || ex instanceof ConnectionFailedException) {
+            return true;
+        }
+        if (ex instanceof FailedHttpResponseException) {
+            int status = ((FailedHttpResponseException) ex).getStatusCode();
+            return status == 429
+                    || status == HttpStatus.SC_BAD_GATEWAY
+                    || status == HttpStatus.SC_SERVICE_UNAVAILABLE
+                    || status == HttpStatus.SC_GATEWAY_TIMEOUT;
+        }
+        return false;
+    }
+}
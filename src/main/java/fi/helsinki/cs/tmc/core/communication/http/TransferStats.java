@@ -0,0 +1,134 @@
+package fi.helsinki.cs.tmc.core.communication.http;
+
+import com.google.common.io.CountingOutputStream;
+
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Byte counts of a single HTTP exchange.
+ *
+ * <p>Request and response bytes are counted as they go over the wire, i.e.
+ * after compression, while content bytes are the decoded response body as
+ * seen by the caller. Comparing the two shows what compression saved.
+ * Headers are not counted.
+ */
+public final class TransferStats {
+
+    /*package*/ static final String CONTEXT_ATTRIBUTE = TransferStats.class.getName();
+
+    private long requestBytes;
+    private long responseBytes;
+    private long contentBytes;
+
+    public long getRequestBytes() {
+        return requestBytes;
+    }
+
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    public long getContentBytes() {
+        return contentBytes;
+    }
+
+    /*package*/ void setContentBytes(long contentBytes) {
+        this.contentBytes = contentBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "sent " + requestBytes + " bytes, received " + responseBytes + " bytes ("
+                + contentBytes + " decoded)";
+    }
+
+    /**
+     * Counts the request body as it is written. Added last so that it sees
+     * the entity that is actually sent.
+     */
+    /*package*/ static final HttpRequestInterceptor REQUEST_COUNTER = new HttpRequestInterceptor() {
+        @Override
+        public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+            final TransferStats stats = (TransferStats) context.getAttribute(CONTEXT_ATTRIBUTE);
+            if (stats == null || !(request instanceof HttpEntityEnclosingRequest)) {
+                return;
+            }
+            HttpEntityEnclosingRequest enclosing = (HttpEntityEnclosingRequest) request;
+            if (enclosing.getEntity() == null) {
+                return;
+            }
+            enclosing.setEntity(new HttpEntityWrapper(enclosing.getEntity()) {
+                @Override
+                public void writeTo(OutputStream out) throws IOException {
+                    CountingOutputStream counting = new CountingOutputStream(out);
+                    try {
+                        super.writeTo(counting);
+                    } finally {
+                        stats.requestBytes += counting.getCount();
+                    }
+                }
+            });
+        }
+    };
+
+    /**
+     * Counts the response body as it is read. Added first so that it sees
+     * the body before it is decompressed.
+     */
+    /*package*/ static final HttpResponseInterceptor RESPONSE_COUNTER = new HttpResponseInterceptor() {
+        @Override
+        public void process(HttpResponse response, HttpContext context) throws HttpException, IOException {
+            final TransferStats stats = (TransferStats) context.getAttribute(CONTEXT_ATTRIBUTE);
+            if (stats == null || response.getEntity() == null) {
+                return;
+            }
+            response.setEntity(new HttpEntityWrapper(response.getEntity()) {
+                @Override
+                public InputStream getContent() throws IOException {
+                    return new FilterInputStream(super.getContent()) {
+                        @Override
+                        public int read() throws IOException {
+                            int read = super.read();
+                            if (read != -1) {
+                                stats.responseBytes++;
+                            }
+                            return read;
+                        }
+
+                        @Override
+                        public int read(byte[] buffer, int offset, int length) throws IOException {
+                            int read = super.read(buffer, offset, length);
+                            if (read > 0) {
+                                stats.responseBytes += read;
+                            }
+                            return read;
+                        }
+                    };
+                }
+
+                @Override
+                public void writeTo(OutputStream out) throws IOException {
+                    try (InputStream in = getContent()) {
+                        byte[] buffer = new byte[8192];
+                        int read;
+                        while ((read = in.read(buffer)) != -1) {
+                            out.write(buffer, 0, read);
+                        }
+                    }
+                }
+            });
+        }
+    };
+}
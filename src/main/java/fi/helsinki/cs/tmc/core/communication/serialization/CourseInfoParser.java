@@ -3,13 +3,12 @@ package fi.helsinki.cs.tmc.core.communication.serialization;
 import fi.helsinki.cs.tmc.core.domain.Course;
 import fi.helsinki.cs.tmc.core.domain.Exercise;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Date;
+import java.io.Reader;
+import java.io.StringReader;
+
 
 public class CourseInfoParser {
 
@@ -24,27 +23,33 @@ public class CourseInfoParser {
         if (json == null) {
             throw new NullPointerException("Json string is null");
         }
-        if (json.trim().isEmpty()) {
-            throw new IllegalArgumentException("Empty input");
+        return parseFromJson(new StringReader(json));
+    }
+
+    /**
+     * Parses the course while it is read, e.g. straight from a response
+     * stream.
+     */
+    public Course parseFromJson(Reader json) {
+        if (json == null) {
+            throw new NullPointerException("Json reader is null");
         }
+        CourseInfoContainer container;
         try {
-            Gson gson =
-                    new GsonBuilder()
-                            .registerTypeAdapter(Date.class, new CustomDateDeserializer())
-                            .create();
-
-            Course course = gson.fromJson(json, CourseInfoContainer.class).course;
-
-            course.setExercisesLoaded(true);
-
-            for (Exercise ex : course.getExercises()) {
-                ex.setCourseName(course.getName());
-            }
-
-            return course;
+            container = DomainGson.get().fromJson(json, CourseInfoContainer.class);
         } catch (RuntimeException ex) {
             logger.warn("Failed to parse course info", ex);
             throw new RuntimeException("Failed to parse course info: " + ex.getMessage(), ex);
         }
+        if (container == null) {
+            throw new IllegalArgumentException("Empty input");
+        }
+
+        Course course = container.course;
+        course.setExercisesLoaded(true);
+        for (Exercise ex : course.getExercises()) {
+            ex.setCourseName(course.getName());
+        }
+        return course;
     }
 }
@@ -1,16 +1,13 @@
 package fi.helsinki.cs.tmc.core.communication.serialization;
 
 import fi.helsinki.cs.tmc.core.domain.Course;
-import fi.helsinki.cs.tmc.core.domain.Exercise;
-
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 
 public class CourseListParser {
@@ -21,30 +18,34 @@ public class CourseListParser {
         if (json == null) {
             throw new NullPointerException("Json string is null");
         }
-        if (json.trim().isEmpty()) {
-            throw new IllegalArgumentException("Empty input");
+        return parseFromJson(new StringReader(json));
+    }
+
+    /**
+     * Parses the course list while it is read, e.g. straight from a
+     * response stream.
+     */
+    public List<Course> parseFromJson(Reader json) {
+        if (json == null) {
+            throw new NullPointerException("Json reader is null");
         }
+        Course[] courses;
         try {
-            Gson gson =
-                    new GsonBuilder()
-                            .registerTypeAdapter(Date.class, new CustomDateDeserializer())
-                            .create();
-
-            Course[] courses = gson.fromJson(json, Course[].class);
-
-            List<Course> courseList = new ArrayList<>();
-            for (Course course : courses) {
-                courseList.add(course);
-                course.setExercisesLoaded(false);
-                for (Exercise ex : course.getExercises()) {
-                    ex.setCourseName(course.getName());
-                }
-            }
-
-            return courseList;
+            courses = DomainGson.getForCourseStubs().fromJson(json, Course[].class);
         } catch (RuntimeException ex) {
             logger.warn("Failed to parse course info", ex);
             throw new RuntimeException("Failed to parse course list: " + ex.getMessage(), ex);
         }
+        if (courses == null) {
+            throw new IllegalArgumentException("Empty input");
+        }
+
+        // The exercises get their course name when they are bound, see LazyExerciseList
+        List<Course> courseList = new ArrayList<>();
+        for (Course course : courses) {
+            courseList.add(course);
+            course.setExercisesLoaded(false);
+        }
+        return courseList;
     }
 }
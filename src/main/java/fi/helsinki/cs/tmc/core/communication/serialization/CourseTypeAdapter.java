@@ -0,0 +1,186 @@
+package fi.helsinki.cs.tmc.core.communication.serialization;
+
+import static fi.helsinki.cs.tmc.core.communication.serialization.DomainGson.nextBoolean;
+import static fi.helsinki.cs.tmc.core.communication.serialization.DomainGson.nextInt;
+import static fi.helsinki.cs.tmc.core.communication.serialization.DomainGson.nextStringOrNull;
+import static fi.helsinki.cs.tmc.core.communication.serialization.DomainGson.nextUriOrNull;
+import static fi.helsinki.cs.tmc.core.communication.serialization.DomainGson.writeString;
+import static fi.helsinki.cs.tmc.core.communication.serialization.DomainGson.writeUri;
+
+import fi.helsinki.cs.tmc.core.domain.Course;
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binds {@link Course} to the server's course JSON without reflection.
+ */
+/*package*/ final class CourseTypeAdapter extends TypeAdapter<Course> {
+
+    private final ExerciseTypeAdapter exerciseAdapter = new ExerciseTypeAdapter();
+    private final boolean lazyExercises;
+
+    /*package*/ CourseTypeAdapter() {
+        this(false);
+    }
+
+    /**
+     * @param lazyExercises whether to bind exercises only when they are first
+     *     used, see {@link LazyExerciseList}
+     */
+    /*package*/ CourseTypeAdapter(boolean lazyExercises) {
+        this.lazyExercises = lazyExercises;
+    }
+
+    @Override
+    public Course read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Course course = new Course();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id":
+                    course.setId(nextInt(in, course.getId()));
+                    break;
+                case "name":
+                    course.setName(nextStringOrNull(in));
+                    break;
+                case "title":
+                    course.setTitle(nextStringOrNull(in));
+                    break;
+                case "description":
+                    course.setDescription(nextStringOrNull(in));
+                    break;
+                case "organization_slug":
+                    course.setOrganizationSlug(nextStringOrNull(in));
+                    break;
+                case "exercises":
+                    if (lazyExercises && in.peek() == JsonToken.BEGIN_ARRAY) {
+                        course.setExercises(LazyExerciseList.read(course, in));
+                    } else {
+                        course.setExercises(readExercises(in));
+                    }
+                    break;
+                case "details_url":
+                    course.setDetailsUrl(nextUriOrNull(in));
+                    break;
+                case "unlock_url":
+                    course.setUnlockUrl(nextUriOrNull(in));
+                    break;
+                case "comet_url":
+                    course.setCometUrl(nextUriOrNull(in));
+                    break;
+                case "spyware_urls":
+                    course.setSpywareUrls(readUris(in));
+                    break;
+                case "reviews_url":
+                    course.setReviewsUrl(nextUriOrNull(in));
+                    break;
+                case "unlockables":
+                    course.setUnlockables(readStrings(in));
+                    break;
+                case "exercisesLoaded":
+                    course.setExercisesLoaded(nextBoolean(in, course.isExercisesLoaded()));
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return course;
+    }
+
+    private List<Exercise> readExercises(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<Exercise> exercises = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            exercises.add(exerciseAdapter.read(in));
+        }
+        in.endArray();
+        return exercises;
+    }
+
+    private static List<URI> readUris(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<URI> uris = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            uris.add(nextUriOrNull(in));
+        }
+        in.endArray();
+        return uris;
+    }
+
+    private static List<String> readStrings(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<String> strings = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            strings.add(nextStringOrNull(in));
+        }
+        in.endArray();
+        return strings;
+    }
+
+    @Override
+    public void write(JsonWriter out, Course course) throws IOException {
+        if (course == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("id").value(course.getId());
+        writeString(out, "name", course.getName());
+        writeString(out, "title", course.getTitle());
+        writeString(out, "description", course.getDescription());
+        writeString(out, "organization_slug", course.getOrganizationSlug());
+        if (course.getExercises() != null) {
+            out.name("exercises").beginArray();
+            for (Exercise exercise : course.getExercises()) {
+                exerciseAdapter.write(out, exercise);
+            }
+            out.endArray();
+        }
+        writeUri(out, "details_url", course.getDetailsUrl());
+        writeUri(out, "unlock_url", course.getUnlockUrl());
+        writeUri(out, "comet_url", course.getCometUrl());
+        if (course.getSpywareUrls() != null) {
+            out.name("spyware_urls").beginArray();
+            for (URI url : course.getSpywareUrls()) {
+                out.value(url != null ? url.toString() : null);
+            }
+            out.endArray();
+        }
+        writeUri(out, "reviews_url", course.getReviewsUrl());
+        if (course.getUnlockables() != null) {
+            out.name("unlockables").beginArray();
+            for (String unlockable : course.getUnlockables()) {
+                out.value(unlockable);
+            }
+            out.endArray();
+        }
+        out.name("exercisesLoaded").value(course.isExercisesLoaded());
+        out.endObject();
+    }
+}
@@ -23,8 +23,11 @@ class CustomDateDeserializer implements JsonDeserializer<Date> {
     public Date deserialize(JsonElement je, Type type, JsonDeserializationContext jdc)
             throws JsonParseException {
 
+        // SimpleDateFormat isn't thread safe and the Gson using this is shared
         try {
-            return DATE_TIME_PARSER.parse(je.getAsString());
+            synchronized (DATE_TIME_PARSER) {
+                return DATE_TIME_PARSER.parse(je.getAsString());
+            }
         } catch (ParseException ex) {
             logger.warn("Failed to parse date", ex);
             throw new JsonParseException(ex);
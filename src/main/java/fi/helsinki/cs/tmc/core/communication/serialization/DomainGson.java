@@ -0,0 +1,190 @@
+package fi.helsinki.cs.tmc.core.communication.serialization;
+
+import fi.helsinki.cs.tmc.core.domain.Course;
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Date;
+
+/**
+ * Holds the Gson instance shared by the parsers of server responses.
+ *
+ * <p>Courses and exercises are read and written with hand-written streaming
+ * adapters instead of reflection, as course JSON can run to megabytes. The
+ * adapters accept and produce the same JSON as Gson's reflective binding.
+ * Gson instances are thread safe, so they are built only once.
+ */
+public final class DomainGson {
+
+    private static final Gson gson = create(new CourseTypeAdapter());
+    private static final Gson courseStubGson = create(new CourseTypeAdapter(true));
+
+    private DomainGson() {}
+
+    public static Gson get() {
+        return gson;
+    }
+
+    /**
+     * Like {@link #get()}, but binds the exercises of courses only when they
+     * are first used. Meant for course lists, whose courses are stubs.
+     */
+    /*package*/ static Gson getForCourseStubs() {
+        return courseStubGson;
+    }
+
+    private static Gson create(CourseTypeAdapter courseAdapter) {
+        return new GsonBuilder()
+                .registerTypeAdapter(Course.class, courseAdapter)
+                .registerTypeAdapter(Exercise.class, new ExerciseTypeAdapter())
+                .registerTypeAdapter(Date.class, new CustomDateDeserializer())
+                .create();
+    }
+
+    /*package*/ static String nextStringOrNull(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        if (in.peek() == JsonToken.BOOLEAN) {
+            return Boolean.toString(in.nextBoolean());
+        }
+        return in.nextString();
+    }
+
+    /*package*/ static URI nextUriOrNull(JsonReader in) throws IOException {
+        String uri = nextStringOrNull(in);
+        if (uri == null) {
+            return null;
+        }
+        try {
+            return new URI(uri);
+        } catch (URISyntaxException ex) {
+            throw new JsonIOException(ex);
+        }
+    }
+
+    /**
+     * Reads a boolean, keeping the given value if the JSON has null like
+     * reflective binding does for primitive fields.
+     */
+    /*package*/ static boolean nextBoolean(JsonReader in, boolean current) throws IOException {
+        switch (in.peek()) {
+            case NULL:
+                in.nextNull();
+                return current;
+            case STRING:
+                return Boolean.parseBoolean(in.nextString());
+            default:
+                return in.nextBoolean();
+        }
+    }
+
+    /*package*/ static int nextInt(JsonReader in, int current) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return current;
+        }
+        return in.nextInt();
+    }
+
+    /**
+     * Reads the value at the reader's position back out as compact JSON, so
+     * that it can be bound later without keeping a parse tree around.
+     */
+    /*package*/ static String nextRawJson(JsonReader in) throws IOException {
+        StringBuilder json = new StringBuilder();
+        copy(in, json);
+        return json.toString();
+    }
+
+    // Writes the value back out as compact JSON. Cheaper than a JsonWriter,
+    // as the only thing to take care of is escaping strings.
+    private static void copy(JsonReader in, StringBuilder out) throws IOException {
+        switch (in.peek()) {
+            case BEGIN_ARRAY:
+                in.beginArray();
+                out.append('[');
+                while (in.hasNext()) {
+                    copy(in, out);
+                    out.append(',');
+                }
+                in.endArray();
+                endContainer(out, '[', ']');
+                break;
+            case BEGIN_OBJECT:
+                in.beginObject();
+                out.append('{');
+                while (in.hasNext()) {
+                    appendString(out, in.nextName());
+                    out.append(':');
+                    copy(in, out);
+                    out.append(',');
+                }
+                in.endObject();
+                endContainer(out, '{', '}');
+                break;
+            case STRING:
+                appendString(out, in.nextString());
+                break;
+            case NUMBER:
+                out.append(in.nextString());
+                break;
+            case BOOLEAN:
+                out.append(in.nextBoolean());
+                break;
+            case NULL:
+                in.nextNull();
+                out.append("null");
+                break;
+            default:
+                throw new IllegalStateException("Unexpected " + in.peek() + " in JSON");
+        }
+    }
+
+    // Replaces the separator after the last element with the closing bracket.
+    private static void endContainer(StringBuilder out, char open, char close) {
+        int last = out.length() - 1;
+        if (out.charAt(last) == open) {
+            out.append(close);
+        } else {
+            out.setCharAt(last, close);
+        }
+    }
+
+    private static void appendString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    /*package*/ static void writeUri(JsonWriter out, String name, URI uri) throws IOException {
+        if (uri != null) {
+            out.name(name).value(uri.toString());
+        }
+    }
+
+    /*package*/ static void writeString(JsonWriter out, String name, String value) throws IOException {
+        if (value != null) {
+            out.name(name).value(value);
+        }
+    }
+}
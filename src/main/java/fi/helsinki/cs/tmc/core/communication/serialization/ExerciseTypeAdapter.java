@@ -0,0 +1,194 @@
+package fi.helsinki.cs.tmc.core.communication.serialization;
+
+import static fi.helsinki.cs.tmc.core.communication.serialization.DomainGson.nextBoolean;
+import static fi.helsinki.cs.tmc.core.communication.serialization.DomainGson.nextInt;
+import static fi.helsinki.cs.tmc.core.communication.serialization.DomainGson.nextStringOrNull;
+import static fi.helsinki.cs.tmc.core.communication.serialization.DomainGson.nextUriOrNull;
+import static fi.helsinki.cs.tmc.core.communication.serialization.DomainGson.writeString;
+import static fi.helsinki.cs.tmc.core.communication.serialization.DomainGson.writeUri;
+
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+
+import com.google.common.base.Strings;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binds {@link Exercise} to the server's exercise JSON without reflection.
+ */
+/*package*/ final class ExerciseTypeAdapter extends TypeAdapter<Exercise> {
+
+    @Override
+    public Exercise read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Exercise exercise = new Exercise();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "id":
+                    exercise.setId(nextInt(in, exercise.getId()));
+                    break;
+                case "name":
+                    String name = nextStringOrNull(in);
+                    if (!Strings.isNullOrEmpty(name)) {
+                        exercise.setName(name);
+                    }
+                    break;
+                case "locked":
+                    exercise.setLocked(nextBoolean(in, exercise.isLocked()));
+                    break;
+                case "deadline_description":
+                    exercise.setDeadlineDescription(nextStringOrNull(in));
+                    break;
+                case "deadline":
+                    exercise.setDeadline(nextStringOrNull(in));
+                    break;
+                case "soft_deadline_description":
+                    exercise.setSoftDeadlineDescription(nextStringOrNull(in));
+                    break;
+                case "soft_deadline":
+                    exercise.setSoftDeadline(nextStringOrNull(in));
+                    break;
+                case "checksum":
+                    exercise.setChecksum(nextStringOrNull(in));
+                    break;
+                case "zip_url":
+                    exercise.setZipUrl(nextUriOrNull(in));
+                    break;
+                case "return_url":
+                    exercise.setReturnUrl(nextUriOrNull(in));
+                    break;
+                case "solution_zip_url":
+                    exercise.setSolutionDownloadUrl(nextUriOrNull(in));
+                    break;
+                case "returnable":
+                    exercise.setReturnable(nextBoolean(in, exercise.isReturnable()));
+                    break;
+                case "requires_review":
+                    exercise.setRequiresReview(nextBoolean(in, exercise.isRequiresReview()));
+                    break;
+                case "attempted":
+                    exercise.setAttempted(nextBoolean(in, exercise.isAttempted()));
+                    break;
+                case "completed":
+                    exercise.setCompleted(nextBoolean(in, exercise.isCompleted()));
+                    break;
+                case "reviewed":
+                    exercise.setReviewed(nextBoolean(in, exercise.isReviewed()));
+                    break;
+                case "all_review_points_given":
+                    exercise.setAllReviewPointsGiven(nextBoolean(in, exercise.isAllReviewPointsGiven()));
+                    break;
+                case "memory_limit":
+                    exercise.setMemoryLimit(nextStringOrNull(in));
+                    break;
+                case "runtime_params":
+                    exercise.setRuntimeParams(readStringArray(in));
+                    break;
+                case "valgrind_strategy":
+                    exercise.setValgrindStrategy(readValgrindStrategy(in));
+                    break;
+                case "code_review_requests_enabled":
+                    exercise.setCodeReviewRequestsEnabled(
+                            nextBoolean(in, exercise.isCodeReviewRequestsEnabled()));
+                    break;
+                case "run_tests_locally_action_enabled":
+                    exercise.setRunTestsLocallyActionEnabled(
+                            nextBoolean(in, exercise.isRunTestsLocallyActionEnabled()));
+                    break;
+                case "exercise_submissions_url":
+                    exercise.setExerciseSubmissionsUrl(nextUriOrNull(in));
+                    break;
+                case "courseName":
+                    exercise.setCourseName(nextStringOrNull(in));
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return exercise;
+    }
+
+    private static String[] readStringArray(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<String> values = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            values.add(nextStringOrNull(in));
+        }
+        in.endArray();
+        return values.toArray(new String[values.size()]);
+    }
+
+    // Like Gson's enum binding, unknown values read as null.
+    private static Exercise.ValgrindStrategy readValgrindStrategy(JsonReader in) throws IOException {
+        String value = nextStringOrNull(in);
+        if (value == null) {
+            return null;
+        }
+        switch (value) {
+            case "":
+                return Exercise.ValgrindStrategy.NONE;
+            case "fail":
+                return Exercise.ValgrindStrategy.FAIL;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public void write(JsonWriter out, Exercise exercise) throws IOException {
+        if (exercise == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("id").value(exercise.getId());
+        writeString(out, "name", exercise.getName());
+        out.name("locked").value(exercise.isLocked());
+        writeString(out, "deadline_description", exercise.getDeadlineDescription());
+        writeString(out, "deadline", exercise.getDeadline());
+        writeString(out, "soft_deadline_description", exercise.getSoftDeadlineDescription());
+        writeString(out, "soft_deadline", exercise.getSoftDeadline());
+        writeString(out, "checksum", exercise.getChecksum());
+        writeUri(out, "zip_url", exercise.getZipUrl());
+        writeUri(out, "return_url", exercise.getReturnUrl());
+        writeUri(out, "solution_zip_url", exercise.getSolutionDownloadUrl());
+        out.name("returnable").value(exercise.isReturnable());
+        out.name("requires_review").value(exercise.isRequiresReview());
+        out.name("attempted").value(exercise.isAttempted());
+        out.name("completed").value(exercise.isCompleted());
+        out.name("reviewed").value(exercise.isReviewed());
+        out.name("all_review_points_given").value(exercise.isAllReviewPointsGiven());
+        writeString(out, "memory_limit", exercise.getMemoryLimit());
+        if (exercise.getRuntimeParams() != null) {
+            out.name("runtime_params").beginArray();
+            for (String param : exercise.getRuntimeParams()) {
+                out.value(param);
+            }
+            out.endArray();
+        }
+        if (exercise.getValgrindStrategy() != null) {
+            out.name("valgrind_strategy").value(
+                    exercise.getValgrindStrategy() == Exercise.ValgrindStrategy.NONE ? "" : "fail");
+        }
+        out.name("code_review_requests_enabled").value(exercise.isCodeReviewRequestsEnabled());
+        out.name("run_tests_locally_action_enabled").value(exercise.isRunTestsLocallyActionEnabled());
+        writeUri(out, "exercise_submissions_url", exercise.getExerciseSubmissionsUrl());
+        writeString(out, "courseName", exercise.getCourseName());
+        out.endObject();
+    }
+}
@@ -0,0 +1,68 @@
+package fi.helsinki.cs.tmc.core.communication.serialization;
+
+import fi.helsinki.cs.tmc.core.domain.Course;
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+
+import com.google.common.collect.ForwardingList;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The exercises of a course stub, kept as raw JSON until the list is first
+ * used.
+ *
+ * <p>Course lists carry every exercise of every course, but most of the
+ * stubs are only shown by name. Binding the exercises is deferred so that
+ * listing courses doesn't create thousands of exercises that are never
+ * looked at. Once bound the list behaves like an ordinary list.
+ */
+/*package*/ final class LazyExerciseList extends ForwardingList<Exercise> {
+
+    private final Course course;
+    private String json;
+    private volatile List<Exercise> exercises;
+
+    private LazyExerciseList(Course course, String json) {
+        this.course = course;
+        this.json = json;
+    }
+
+    /**
+     * Reads the exercise array at the reader's position into a list of the
+     * given course without binding the exercises.
+     */
+    /*package*/ static LazyExerciseList read(Course course, JsonReader in) throws IOException {
+        return new LazyExerciseList(course, DomainGson.nextRawJson(in));
+    }
+
+    @Override
+    protected List<Exercise> delegate() {
+        List<Exercise> result = exercises;
+        if (result == null) {
+            synchronized (this) {
+                result = exercises;
+                if (result == null) {
+                    result = bind();
+                    json = null;
+                    exercises = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private List<Exercise> bind() {
+        List<Exercise> result = new ArrayList<>(Arrays.asList(
+                DomainGson.get().fromJson(json, Exercise[].class)));
+        for (Exercise exercise : result) {
+            if (exercise != null) {
+                exercise.setCourseName(course.getName());
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,52 @@
+package fi.helsinki.cs.tmc.core.communication.serialization;
+
+import fi.helsinki.cs.tmc.langs.domain.TestResult;
+
+import com.google.common.collect.ForwardingList;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.lang.reflect.Type;
+import java.util.List;
+
+/**
+ * The test cases of a submission result, kept as JSON text until the list
+ * is first used.
+ *
+ * <p>Test cases carry messages and whole stack traces, which are only
+ * needed when the results are shown. Once bound the list behaves like an
+ * ordinary list.
+ */
+/*package*/ final class LazyTestResultList extends ForwardingList<TestResult> {
+
+    private static final Type TYPE = new TypeToken<List<TestResult>>() {}.getType();
+
+    private final Gson gson;
+    private String json;
+    private volatile List<TestResult> testResults;
+
+    /*package*/ LazyTestResultList(Gson gson, String json) {
+        this.gson = gson;
+        this.json = json;
+    }
+
+    @Override
+    protected List<TestResult> delegate() {
+        List<TestResult> result = testResults;
+        if (result == null) {
+            synchronized (this) {
+                result = testResults;
+                if (result == null) {
+                    try {
+                        result = gson.fromJson(json, TYPE);
+                    } catch (RuntimeException ex) {
+                        throw SubmissionResultParser.parseFailure(ex);
+                    }
+                    json = null;
+                    testResults = result;
+                }
+            }
+        }
+        return result;
+    }
+}
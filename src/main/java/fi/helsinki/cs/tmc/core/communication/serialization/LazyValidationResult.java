@@ -0,0 +1,62 @@
+package fi.helsinki.cs.tmc.core.communication.serialization;
+
+import fi.helsinki.cs.tmc.langs.abstraction.Strategy;
+import fi.helsinki.cs.tmc.langs.abstraction.ValidationError;
+import fi.helsinki.cs.tmc.langs.abstraction.ValidationResult;
+import fi.helsinki.cs.tmc.stylerunner.validation.CheckstyleResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The validation results of a submission, built from their JSON text only
+ * when they are first asked for.
+ */
+/*package*/ final class LazyValidationResult implements ValidationResult {
+
+    private String json;
+    private volatile ValidationResult result;
+
+    /**
+     * @param json the validations of the submission, or null if it had none
+     */
+    /*package*/ LazyValidationResult(String json) {
+        this.json = json;
+    }
+
+    @Override
+    public Strategy getStrategy() {
+        return result().getStrategy();
+    }
+
+    @Override
+    public Map<File, List<ValidationError>> getValidationErrors() {
+        return result().getValidationErrors();
+    }
+
+    private ValidationResult result() {
+        ValidationResult built = result;
+        if (built == null) {
+            synchronized (this) {
+                built = result;
+                if (built == null) {
+                    try {
+                        built = CheckstyleResult.build(json != null ? json : "{}");
+                    } catch (IOException | RuntimeException ex) {
+                        throw SubmissionResultParser.parseFailure(ex);
+                    }
+                    json = null;
+                    result = built;
+                }
+            }
+        }
+        return built;
+    }
+
+    @Override
+    public String toString() {
+        return result().toString();
+    }
+}
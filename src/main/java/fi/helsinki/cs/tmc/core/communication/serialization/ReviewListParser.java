@@ -8,6 +8,8 @@ import com.google.gson.GsonBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
@@ -16,26 +18,38 @@ public class ReviewListParser {
 
     private static final Logger logger = LoggerFactory.getLogger(ReviewListParser.class);
 
+    private static final Gson gson = new GsonBuilder()
+            .registerTypeAdapter(Date.class, new CustomDateDeserializer())
+            .create();
+
     public List<Review> parseFromJson(String json) {
         if (json == null) {
             logger.warn("Attempted to parse null as json");
             throw new NullPointerException("Json string is null");
         }
-        if (json.trim().isEmpty()) {
-            logger.info("Attempted to parse empty string as json");
-            throw new IllegalArgumentException("Empty input");
+        return parseFromJson(new StringReader(json));
+    }
+
+    /**
+     * Parses the review list while it is read, e.g. straight from a response
+     * stream.
+     */
+    public List<Review> parseFromJson(Reader json) {
+        if (json == null) {
+            logger.warn("Attempted to parse null as json");
+            throw new NullPointerException("Json reader is null");
         }
+        Review[] reviews;
         try {
-            Gson gson =
-                    new GsonBuilder()
-                            .registerTypeAdapter(Date.class, new CustomDateDeserializer())
-                            .create();
-
-            Review[] reviews = gson.fromJson(json, Review[].class);
-            return Arrays.asList(reviews);
+            reviews = gson.fromJson(json, Review[].class);
         } catch (RuntimeException ex) {
             logger.warn("Failed to parse review list", ex);
             throw new RuntimeException("Failed to parse review list: " + ex.getMessage(), ex);
         }
+        if (reviews == null) {
+            logger.info("Attempted to parse empty string as json");
+            throw new IllegalArgumentException("Empty input");
+        }
+        return Arrays.asList(reviews);
     }
 }
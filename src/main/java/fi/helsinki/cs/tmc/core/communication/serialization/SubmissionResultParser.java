@@ -3,7 +3,6 @@ package fi.helsinki.cs.tmc.core.communication.serialization;
 import fi.helsinki.cs.tmc.core.domain.submission.SubmissionResult;
 import fi.helsinki.cs.tmc.core.domain.submission.ValidationErrorImpl;
 import fi.helsinki.cs.tmc.langs.abstraction.ValidationError;
-import fi.helsinki.cs.tmc.stylerunner.validation.CheckstyleResult;
 import fi.helsinki.cs.tmc.testrunner.CaughtException;
 import fi.helsinki.cs.tmc.testrunner.StackTraceSerializer;
 
@@ -19,12 +18,15 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.StringReader;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
@@ -34,6 +36,34 @@ public class SubmissionResultParser {
 
     private static final Logger logger = LoggerFactory.getLogger(SubmissionResultParser.class);
 
+    private static final Gson gson =
+            new GsonBuilder()
+                    .registerTypeAdapter(
+                            SubmissionResult.Status.class, new StatusDeserializer())
+                    // TODO: is this needed anymore?
+                    .registerTypeAdapter(
+                            StackTraceElement.class, new StackTraceSerializer())
+                    .registerTypeAdapter(
+                            ImmutableList.class, new ImmutableListJsonDeserializer())
+                    .registerTypeAdapter(
+                            /* Needed because ValidationResultImpl stores filenames in
+                             * Map<File, List<ValidationError>, but Gson doesn't know
+                             * how to deserialize a string into a File */
+                            File.class, new FileDeserializer())
+                    .registerTypeAdapter(
+                            /* Needed because ValidationResultImpl stores errors in
+                             * abstract ValidationErrors which obviously don't have a
+                             * default constructor for Gson to use */
+                            ValidationError.class, new ValidationErrorInstanceCreator())
+                    .create();
+
+    /**
+     * Parses a submission result. Test cases and validation results are
+     * kept as JSON text and bound only when they are first used, as they
+     * are large and often not looked at. The rest of the fields, valgrind
+     * output included, are small or plain strings and are bound right away.
+     * Binding the deferred fields fails with the same exception as parsing.
+     */
     public SubmissionResult parseFromJson(final String json) {
 
         if (json.trim().isEmpty()) {
@@ -42,47 +72,93 @@ public class SubmissionResultParser {
         }
 
         try {
+            JsonReader reader = new JsonReader(new StringReader(json));
+            reader.setLenient(true);
+            JsonObject output = new JsonObject();
+            String testCases = null;
+            String validations = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("test_cases") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    testCases = DomainGson.nextRawJson(reader);
+                } else if (name.equals("validations")) {
+                    validations = DomainGson.nextRawJson(reader);
+                } else {
+                    output.add(name, new JsonParser().parse(reader));
+                }
+            }
 
-            Gson gson =
-                    new GsonBuilder()
-                            .registerTypeAdapter(
-                                    SubmissionResult.Status.class, new StatusDeserializer())
-                            // TODO: is this needed anymore?
-                            .registerTypeAdapter(
-                                    StackTraceElement.class, new StackTraceSerializer())
-                            .registerTypeAdapter(
-                                    ImmutableList.class, new ImmutableListJsonDeserializer())
-                            .registerTypeAdapter(
-                                    /* Needed because ValidationResultImpl stores filenames in
-                                     * Map<File, List<ValidationError>, but Gson doesn't know
-                                     * how to deserialize a string into a File */
-                                    File.class, new FileDeserializer())
-                            .registerTypeAdapter(
-                                    /* Needed because ValidationResultImpl stores errors in
-                                     * abstract ValidationErrors which obviously don't have a
-                                     * default constructor for Gson to use */
-                                    ValidationError.class, new ValidationErrorInstanceCreator())
-                            .create();
-
-            SubmissionResult result = gson.fromJson(json, SubmissionResult.class);
-
-            // Parse validations field from JSON
-            JsonObject output = new JsonParser().parse(json).getAsJsonObject();
-            JsonElement validationElement = output.get("validations");
-
-            if (validationElement != null) {
-                result.setValidationResult(CheckstyleResult.build(validationElement.toString()));
-            } else {
-                result.setValidationResult(CheckstyleResult.build("{}"));
+            SubmissionResult result = gson.fromJson(output, SubmissionResult.class);
+            if (testCases != null) {
+                result.setTestCases(new LazyTestResultList(gson, testCases));
             }
+            result.setValidationResult(new LazyValidationResult(validations));
 
             return result;
 
-        } catch (RuntimeException | IOException runtimeException) {
-            logger.warn("Failed to parse submission result", runtimeException);
+        } catch (RuntimeException | IOException exception) {
+            throw parseFailure(exception);
+        }
+    }
+
+    /*package*/ static RuntimeException parseFailure(Exception exception) {
+        logger.warn("Failed to parse submission result", exception);
+        return new RuntimeException(
+                "Failed to parse submission result: " + exception.getMessage(), exception);
+    }
+
+    /**
+     * Reads only the status and sandbox status of a submission result and
+     * skips everything else, like the test cases. Meant for polling a
+     * submission that is still being processed.
+     */
+    public SubmissionResult parseStatusFromJson(final String json) {
+
+        if (json.trim().isEmpty()) {
+            logger.info("Attempted to parse empty string as JSON");
+            throw new IllegalArgumentException("Empty input");
+        }
+
+        try {
+            SubmissionResult result = new SubmissionResult();
+            JsonReader reader = new JsonReader(new StringReader(json));
+            reader.setLenient(true);
+            reader.beginObject();
+            boolean statusRead = false;
+            boolean sandboxStatusRead = false;
+            while (reader.hasNext() && !(statusRead && sandboxStatusRead)) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    if (name.equals("status")) {
+                        result.setStatus(null);
+                    }
+                } else if (name.equals("status")) {
+                    result.setStatus(StatusDeserializer.parse(reader.nextString()));
+                    statusRead = true;
+                } else if (name.equals("sandbox_status")) {
+                    result.setSandboxStatus(parseSandboxStatus(reader.nextString()));
+                    sandboxStatusRead = true;
+                } else {
+                    reader.skipValue();
+                }
+            }
+            return result;
+
+        } catch (RuntimeException | IOException exception) {
+            logger.warn("Failed to parse submission status", exception);
             throw new RuntimeException(
-                    "Failed to parse submission result: " + runtimeException.getMessage(),
-                    runtimeException);
+                    "Failed to parse submission status: " + exception.getMessage(), exception);
+        }
+    }
+
+    // Like Gson's enum binding, unknown values read as null.
+    private static SubmissionResult.SandboxStatus parseSandboxStatus(String str) {
+        try {
+            return SubmissionResult.SandboxStatus.valueOf(str.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
         }
     }
 
@@ -94,7 +170,10 @@ public class SubmissionResultParser {
         public SubmissionResult.Status deserialize(
                 JsonElement json, Type typeOfT, JsonDeserializationContext context)
                 throws JsonParseException {
-            String str = json.getAsJsonPrimitive().getAsString();
+            return parse(json.getAsJsonPrimitive().getAsString());
+        }
+
+        static SubmissionResult.Status parse(String str) {
             try {
                 return SubmissionResult.Status.valueOf(str.toUpperCase());
             } catch (IllegalArgumentException e) {
@@ -124,20 +203,21 @@ public class SubmissionResultParser {
 
     private static class ImmutableListJsonDeserializer
             implements JsonDeserializer<ImmutableList<?>> {
+
+        private static final Gson exceptionGson =
+                new GsonBuilder()
+                        // TODO: is this needed anymore?
+                        .registerTypeAdapter(
+                                StackTraceElement.class, new StackTraceSerializer())
+                        .create();
+
         @Override
         public ImmutableList<?> deserialize(
                 JsonElement json, Type type, JsonDeserializationContext context)
                 throws JsonParseException {
             // This might really be a Java Exception / stack trace element list :D but of objects
             if (json.isJsonObject()) {
-                Gson gson =
-                        new GsonBuilder()
-                                // TODO: is this needed anymore?
-                                .registerTypeAdapter(
-                                        StackTraceElement.class, new StackTraceSerializer())
-                                .create();
-
-                CaughtException result = gson.fromJson(json, CaughtException.class);
+                CaughtException result = exceptionGson.fromJson(json, CaughtException.class);
 
 
                 List<String> exception = new ArrayList<>();
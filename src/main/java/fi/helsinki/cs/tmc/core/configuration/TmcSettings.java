@@ -67,6 +67,14 @@ public interface TmcSettings {
 
     boolean getSendDiagnostics();
 
+    /**
+     * Returns how many bytes per second snapshot and diagnostics uploads may
+     * use, or absent for no limit. Read again for every upload.
+     */
+    default Optional<Integer> getBackgroundUploadLimit() {
+        return Optional.absent();
+    }
+
     Optional<OauthCredentials> getOauthCredentials();
 
     void setOauthCredentials(Optional<OauthCredentials> credentials);
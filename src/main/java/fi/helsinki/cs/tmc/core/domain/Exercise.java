@@ -366,6 +366,10 @@ public class Exercise implements Serializable {
         return valgrindStrategy;
     }
 
+    public void setValgrindStrategy(ValgrindStrategy valgrindStrategy) {
+        this.valgrindStrategy = valgrindStrategy;
+    }
+
     @Override
     public String toString() {
         return name;
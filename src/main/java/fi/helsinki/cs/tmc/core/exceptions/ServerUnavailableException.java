@@ -0,0 +1,14 @@
+package fi.helsinki.cs.tmc.core.exceptions;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of making a request while recent requests to the same
+ * server have kept failing.
+ */
+public class ServerUnavailableException extends IOException {
+
+    public ServerUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -60,6 +60,35 @@ public class JsonMaker {
         return toplevel.toString();
     }
 
+    /**
+     * Roughly the length of the JSON text, computed without building it.
+     * Escaping is not accounted for.
+     */
+    public int estimateLength() {
+        return estimateLength(toplevel);
+    }
+
+    private static int estimateLength(JsonElement element) {
+        if (element.isJsonObject()) {
+            int length = 2;
+            for (Map.Entry<String, JsonElement> member : element.getAsJsonObject().entrySet()) {
+                length += member.getKey().length() + 4 + estimateLength(member.getValue());
+            }
+            return length;
+        } else if (element.isJsonArray()) {
+            int length = 2;
+            for (JsonElement item : element.getAsJsonArray()) {
+                length += estimateLength(item) + 1;
+            }
+            return length;
+        } else if (element.isJsonPrimitive()) {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            return primitive.getAsString().length() + (primitive.isString() ? 2 : 0);
+        } else {
+            return 4; // null
+        }
+    }
+
     private JsonObject asJsonObject() {
         return toplevel;
     }
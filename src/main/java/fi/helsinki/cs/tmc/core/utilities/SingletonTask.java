@@ -3,7 +3,9 @@ package fi.helsinki.cs.tmc.core.utilities;
 import com.google.common.util.concurrent.Futures;
 
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -13,17 +15,31 @@ import java.util.concurrent.TimeoutException;
  * A task that can be started repeatedly, but ensures only one instance is running at a time.
  */
 public class SingletonTask {
-    private ScheduledThreadPoolExecutor requestProcessor;
+    private ScheduledExecutorService timer;
+    private ExecutorService executor;
     private Runnable runnable;
     private Future<?> task;
     private ScheduledFuture<?> autostartTask = null;
 
     public SingletonTask(Runnable runnable) {
-        this(runnable, TmcRequestProcessor.instance);
+        this(runnable, TmcRequestScheduler.Priority.BACKGROUND);
+    }
+
+    /**
+     * Runs the task in the given priority class of {@link TmcRequestScheduler}.
+     */
+    public SingletonTask(Runnable runnable, TmcRequestScheduler.Priority priority) {
+        this(runnable, TmcRequestScheduler.instance.getTimer(),
+                TmcRequestScheduler.instance.getExecutor(priority));
     }
 
     public SingletonTask(Runnable runnable, ScheduledThreadPoolExecutor requestProcessor) {
-        this.requestProcessor = requestProcessor;
+        this(runnable, requestProcessor, requestProcessor);
+    }
+
+    private SingletonTask(Runnable runnable, ScheduledExecutorService timer, ExecutorService executor) {
+        this.timer = timer;
+        this.executor = executor;
         this.runnable = runnable;
         this.task = Futures.immediateFuture(null);
     }
@@ -32,7 +48,7 @@ public class SingletonTask {
         unsetInterval();
 
         autostartTask =
-                requestProcessor.scheduleWithFixedDelay(
+                timer.scheduleWithFixedDelay(
                         autostartRunnable, delay, delay, TimeUnit.MILLISECONDS);
     }
 
@@ -56,7 +72,7 @@ public class SingletonTask {
      */
     public synchronized void start() {
         if (task.isDone()) {
-            task = requestProcessor.submit(runnable);
+            task = executor.submit(runnable);
         }
     }
 
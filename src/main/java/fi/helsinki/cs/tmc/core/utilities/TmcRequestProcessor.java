@@ -2,7 +2,13 @@ package fi.helsinki.cs.tmc.core.utilities;
 
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 
-/** Holds TMC's default RequestProcessor. */
+/**
+ * Holds TMC's default RequestProcessor.
+ *
+ * @deprecated Use {@link TmcRequestScheduler}, which keeps background work
+ *     from delaying interactive commands.
+ */
+@Deprecated
 public class TmcRequestProcessor {
     // TODO: make it to a holder pattern...
     public static final ScheduledThreadPoolExecutor instance = new ScheduledThreadPoolExecutor(5);
@@ -0,0 +1,135 @@
+package fi.helsinki.cs.tmc.core.utilities;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs TMC's own work in separate priority classes so that background
+ * traffic can't hold up what the user is waiting for.
+ *
+ * <p>Each class has its own concurrency limit and runs its tasks in the
+ * order they were submitted. A class never uses another class's threads,
+ * so e.g. a long snapshot upload in {@link Priority#BULK} doesn't delay a
+ * submission in {@link Priority#INTERACTIVE}, and bulk work still makes
+ * progress while interactive work is queued.
+ */
+public final class TmcRequestScheduler {
+
+    public enum Priority {
+        /** Commands the user is waiting for. */
+        INTERACTIVE(8),
+        /** Small periodic work such as saving events. */
+        BACKGROUND(3),
+        /** Large transfers nobody is waiting for, such as sending snapshots to several servers. */
+        BULK(4);
+
+        private final int defaultConcurrency;
+
+        Priority(int defaultConcurrency) {
+            this.defaultConcurrency = defaultConcurrency;
+        }
+    }
+
+    private static final long IDLE_THREAD_TIMEOUT = 60 * 1000;
+
+    public static final TmcRequestScheduler instance = new TmcRequestScheduler();
+
+    private final Map<Priority, ThreadPoolExecutor> pools = new EnumMap<>(Priority.class);
+    private final Map<Priority, ExecutorService> executors = new EnumMap<>(Priority.class);
+    private final ScheduledThreadPoolExecutor timer;
+
+    private TmcRequestScheduler() {
+        for (Priority priority : Priority.values()) {
+            String name = "tmc-" + priority.name().toLowerCase(Locale.ROOT) + "-%d";
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                    priority.defaultConcurrency,
+                    priority.defaultConcurrency,
+                    IDLE_THREAD_TIMEOUT,
+                    TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat(name).build());
+            pool.allowCoreThreadTimeOut(true);
+            pools.put(priority, pool);
+            executors.put(priority, Executors.unconfigurableExecutorService(pool));
+        }
+        timer = new ScheduledThreadPoolExecutor(
+                1, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("tmc-timer-%d").build());
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Returns the executor that runs tasks of the given priority.
+     */
+    public ExecutorService getExecutor(Priority priority) {
+        return executors.get(priority);
+    }
+
+    /**
+     * Sets how many tasks of the given priority may run at the same time.
+     */
+    public void setConcurrencyLimit(Priority priority, int limit) {
+        checkArgument(limit > 0);
+        ThreadPoolExecutor pool = pools.get(priority);
+        synchronized (pool) {
+            if (limit > pool.getMaximumPoolSize()) {
+                pool.setMaximumPoolSize(limit);
+                pool.setCorePoolSize(limit);
+            } else {
+                pool.setCorePoolSize(limit);
+                pool.setMaximumPoolSize(limit);
+            }
+        }
+    }
+
+    public int getConcurrencyLimit(Priority priority) {
+        return pools.get(priority).getMaximumPoolSize();
+    }
+
+    /**
+     * Runs the task with the given priority after a delay.
+     *
+     * <p>Cancelling the returned future only prevents a task that hasn't
+     * started yet.
+     */
+    public ScheduledFuture<?> schedule(Priority priority, Runnable task, long delay, TimeUnit unit) {
+        return timer.schedule(handOff(priority, task), delay, unit);
+    }
+
+    /**
+     * Runs the task with the given priority repeatedly, waiting the delay
+     * between the time one run is handed over and the next.
+     */
+    public ScheduledFuture<?> scheduleWithFixedDelay(
+            Priority priority, Runnable task, long initialDelay, long delay, TimeUnit unit) {
+        return timer.scheduleWithFixedDelay(handOff(priority, task), initialDelay, delay, unit);
+    }
+
+    /**
+     * The timer only hands tasks over; it doesn't run them.
+     */
+    /*package*/ ScheduledExecutorService getTimer() {
+        return timer;
+    }
+
+    private Runnable handOff(final Priority priority, final Runnable task) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                pools.get(priority).execute(task);
+            }
+        };
+    }
+}
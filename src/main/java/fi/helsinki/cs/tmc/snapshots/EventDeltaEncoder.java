@@ -0,0 +1,130 @@
+package fi.helsinki.cs.tmc.snapshots;
+
+import name.fraser.neil.plaintext.DiffMatchPatch;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replaces the data of events in an upload with patches against the
+ * previous event with the same key in the same upload.
+ *
+ * <p>Each upload is encoded on its own, so the event a patch applies to is
+ * always sent in the same request to the same server, no matter which
+ * events were dropped from the buffer or which server the upload went to.
+ *
+ * <p>The first event of each key in an upload, every
+ * {@code keyframeInterval}th event after it and every event whose patch
+ * would not be smaller than its data are sent unchanged, whole. Patched
+ * events have the metadata {@code snapshot_encoding} {@code "dmp_patch"}
+ * and carry the {@code happenedAt} of the event they apply to as
+ * {@code delta_base}. An event is not patched against one whose
+ * {@code happenedAt} another event with the same key in the upload shares,
+ * as the base would be ambiguous. Patches are in the text format of
+ * {@link DiffMatchPatch#patch_toText}. Every event whose data is UTF-8 text
+ * may be patched. Other data, such as zipped project snapshots, is never
+ * patched.
+ */
+public class EventDeltaEncoder {
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 20;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Diffing runs on the thread sending the upload, so give up on finding
+    // a minimal patch early.
+    private static final float DIFF_TIMEOUT_SECONDS = 0.1f;
+
+    private static class Snapshot {
+        String text;
+        long happenedAt;
+        int patchesSinceKeyframe;
+    }
+
+    private final int keyframeInterval;
+
+    public EventDeltaEncoder() {
+        this(DEFAULT_KEYFRAME_INTERVAL);
+    }
+
+    public EventDeltaEncoder(int keyframeInterval) {
+        this.keyframeInterval = keyframeInterval;
+    }
+
+    /**
+     * Returns the events of an upload, in order, with patches in place of
+     * the data where they are smaller. The given events are not modified.
+     */
+    public List<LoggableEvent> encode(List<LoggableEvent> events) {
+        DiffMatchPatch dmp = new DiffMatchPatch();
+        dmp.Diff_Timeout = DIFF_TIMEOUT_SECONDS;
+        Map<String, Integer> eventsByTimestamp = new HashMap<>();
+        for (LoggableEvent event : events) {
+            String timestamp = timestampKey(event.getKey(), event.getHappenedAt());
+            Integer count = eventsByTimestamp.get(timestamp);
+            eventsByTimestamp.put(timestamp, count != null ? count + 1 : 1);
+        }
+
+        Map<String, Snapshot> lastSnapshotByKey = new HashMap<>();
+        List<LoggableEvent> encoded = new ArrayList<>(events.size());
+        for (LoggableEvent event : events) {
+            encoded.add(encode(event, dmp, lastSnapshotByKey, eventsByTimestamp));
+        }
+        return encoded;
+    }
+
+    private static String timestampKey(String key, long happenedAt) {
+        return key + "@" + happenedAt;
+    }
+
+    private LoggableEvent encode(LoggableEvent event, DiffMatchPatch dmp,
+            Map<String, Snapshot> lastSnapshotByKey, Map<String, Integer> eventsByTimestamp) {
+        String text = decode(event.getData());
+        if (text == null) {
+            lastSnapshotByKey.remove(event.getKey());
+            return event;
+        }
+
+        Snapshot prev = lastSnapshotByKey.get(event.getKey());
+        LoggableEvent encoded = event;
+        if (prev != null && prev.patchesSinceKeyframe + 1 < keyframeInterval
+                && eventsByTimestamp.get(timestampKey(event.getKey(), prev.happenedAt)) == 1) {
+            byte[] patch = dmp.patch_toText(dmp.patch_make(prev.text, text)).getBytes(UTF8);
+            if (patch.length < event.getData().length) {
+                encoded = event.withData(patch)
+                        .addMetadata("snapshot_encoding", "dmp_patch")
+                        .addMetadata("delta_base", prev.happenedAt);
+            }
+        }
+
+        Snapshot snapshot = new Snapshot();
+        snapshot.text = text;
+        snapshot.happenedAt = event.getHappenedAt();
+        if (encoded != event) {
+            snapshot.patchesSinceKeyframe = prev.patchesSinceKeyframe + 1;
+        }
+        lastSnapshotByKey.put(event.getKey(), snapshot);
+        return encoded;
+    }
+
+    // Returns null if the data is not valid UTF-8.
+    private static String decode(byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        CharsetDecoder decoder = UTF8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        try {
+            return decoder.decode(ByteBuffer.wrap(data)).toString();
+        } catch (CharacterCodingException ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package fi.helsinki.cs.tmc.snapshots;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of records split into segment files.
+ *
+ * <p>Every record gets the next offset. Records below the acknowledged
+ * offset are no longer needed, and segments holding only such records are
+ * deleted. Each record carries its length and a CRC32 of its contents, so
+ * a write cut short by a crash is detected and dropped when the log is
+ * opened. A record whose contents don't match its checksum is skipped on
+ * its own, as its length still tells where the next one starts. Records
+ * are never empty, so a zero length marks the end of the valid data, such
+ * as the zero-filled tail a crash can leave behind.
+ */
+/*package*/ final class EventLog implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(EventLog.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Pattern SEGMENT_NAME = Pattern.compile("(\\d{20})\\.log");
+    private static final String ACKED_FILE = "acked";
+    private static final int HEADER_SIZE = 8;
+
+    private final Path directory;
+    private final long segmentSize;
+
+    // First offset of each segment, oldest first.
+    private final TreeMap<Long, Path> segments = new TreeMap<>();
+    private FileChannel active;
+    private long ackedOffset;
+    private long nextOffset;
+
+    private EventLog(Path directory, long segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Opens the log in the directory, creating it if needed, and adds the
+     * unacknowledged records to the given list in order. Records lost to
+     * corruption are skipped, in which case the list holds fewer records
+     * than there are offsets between the acknowledged and the next one.
+     */
+    /*package*/ static EventLog open(Path directory, long segmentSize, List<byte[]> unacknowledged)
+            throws IOException {
+        Files.createDirectories(directory);
+        EventLog eventLog = new EventLog(directory, segmentSize);
+        eventLog.recover(unacknowledged);
+        return eventLog;
+    }
+
+    /*package*/ long getAckedOffset() {
+        return ackedOffset;
+    }
+
+    /*package*/ long getNextOffset() {
+        return nextOffset;
+    }
+
+    /**
+     * Appends the records and forces them to disk. Records must not be
+     * empty.
+     */
+    /*package*/ void append(List<byte[]> records) throws IOException {
+        for (byte[] record : records) {
+            if (record.length == 0) {
+                throw new IllegalArgumentException("Records must not be empty");
+            }
+        }
+        int i = 0;
+        while (i < records.size()) {
+            if (active == null || active.size() >= segmentSize) {
+                startSegment();
+            }
+            int end = i;
+            long size = active.size();
+            do {
+                size += HEADER_SIZE + records.get(end).length;
+                end++;
+            } while (end < records.size() && size < segmentSize);
+
+            write(records.subList(i, end));
+            nextOffset += end - i;
+            i = end;
+        }
+        if (active != null) {
+            active.force(false);
+        }
+    }
+
+    private void write(List<byte[]> records) throws IOException {
+        int size = 0;
+        for (byte[] record : records) {
+            size += HEADER_SIZE + record.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        CRC32 crc = new CRC32();
+        for (byte[] record : records) {
+            crc.reset();
+            crc.update(record, 0, record.length);
+            buffer.putInt(record.length).putInt((int) crc.getValue()).put(record);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            active.write(buffer);
+        }
+    }
+
+    /**
+     * Marks the records below the offset as no longer needed and deletes
+     * the segments holding only such records.
+     */
+    /*package*/ void acknowledge(long offset) throws IOException {
+        offset = Math.min(offset, nextOffset);
+        if (offset <= ackedOffset) {
+            return;
+        }
+        writeAckedOffset(offset);
+        ackedOffset = offset;
+        deleteAcknowledgedSegments();
+    }
+
+    private void deleteAcknowledgedSegments() throws IOException {
+        while (!segments.isEmpty()) {
+            Map.Entry<Long, Path> oldest = segments.firstEntry();
+            Long following = segments.higherKey(oldest.getKey());
+            long end = following != null ? following : nextOffset;
+            if (end > ackedOffset) {
+                break;
+            }
+            if (following == null) {
+                closeActive();
+            }
+            Files.deleteIfExists(oldest.getValue());
+            segments.remove(oldest.getKey());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeActive();
+    }
+
+    private void startSegment() throws IOException {
+        closeActive();
+        Path file = directory.resolve(String.format("%020d.log", nextOffset));
+        active = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        active.truncate(0);
+        segments.put(nextOffset, file);
+    }
+
+    private void closeActive() throws IOException {
+        if (active != null) {
+            active.close();
+            active = null;
+        }
+    }
+
+    private void recover(List<byte[]> unacknowledged) throws IOException {
+        ackedOffset = readAckedOffset();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.log")) {
+            for (Path file : files) {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    segments.put(Long.parseLong(matcher.group(1)), file);
+                }
+            }
+        }
+
+        nextOffset = segments.isEmpty() ? ackedOffset : segments.firstKey();
+        for (Map.Entry<Long, Path> segment : segments.entrySet()) {
+            long firstOffset = segment.getKey();
+            Path file = segment.getValue();
+            if (firstOffset != nextOffset) {
+                log.warn("Event log segment {} doesn't continue from offset {}", file, nextOffset);
+                nextOffset = firstOffset;
+            }
+            long validLength = readSegment(file, unacknowledged);
+            if (firstOffset == segments.lastKey()) {
+                active = FileChannel.open(file, StandardOpenOption.WRITE);
+                if (active.size() > validLength) {
+                    log.warn("Discarding {} bytes of incomplete records at the end of {}",
+                            active.size() - validLength, file);
+                    active.truncate(validLength);
+                }
+                active.position(validLength);
+            }
+        }
+
+        // Only ahead of the records if segments went missing. Offsets must
+        // not be reused, so continue after the acknowledged ones.
+        nextOffset = Math.max(nextOffset, ackedOffset);
+        deleteAcknowledgedSegments();
+    }
+
+    // Reads the records of a segment, returning the length of the valid part.
+    private long readSegment(Path file, List<byte[]> unacknowledged) throws IOException {
+        long remaining = Files.size(file);
+        long validLength = 0;
+        int skipped = 0;
+        CRC32 crc = new CRC32();
+        try (InputStream in = Files.newInputStream(file);
+                DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+            while (remaining >= HEADER_SIZE) {
+                int length = data.readInt();
+                int checksum = data.readInt();
+                if (length <= 0 || length > remaining - HEADER_SIZE) {
+                    break;
+                }
+                byte[] record = new byte[length];
+                data.readFully(record);
+                crc.reset();
+                crc.update(record, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    log.warn("Skipping record {} at byte {} of {}, its checksum doesn't match",
+                            nextOffset, validLength, file);
+                    skipped++;
+                } else if (nextOffset >= ackedOffset) {
+                    unacknowledged.add(record);
+                }
+                nextOffset++;
+                validLength += HEADER_SIZE + length;
+                remaining -= HEADER_SIZE + length;
+            }
+        }
+        if (skipped > 0) {
+            log.warn("Lost {} corrupted records in {}", skipped, file);
+        }
+        return validLength;
+    }
+
+    private long readAckedOffset() throws IOException {
+        Path file = directory.resolve(ACKED_FILE);
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        String text = new String(Files.readAllBytes(file), UTF8).trim();
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException ex) {
+            log.warn("Ignoring invalid acknowledged offset \"{}\" in {}", text, file);
+            return 0;
+        }
+    }
+
+    private void writeAckedOffset(long offset) throws IOException {
+        Path file = directory.resolve(ACKED_FILE);
+        Path temp = directory.resolve(ACKED_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(Long.toString(offset).getBytes(UTF8)));
+            channel.force(false);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
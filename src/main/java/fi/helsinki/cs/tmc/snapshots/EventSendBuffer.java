@@ -3,11 +3,12 @@ package fi.helsinki.cs.tmc.snapshots;
 import static com.google.common.base.Preconditions.checkArgument;
 
 import fi.helsinki.cs.tmc.core.communication.TmcServerCommunicationTaskFactory;
+import fi.helsinki.cs.tmc.core.communication.http.RetryPolicy;
 import fi.helsinki.cs.tmc.core.domain.Course;
 import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
 import fi.helsinki.cs.tmc.core.utilities.Cooldown;
 import fi.helsinki.cs.tmc.core.utilities.SingletonTask;
-import fi.helsinki.cs.tmc.core.utilities.TmcRequestProcessor;
+import fi.helsinki.cs.tmc.core.utilities.TmcRequestScheduler;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.Iterables;
@@ -20,15 +21,30 @@ import java.net.URI;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Buffers {@link LoggableEvent}s and sends them to the server and/or syncs them to the disk
  * periodically.
+ *
+ * <p>Received events go to a lock-free inbox, so the threads producing them
+ * never wait for sending or saving. The sending and saving tasks move the
+ * inbox into the send queue before working on it.
+ *
+ * <p>If delta encoding is enabled, each batch is encoded with
+ * {@link EventDeltaEncoder} as it is sent, so the events it patches against
+ * are in the same batch. Events are saved as received.
  */
 public class EventSendBuffer implements EventReceiver {
     private static final Logger log = LoggerFactory.getLogger(EventSendBuffer.class.getName());
@@ -39,18 +55,41 @@ public class EventSendBuffer implements EventReceiver {
     public static final int DEFAULT_AUTOSEND_THREHSOLD = DEFAULT_MAX_EVENTS / 2;
     public static final int DEFAULT_AUTOSEND_COOLDOWN = 30 * 1000;
     public static final int DEFAULT_MAX_EVENTS_PER_SEND = 500;
+    public static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+    public static final int DEFAULT_MAX_BYTES_PER_SEND = 1024 * 1024;
+
+    // Failed sends are retried sooner than the next interval, backing off up to it.
+    private static final RetryPolicy RESEND_BACKOFF =
+            new RetryPolicy(Integer.MAX_VALUE, 10 * 1000, DEFAULT_SEND_INTERVAL);
 
     private Random random = new Random();
+    private final SpywareServerHealth serverHealth = new SpywareServerHealth(RESEND_BACKOFF, random);
     private TmcServerCommunicationTaskFactory serverAccess;
     private EventStore eventStore;
+    private final EventDeltaEncoder deltaEncoder = new EventDeltaEncoder();
+    private volatile boolean deltaEncoding = false;
+
+    // Events not yet moved to sendQueue, oldest first. Kept to about
+    // maxEvents, as older events would be dropped on moving anyway.
+    private final ConcurrentLinkedQueue<LoggableEvent> inbox = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger inboxSize = new AtomicInteger();
+    private volatile int sendQueueSize = 0;
+    private volatile int maxEvents = DEFAULT_MAX_EVENTS;
+    private volatile int autosendThreshold = DEFAULT_AUTOSEND_THREHSOLD;
+    private final Cooldown autosendCooldown = new Cooldown(DEFAULT_AUTOSEND_COOLDOWN); // Locked on itself
 
     // The following variables must only be accessed with a lock on sendQueue.
     private final ArrayDeque<LoggableEvent> sendQueue = new ArrayDeque<>();
     private int eventsToRemoveAfterSend = 0;
-    private int maxEvents = DEFAULT_MAX_EVENTS;
-    private int autosendThreshold = DEFAULT_AUTOSEND_THREHSOLD;
-    private int maxEventsPerSend = DEFAULT_MAX_EVENTS_PER_SEND; // Servers have POST size limits
-    private Cooldown autosendCooldown;
+    private long sendQueueBytes = 0; // Sum of estimated sizes
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    // Servers have POST size limits. Limiting by estimated size keeps both
+    // small events and whole file snapshots under them.
+    private int maxEventsPerSend = DEFAULT_MAX_EVENTS_PER_SEND;
+    private int maxBytesPerSend = DEFAULT_MAX_BYTES_PER_SEND;
+    private int failedSends = 0;
+    private ScheduledFuture<?> resendTask = null;
+    private boolean closed = false;
 
     public EventSendBuffer(EventStore eventStore) {
         this(new TmcServerCommunicationTaskFactory(), eventStore);
@@ -61,12 +100,16 @@ public class EventSendBuffer implements EventReceiver {
             EventStore eventStore) {
         this.serverAccess = serverAccess;
         this.eventStore = eventStore;
-        this.autosendCooldown = new Cooldown(DEFAULT_AUTOSEND_COOLDOWN);
 
         try {
             List<LoggableEvent> initialEvents = Arrays.asList(eventStore.load());
             initialEvents = initialEvents.subList(0, Math.min(maxEvents, initialEvents.size()));
-            this.sendQueue.addAll(initialEvents);
+            synchronized (sendQueue) {
+                for (LoggableEvent event : initialEvents) {
+                    addToSendQueue(event);
+                }
+                trimSendQueue();
+            }
         } catch (IOException | RuntimeException ex) {
             log.warn("Failed to read events from event store", ex);
         }
@@ -89,36 +132,50 @@ public class EventSendBuffer implements EventReceiver {
         checkArgument(newMaxEvents > 0);
 
         synchronized (sendQueue) {
-            if (newMaxEvents < maxEvents) {
-                int diff = newMaxEvents - maxEvents;
-                for (int i = 0; i < diff; ++i) {
-                    sendQueue.pop();
-                }
-                eventsToRemoveAfterSend -= diff;
-            }
-
             maxEvents = newMaxEvents;
+            moveInboxToSendQueue();
         }
     }
 
     public void setAutosendThreshold(int autosendThreshold) {
-        synchronized (sendQueue) {
-            if (autosendThreshold <= 0) {
-                throw new IllegalArgumentException();
-            }
-            this.autosendThreshold = autosendThreshold;
-
-            maybeAutosend();
+        if (autosendThreshold <= 0) {
+            throw new IllegalArgumentException();
         }
+        this.autosendThreshold = autosendThreshold;
+
+        maybeAutosend();
     }
 
     public void setAutosendCooldown(long durationMillis) {
         checkArgument(durationMillis > 0);
-        synchronized (sendQueue) {
+        synchronized (autosendCooldown) {
             this.autosendCooldown.setDurationMillis(durationMillis);
         }
     }
 
+    /**
+     * Sets the limit for the estimated size of all buffered events, over
+     * which the oldest are discarded.
+     */
+    public void setMaxBytes(long maxBytes) {
+        checkArgument(maxBytes > 0);
+        synchronized (sendQueue) {
+            this.maxBytes = maxBytes;
+            moveInboxToSendQueue();
+        }
+    }
+
+    /**
+     * Sets the limit for the estimated size of the events sent at once. An
+     * event larger than this is sent alone.
+     */
+    public void setMaxBytesPerSend(int maxBytesPerSend) {
+        checkArgument(maxBytesPerSend > 0);
+        synchronized (sendQueue) {
+            this.maxBytesPerSend = maxBytesPerSend;
+        }
+    }
+
     public void setMaxEventsPerSend(int maxEventsPerSend) {
         checkArgument(maxEventsPerSend > 0);
         synchronized (sendQueue) {
@@ -126,6 +183,17 @@ public class EventSendBuffer implements EventReceiver {
         }
     }
 
+    /**
+     * Sets whether text events are sent as patches against the previous
+     * event of the same kind in the same batch. Only enable this for
+     * snapshot servers that support {@code snapshot_encoding}
+     * {@code "dmp_patch"}, as others would store the patches as data. Off
+     * by default.
+     */
+    public void setDeltaEncoding(boolean deltaEncoding) {
+        this.deltaEncoding = deltaEncoding;
+    }
+
     public void sendNow() {
         sendingTask.start();
     }
@@ -142,22 +210,57 @@ public class EventSendBuffer implements EventReceiver {
 
     @Override
     public void receiveEvent(LoggableEvent event) {
-        synchronized (sendQueue) {
-            if (sendQueue.size() >= maxEvents) {
-                sendQueue.pop();
-                eventsToRemoveAfterSend--;
-            }
-            sendQueue.add(event);
-
-            maybeAutosend();
+        inbox.offer(event);
+        if (inboxSize.incrementAndGet() > maxEvents && inbox.poll() != null) {
+            inboxSize.decrementAndGet();
         }
+
+        maybeAutosend();
     }
 
     private void maybeAutosend() {
-        if (sendQueue.size() >= autosendThreshold && autosendCooldown.isExpired()) {
+        if (inboxSize.get() + sendQueueSize < autosendThreshold) {
+            return;
+        }
+        synchronized (autosendCooldown) {
+            if (!autosendCooldown.isExpired()) {
+                return;
+            }
             autosendCooldown.start();
-            sendNow();
         }
+        sendNow();
+    }
+
+    // The following must be called with a lock on sendQueue.
+
+    private void moveInboxToSendQueue() {
+        LoggableEvent event;
+        while ((event = inbox.poll()) != null) {
+            inboxSize.decrementAndGet();
+            addToSendQueue(event);
+        }
+        trimSendQueue();
+    }
+
+    private void addToSendQueue(LoggableEvent event) {
+        sendQueue.add(event);
+        sendQueueBytes += event.getEstimatedSize();
+    }
+
+    private LoggableEvent removeOldest() {
+        LoggableEvent event = sendQueue.pop();
+        sendQueueBytes -= event.getEstimatedSize();
+        return event;
+    }
+
+    // Drops the oldest events while over maxEvents or maxBytes, but always
+    // keeps the newest one.
+    private void trimSendQueue() {
+        while (sendQueue.size() > maxEvents || (sendQueueBytes > maxBytes && sendQueue.size() > 1)) {
+            removeOldest();
+            eventsToRemoveAfterSend--;
+        }
+        sendQueueSize = sendQueue.size();
     }
 
     /**
@@ -171,6 +274,12 @@ public class EventSendBuffer implements EventReceiver {
         try {
             sendingTask.unsetInterval();
             savingTask.unsetInterval();
+            synchronized (sendQueue) {
+                closed = true;
+                if (resendTask != null) {
+                    resendTask.cancel(false);
+                }
+            }
 
             savingTask.waitUntilFinished(delayPerWait);
             savingTask.start();
@@ -186,7 +295,7 @@ public class EventSendBuffer implements EventReceiver {
     }
 
     private SingletonTask sendingTask =
-            new SingletonTask(getSendingTaskRunnable(), TmcRequestProcessor.instance);
+            new SingletonTask(getSendingTaskRunnable(), TmcRequestScheduler.Priority.BULK);
 
     private Runnable getSendingTaskRunnable() {
         return new Runnable() {
@@ -195,92 +304,214 @@ public class EventSendBuffer implements EventReceiver {
                 boolean shouldSendMore;
 
                 do {
-                    ArrayList<LoggableEvent> eventsToSend = copyEventsToSendFromQueue();
-                    if (eventsToSend.isEmpty()) {
+                    List<URI> allUrls = getDestinationUrls();
+                    if (allUrls.isEmpty()) {
+                        return;
+                    }
+                    List<URI> urls = serverHealth.pickAvailable(allUrls);
+
+                    List<ArrayList<LoggableEvent>> batches = copyBatchesToSendFromQueue(urls.size());
+                    if (batches.isEmpty()) {
                         return;
                     }
 
+                    int batchedEvents = 0;
+                    for (ArrayList<LoggableEvent> batch : batches) {
+                        batchedEvents += batch.size();
+                    }
                     synchronized (sendQueue) {
-                        shouldSendMore = sendQueue.size() > eventsToSend.size();
+                        shouldSendMore = sendQueue.size() > batchedEvents;
                     }
 
-                    URI url = pickDestinationUrl();
-                    if (url == null) {
-                        return;
+                    boolean[] sent = sendInParallel(batches, urls);
+                    boolean anySent = false;
+                    boolean allSent = true;
+                    for (boolean batchSent : sent) {
+                        anySent |= batchSent;
+                        allSent &= batchSent;
                     }
 
-                    log.warn(
-                            "Sending {0} events to {1}",
-                            new Object[] {eventsToSend.size(), url});
+                    if (anySent) {
+                        synchronized (sendQueue) {
+                            failedSends = 0;
+                        }
+                        removeSentEventsFromQueue(batches, sent);
 
-                        if (!tryToSend(eventsToSend, url)) {
+                        // If saving fails now (or is already running and fails later)
+                        // then we may end up sending duplicate events later.
+                        // This will hopefully be very rare.
+                        savingTask.start();
+                    }
+                    if (!allSent) {
+                        // Fail over to the servers that still work, if any.
+                        if (serverHealth.isAnyAvailable(allUrls)) {
+                            shouldSendMore = true;
+                        } else {
+                            scheduleResend();
                             shouldSendMore = false;
                         }
+                    }
                 } while (shouldSendMore);
             }
 
-            private ArrayList<LoggableEvent> copyEventsToSendFromQueue() {
+            // Takes consecutive batches from the start of the queue.
+            private List<ArrayList<LoggableEvent>> copyBatchesToSendFromQueue(int maxBatches) {
                 synchronized (sendQueue) {
-                    ArrayList<LoggableEvent> eventsToSend = new ArrayList<>(sendQueue.size());
-
+                    moveInboxToSendQueue();
+                    List<ArrayList<LoggableEvent>> batches = new ArrayList<>(maxBatches);
                     Iterator<LoggableEvent> iterator = sendQueue.iterator();
-                    while (iterator.hasNext() && eventsToSend.size() < maxEventsPerSend) {
-                        eventsToSend.add(iterator.next());
+                    LoggableEvent next = iterator.hasNext() ? iterator.next() : null;
+                    int batchedEvents = 0;
+
+                    while (next != null && batches.size() < maxBatches) {
+                        ArrayList<LoggableEvent> batch = new ArrayList<>();
+                        long bytes = 0;
+                        while (next != null && batch.size() < maxEventsPerSend) {
+                            bytes += next.getEstimatedSize();
+                            if (bytes > maxBytesPerSend && !batch.isEmpty()) {
+                                break;
+                            }
+                            batch.add(next);
+                            next = iterator.hasNext() ? iterator.next() : null;
+                        }
+                        batches.add(batch);
+                        batchedEvents += batch.size();
                     }
 
-                    eventsToRemoveAfterSend = eventsToSend.size();
+                    eventsToRemoveAfterSend = batchedEvents;
 
-                    return eventsToSend;
+                    return batches;
                 }
             }
 
-            private URI pickDestinationUrl() {
+            private List<URI> getDestinationUrls() {
                 Optional<Course> course = TmcSettingsHolder.get().getCurrentCourse();
                 if (!course.isPresent()) {
                     log.debug("Not sending events because no course selected");
-                    return null;
+                    return Collections.emptyList();
                 }
 
                 List<URI> urls = course.get().getSpywareUrls();
                 if (urls == null || urls.isEmpty()) {
                     log.info("Not sending events because no URL provided by server");
-                    return null;
+                    return Collections.emptyList();
                 }
 
-                return urls.get(random.nextInt(urls.size()));
+                return urls;
             }
 
-            private boolean tryToSend(final ArrayList<LoggableEvent> eventsToSend, final URI url) {
-                // TODO: Should we still wrap this into bg task (future)
+            /**
+             * Sends each batch to its own server. The first batch is sent on
+             * this thread and the rest in {@link TmcRequestScheduler.Priority#BULK}.
+             * Batches that haven't started by the time this thread is done are
+             * sent here too, so a concurrency limit of one can't deadlock.
+             */
+            private boolean[] sendInParallel(List<ArrayList<LoggableEvent>> batches, List<URI> urls) {
+                List<FutureTask<Boolean>> uploads = new ArrayList<>();
+                for (int i = 1; i < batches.size(); ++i) {
+                    final ArrayList<LoggableEvent> batch = batches.get(i);
+                    final URI url = urls.get(i);
+                    FutureTask<Boolean> upload = new FutureTask<>(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() {
+                            return tryToSend(batch, url);
+                        }
+                    });
+                    TmcRequestScheduler.instance.getExecutor(TmcRequestScheduler.Priority.BULK).execute(upload);
+                    uploads.add(upload);
+                }
+
+                boolean[] sent = new boolean[batches.size()];
+                sent[0] = tryToSend(batches.get(0), urls.get(0));
+                for (int i = 0; i < uploads.size(); ++i) {
+                    FutureTask<Boolean> upload = uploads.get(i);
+                    upload.run();
+                    try {
+                        sent[i + 1] = upload.get();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    } catch (ExecutionException ex) {
+                        log.warn("Sending failed", ex);
+                    }
+                }
+                return sent;
+            }
 
+            private boolean tryToSend(final ArrayList<LoggableEvent> eventsToSend, final URI url) {
+                log.info("Sending {} events to {}", eventsToSend.size(), url);
                 try {
-                    Callable<Object> task = serverAccess.getSendEventLogJob(url, eventsToSend);
+                    List<LoggableEvent> encoded =
+                            deltaEncoding ? deltaEncoder.encode(eventsToSend) : eventsToSend;
+                    Callable<Object> task = serverAccess.getSendEventLogJob(url, encoded);
                     task.call();
                 } catch (Exception ex) {
-                    log.info("Sending failed", ex);
+                    log.info("Sending to " + url + " failed", ex);
+                    serverHealth.onFailure(url);
                     return false;
                 }
 
-                log.info(
-                        "Sent {0} events successfully to {1}",
-                        new Object[] {eventsToSend.size(), url});
-
-                removeSentEventsFromQueue();
-
-                // If saving fails now (or is already running and fails later)
-                // then we may end up sending duplicate events later.
-                // This will hopefully be very rare.
-                savingTask.start();
+                serverHealth.onSuccess(url);
+                log.info("Sent {} events successfully to {}", eventsToSend.size(), url);
                 return true;
             }
 
-            private void removeSentEventsFromQueue() {
+            /**
+             * Tries again after a jittered delay that grows with consecutive
+             * failures, so an outage doesn't leave events waiting for the full
+             * interval nor make every client resend at once.
+             */
+            private void scheduleResend() {
                 synchronized (sendQueue) {
+                    if (closed || (resendTask != null && !resendTask.isDone())) {
+                        return;
+                    }
+                    failedSends++;
+                    long delay = RESEND_BACKOFF.getDelay(failedSends);
+                    log.info("Trying to send events again in {} ms", delay);
+                    resendTask = TmcRequestScheduler.instance.schedule(
+                            TmcRequestScheduler.Priority.BACKGROUND, new Runnable() {
+                                @Override
+                                public void run() {
+                                    sendNow();
+                                }
+                            }, delay, TimeUnit.MILLISECONDS);
+                }
+            }
+
+            // Removes the events of the sent batches and keeps the others at
+            // the start of the queue. Events dropped on overflow while sending
+            // were the oldest, so eventsToRemoveAfterSend tells how many of
+            // the batched events are still in the queue. The limits are
+            // applied again afterwards, dropping the oldest of the kept events
+            // if the queue grew past them.
+            private void removeSentEventsFromQueue(List<ArrayList<LoggableEvent>> batches, boolean[] sent) {
+                synchronized (sendQueue) {
+                    int dropped = 0;
+                    for (ArrayList<LoggableEvent> batch : batches) {
+                        dropped += batch.size();
+                    }
+                    dropped -= Math.max(eventsToRemoveAfterSend, 0);
                     assert (eventsToRemoveAfterSend <= sendQueue.size());
-                    while (eventsToRemoveAfterSend > 0) {
-                        sendQueue.pop();
-                        eventsToRemoveAfterSend--;
+
+                    ArrayDeque<LoggableEvent> kept = new ArrayDeque<>();
+                    int position = 0;
+                    for (int i = 0; i < batches.size(); ++i) {
+                        for (int j = 0; j < batches.get(i).size(); ++j, ++position) {
+                            if (position < dropped) {
+                                continue;
+                            }
+                            LoggableEvent event = removeOldest();
+                            if (!sent[i]) {
+                                kept.addFirst(event);
+                            }
+                        }
+                    }
+                    for (LoggableEvent event : kept) {
+                        sendQueue.addFirst(event);
+                        sendQueueBytes += event.getEstimatedSize();
                     }
+                    trimSendQueue();
+                    eventsToRemoveAfterSend = 0;
                 }
             }
         };
@@ -293,6 +524,7 @@ public class EventSendBuffer implements EventReceiver {
                     try {
                         LoggableEvent[] eventsToSave;
                         synchronized (sendQueue) {
+                            moveInboxToSendQueue();
                             eventsToSave = Iterables.toArray(sendQueue, LoggableEvent.class);
                         }
                         eventStore.save(eventsToSave);
@@ -303,5 +535,5 @@ public class EventSendBuffer implements EventReceiver {
             };
 
     private SingletonTask savingTask =
-            new SingletonTask(eventsToSaveRunnable, TmcRequestProcessor.instance);
+            new SingletonTask(eventsToSaveRunnable, TmcRequestScheduler.Priority.BACKGROUND);
 }
@@ -1,49 +1,150 @@
 package fi.helsinki.cs.tmc.snapshots;
 
-import fi.helsinki.cs.tmc.core.persistance.ConfigFileIo;
+import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
 import fi.helsinki.cs.tmc.core.utilities.ByteArrayGsonSerializer;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 
+/**
+ * Persists the events waiting to be sent.
+ *
+ * <p>The events are kept in an append-only {@link EventLog}. Saving
+ * compares the buffered events to the ones already logged: events no longer
+ * buffered, because they were sent or dropped, are acknowledged and only
+ * the events received since the last save are written.
+ */
 public class EventStore {
     private static final Logger log = LoggerFactory.getLogger(EventStore.class.getName());
+    private static final Gson gson = new GsonBuilder()
+            .registerTypeAdapter(byte[].class, new ByteArrayGsonSerializer())
+            .create();
 
-    private ConfigFileIo configFile;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String LOG_DIRECTORY = "events";
+    private static final String LEGACY_FILE = "Events.json";
+    private static final long SEGMENT_SIZE = 1024 * 1024;
 
-    // TODO: where the config file goes?
-    public EventStore() {
-        this.configFile = new ConfigFileIo("Events.json");
+    private EventLog eventLog;
+
+    // The unacknowledged events of the log, oldest first.
+    private final ArrayDeque<LoggableEvent> logged = new ArrayDeque<>();
+
+    /**
+     * Saves the events, which are expected to be the ones given to the
+     * previous save with some removed from the start and some added to the
+     * end. Anything else rewrites the log.
+     */
+    public synchronized void save(LoggableEvent[] events) throws IOException {
+        EventLog eventLog = getEventLog();
+
+        long acked = eventLog.getAckedOffset();
+        while (!logged.isEmpty() && (events.length == 0 || logged.peekFirst() != events[0])) {
+            logged.removeFirst();
+            acked++;
+        }
+
+        int unchanged = 0;
+        Iterator<LoggableEvent> iterator = logged.iterator();
+        while (iterator.hasNext()) {
+            if (unchanged >= events.length || iterator.next() != events[unchanged]) {
+                log.info("Rewriting the event log as the saved events are not a continuation");
+                rewrite(Arrays.asList(events));
+                return;
+            }
+            unchanged++;
+        }
+
+        eventLog.acknowledge(acked);
+        append(Arrays.asList(events).subList(unchanged, events.length));
+        log.debug("Saved {} new events, {} events in log", events.length - unchanged, events.length);
+    }
+
+    public synchronized LoggableEvent[] load() throws IOException {
+        getEventLog();
+        LoggableEvent[] result = logged.toArray(new LoggableEvent[logged.size()]);
+        log.info("Loaded {} events", result.length);
+        return result;
     }
 
-    public void save(LoggableEvent[] events) throws IOException {
-        String text = getGson().toJson(events);
-        configFile.writeContents(text);
-        log.info("Saved {0} events", events.length);
+    public synchronized void clear() throws IOException {
+        EventLog eventLog = getEventLog();
+        eventLog.acknowledge(eventLog.getNextOffset());
+        logged.clear();
     }
 
-    public LoggableEvent[] load() throws IOException {
-        String text = configFile.readContents();
-        LoggableEvent[] result = getGson().fromJson(text, LoggableEvent[].class);
-        if (result == null) {
-            result = new LoggableEvent[0];
+    private void append(List<LoggableEvent> events) throws IOException {
+        List<byte[]> records = new ArrayList<>(events.size());
+        for (LoggableEvent event : events) {
+            records.add(gson.toJson(event).getBytes(UTF8));
         }
-        log.info("Loaded {0} events", result.length);
-        return result;
+        eventLog.append(records);
+        logged.addAll(events);
     }
 
-    private Gson getGson() {
-        return new GsonBuilder()
-                .registerTypeAdapter(byte[].class, new ByteArrayGsonSerializer())
-                .create();
+    private void rewrite(List<LoggableEvent> events) throws IOException {
+        eventLog.acknowledge(eventLog.getNextOffset());
+        logged.clear();
+        append(events);
     }
 
-    public void clear() throws IOException {
-        configFile.writeContents("");
+    private EventLog getEventLog() throws IOException {
+        if (eventLog == null) {
+            Path root = TmcSettingsHolder.get().getConfigRoot();
+            List<byte[]> records = new ArrayList<>();
+            eventLog = EventLog.open(root.resolve(LOG_DIRECTORY), SEGMENT_SIZE, records);
+
+            boolean intact = records.size() == eventLog.getNextOffset() - eventLog.getAckedOffset();
+            for (byte[] record : records) {
+                try {
+                    LoggableEvent event = gson.fromJson(new String(record, UTF8), LoggableEvent.class);
+                    if (event != null) {
+                        logged.add(event);
+                    } else {
+                        log.warn("Skipping empty event");
+                        intact = false;
+                    }
+                } catch (JsonParseException ex) {
+                    log.warn("Skipping unreadable event", ex);
+                    intact = false;
+                }
+            }
+
+            List<LoggableEvent> legacyEvents = loadLegacyFile(root.resolve(LEGACY_FILE));
+            if (!intact) {
+                rewrite(new ArrayList<>(logged));
+            }
+            append(legacyEvents);
+            Files.deleteIfExists(root.resolve(LEGACY_FILE));
+        }
+        return eventLog;
+    }
+
+    // Events saved by versions that rewrote all of them to a single file.
+    private List<LoggableEvent> loadLegacyFile(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return new ArrayList<>();
+        }
+        LoggableEvent[] events = null;
+        try {
+            events = gson.fromJson(new String(Files.readAllBytes(file), UTF8), LoggableEvent[].class);
+        } catch (JsonParseException ex) {
+            log.warn("Discarding unreadable events in " + file, ex);
+        }
+        return events != null ? Arrays.asList(events) : new ArrayList<LoggableEvent>();
     }
 }
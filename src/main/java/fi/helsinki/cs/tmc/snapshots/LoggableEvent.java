@@ -10,6 +10,9 @@ import java.util.List;
 
 public class LoggableEvent implements TmcEvent {
 
+    // Field names, quotes and the two timestamps in the uploaded JSON.
+    private static final int JSON_OVERHEAD = 150;
+
     private String courseName;
     private String exerciseName;
     private String eventType;
@@ -21,6 +24,7 @@ public class LoggableEvent implements TmcEvent {
     private long happenedAt; // millis from epoch
     private long systemNanotime;
     private transient String key;
+    private transient int estimatedSize;
 
     public LoggableEvent(String eventType, byte[] data) {
         this("", "", eventType, data, null);
@@ -75,6 +79,16 @@ public class LoggableEvent implements TmcEvent {
         return data;
     }
 
+    /**
+     * A copy of this event, including its timestamps, carrying other data.
+     */
+    /*package*/ LoggableEvent withData(byte[] data) {
+        LoggableEvent copy = new LoggableEvent(courseName, exerciseName, eventType, data, metadata);
+        copy.happenedAt = happenedAt;
+        copy.systemNanotime = systemNanotime;
+        return copy;
+    }
+
     /**
      * Optional JSON metadata.
      */
@@ -84,26 +98,31 @@ public class LoggableEvent implements TmcEvent {
 
     public LoggableEvent addMetadata(String name, String value) {
         metadata.add(name, value);
+        estimatedSize = 0;
         return this;
     }
 
     public LoggableEvent addMetadata(String name, long value) {
         metadata.add(name, value);
+        estimatedSize = 0;
         return this;
     }
 
     public LoggableEvent addMetadata(String name, boolean value) {
         metadata.add(name, value);
+        estimatedSize = 0;
         return this;
     }
 
     public LoggableEvent addMetadata(String name, List<String> values) {
         metadata.add(name, values);
+        estimatedSize = 0;
         return this;
     }
 
     public LoggableEvent addMetadata(JsonMaker metadata) {
         this.metadata.merge(metadata);
+        estimatedSize = 0;
         return this;
     }
 
@@ -111,9 +130,38 @@ public class LoggableEvent implements TmcEvent {
      * {@code key = course name + "|" + exercise name + "|" + event type}.
      */
     public String getKey() {
+        String key = this.key;
+        if (key == null) {
+            // Events read back with Gson skip the constructor.
+            key = courseName + "|" + exerciseName + "|" + eventType;
+            this.key = key;
+        }
         return key;
     }
 
+    /**
+     * Roughly the number of bytes this event takes in an upload before
+     * compression, which bounds its compressed size.
+     */
+    public int getEstimatedSize() {
+        int size = estimatedSize;
+        if (size == 0) {
+            size = JSON_OVERHEAD + length(courseName) + length(exerciseName) + length(eventType);
+            if (data != null) {
+                size += (data.length + 2) / 3 * 4;
+            }
+            if (metadata != null) {
+                size += metadata.estimateLength();
+            }
+            estimatedSize = size;
+        }
+        return size;
+    }
+
+    private static int length(String value) {
+        return value != null ? value.length() : 0;
+    }
+
     public long getHappenedAt() {
         return happenedAt;
     }
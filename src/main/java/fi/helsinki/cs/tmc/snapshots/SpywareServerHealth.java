@@ -0,0 +1,84 @@
+package fi.helsinki.cs.tmc.snapshots;
+
+import fi.helsinki.cs.tmc.core.communication.http.RetryPolicy;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tracks which of the course's snapshot servers are failing.
+ *
+ * <p>A server that fails a send is avoided for a delay growing with its
+ * consecutive failures, and is used again once a send to it succeeds. When
+ * every server is being avoided, the one that becomes available first is
+ * still tried so that sending never stops for good.
+ */
+/*package*/ final class SpywareServerHealth {
+
+    private final RetryPolicy backoff;
+    private final Random random;
+
+    // The following variables must only be accessed while holding the lock on this.
+    private final Map<URI, Integer> failures = new HashMap<>();
+    private final Map<URI, Long> avoidUntil = new HashMap<>();
+
+    /*package*/ SpywareServerHealth(RetryPolicy backoff, Random random) {
+        this.backoff = backoff;
+        this.random = random;
+    }
+
+    /**
+     * Returns the servers to send to now in random order, or the one that
+     * becomes available first if all are being avoided.
+     */
+    /*package*/ synchronized List<URI> pickAvailable(List<URI> urls) {
+        long now = System.currentTimeMillis();
+        List<URI> available = new ArrayList<>();
+        URI soonest = null;
+        for (URI url : urls) {
+            long until = getAvoidUntil(url);
+            if (until <= now) {
+                available.add(url);
+            } else if (soonest == null || until < getAvoidUntil(soonest)) {
+                soonest = url;
+            }
+        }
+        if (available.isEmpty() && soonest != null) {
+            available.add(soonest);
+        }
+        Collections.shuffle(available, random);
+        return available;
+    }
+
+    /*package*/ synchronized boolean isAnyAvailable(List<URI> urls) {
+        long now = System.currentTimeMillis();
+        for (URI url : urls) {
+            if (getAvoidUntil(url) <= now) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*package*/ synchronized void onSuccess(URI url) {
+        failures.remove(url);
+        avoidUntil.remove(url);
+    }
+
+    /*package*/ synchronized void onFailure(URI url) {
+        Integer previous = failures.get(url);
+        int count = previous == null ? 1 : previous + 1;
+        failures.put(url, count);
+        avoidUntil.put(url, System.currentTimeMillis() + backoff.getDelay(count));
+    }
+
+    private long getAvoidUntil(URI url) {
+        Long until = avoidUntil.get(url);
+        return until == null ? 0 : until;
+    }
+}
@@ -0,0 +1,128 @@
+package fi.helsinki.cs.tmc.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+import fi.helsinki.cs.tmc.core.domain.Course;
+import fi.helsinki.cs.tmc.core.domain.ProgressObserver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class TmcCoreAsyncTest {
+
+    @Mock TmcCore core;
+    @Mock ProgressObserver observer;
+
+    private ExecutorService executor;
+    private TmcCoreAsync async;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        executor = Executors.newSingleThreadExecutor();
+        async = new TmcCoreAsync(core, executor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test(timeout = 10000)
+    public void completesWithTheResultOfTheCommand() throws Exception {
+        final List<Course> courses = new ArrayList<>();
+        when(core.listCourses(observer)).thenReturn(new Callable<List<Course>>() {
+            @Override
+            public List<Course> call() {
+                return courses;
+            }
+        });
+
+        assertSame(courses, async.listCourses(observer).get());
+    }
+
+    @Test(timeout = 10000)
+    public void completesExceptionallyWhenTheCommandFails() throws Exception {
+        final Exception failure = new Exception("failed");
+        when(core.listCourses(observer)).thenReturn(new Callable<List<Course>>() {
+            @Override
+            public List<Course> call() throws Exception {
+                throw failure;
+            }
+        });
+
+        CompletableFuture<List<Course>> result = async.listCourses(observer);
+
+        try {
+            result.get();
+            fail("Expected the command to fail");
+        } catch (ExecutionException ex) {
+            assertSame(failure, ex.getCause());
+        }
+        assertTrue(result.isCompletedExceptionally());
+    }
+
+    @Test(timeout = 10000)
+    public void cancellingInterruptsTheCommand() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        when(core.listCourses(observer)).thenReturn(new Callable<List<Course>>() {
+            @Override
+            public List<Course> call() {
+                started.countDown();
+                try {
+                    Thread.sleep(60 * 1000);
+                } catch (InterruptedException ex) {
+                    interrupted.countDown();
+                }
+                return null;
+            }
+        });
+
+        CompletableFuture<List<Course>> result = async.listCourses(observer);
+        started.await();
+        result.cancel(true);
+
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertTrue(result.isCancelled());
+    }
+
+    @Test(timeout = 10000)
+    public void runsCommandsOnTheGivenExecutor() throws Exception {
+        final Thread[] runner = new Thread[1];
+        when(core.listCourses(observer)).thenReturn(new Callable<List<Course>>() {
+            @Override
+            public List<Course> call() {
+                runner[0] = Thread.currentThread();
+                return null;
+            }
+        });
+
+        async.listCourses(observer).get();
+        Thread executorThread = executor.submit(new Callable<Thread>() {
+            @Override
+            public Thread call() {
+                return Thread.currentThread();
+            }
+        }).get();
+
+        assertEquals(executorThread, runner[0]);
+    }
+}
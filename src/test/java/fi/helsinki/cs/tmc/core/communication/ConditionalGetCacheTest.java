@@ -0,0 +1,239 @@
+package fi.helsinki.cs.tmc.core.communication;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import fi.helsinki.cs.tmc.core.communication.http.ResponseParser;
+import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
+import fi.helsinki.cs.tmc.core.utils.MockSettings;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.google.common.io.CharStreams;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ConditionalGetCacheTest {
+
+    @Rule public WireMockRule wireMockRule = new WireMockRule(0);
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private ConditionalGetCache<String> cache;
+    private AtomicInteger parseCount;
+    private ResponseParser<String> parser;
+
+    @Before
+    public void setUp() {
+        TmcSettingsHolder.set(new MockSettings());
+        wireMockRule.start();
+        cache = new ConditionalGetCache<>(10);
+        parseCount = new AtomicInteger();
+        parser = new ResponseParser<String>() {
+            @Override
+            public String parse(Reader body) throws IOException {
+                parseCount.incrementAndGet();
+                return CharStreams.toString(body);
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        wireMockRule.stop();
+    }
+
+    @Test
+    public void notModifiedResponseReusesCachedBody() throws Exception {
+        // The stub added last takes precedence when both match
+        wireMockRule.stubFor(get(urlEqualTo("/courses.json"))
+                .willReturn(aResponse().withHeader("ETag", "\"v1\"").withBody("courses")));
+        wireMockRule.stubFor(get(urlEqualTo("/courses.json"))
+                .withHeader("If-None-Match", equalTo("\"v1\""))
+                .willReturn(aResponse().withStatus(304)));
+
+        String first = cache.get(getAddressFor("/courses.json"), parser);
+        String second = cache.get(getAddressFor("/courses.json"), parser);
+
+        assertEquals("courses", first);
+        assertEquals("courses", second);
+        wireMockRule.verify(1, getRequestedFor(urlEqualTo("/courses.json"))
+                .withHeader("If-None-Match", equalTo("\"v1\"")));
+    }
+
+    @Test
+    public void responsesWithoutValidatorsAreNotCached() throws Exception {
+        wireMockRule.stubFor(get(urlEqualTo("/plain")).willReturn(aResponse().withBody("plain")));
+
+        cache.get(getAddressFor("/plain"), parser);
+        cache.get(getAddressFor("/plain"), parser);
+
+        assertEquals(2, parseCount.get());
+        wireMockRule.verify(2, getRequestedFor(urlEqualTo("/plain")));
+    }
+
+    @Test
+    public void freshResponsesAreNotRevalidated() throws Exception {
+        wireMockRule.stubFor(get(urlEqualTo("/orgs")).willReturn(aResponse().withBody("orgs")));
+        cache = new ConditionalGetCache<>(10, 60000, null);
+
+        cache.get(getAddressFor("/orgs"), parser);
+        cache.get(getAddressFor("/orgs"), parser);
+
+        wireMockRule.verify(1, getRequestedFor(urlEqualTo("/orgs")));
+    }
+
+    @Test
+    public void everyCallerGetsItsOwnValue() throws Exception {
+        wireMockRule.stubFor(get(urlEqualTo("/orgs")).willReturn(aResponse().withBody("orgs")));
+        cache = new ConditionalGetCache<>(10, 60000, null);
+
+        String first = cache.get(getAddressFor("/orgs"), parser);
+        String second = cache.get(getAddressFor("/orgs"), parser);
+
+        assertNotSame(first, second);
+        assertEquals(2, parseCount.get());
+    }
+
+    @Test
+    public void unparseableResponseIsNotCached() throws Exception {
+        wireMockRule.stubFor(get(urlEqualTo("/orgs")).willReturn(aResponse().withBody("orgs")));
+        cache = new ConditionalGetCache<>(10, 60000, null);
+        ResponseParser<String> failing = new ResponseParser<String>() {
+            @Override
+            public String parse(Reader body) {
+                throw new IllegalStateException("Malformed");
+            }
+        };
+
+        try {
+            cache.get(getAddressFor("/orgs"), failing);
+            fail("Expected the parse failure to be thrown");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+
+        assertEquals("orgs", cache.get(getAddressFor("/orgs"), parser));
+        wireMockRule.verify(2, getRequestedFor(urlEqualTo("/orgs")));
+    }
+
+    @Test
+    public void storedResponsesSurviveRestart() throws Exception {
+        useConfigRoot(folder.getRoot().toPath());
+        wireMockRule.stubFor(get(urlEqualTo("/orgs")).willReturn(aResponse().withBody("orgs")));
+        new ConditionalGetCache<String>(10, 60000, new ResponseStore(1024)).get(getAddressFor("/orgs"), parser);
+
+        ConditionalGetCache<String> restarted = new ConditionalGetCache<>(10, 60000, new ResponseStore(1024));
+
+        assertEquals("orgs", restarted.get(getAddressFor("/orgs"), parser));
+        wireMockRule.verify(1, getRequestedFor(urlEqualTo("/orgs")));
+    }
+
+    @Test
+    public void staleResponseIsUsedWhenServerIsUnreachable() throws Exception {
+        useConfigRoot(folder.getRoot().toPath());
+        wireMockRule.stubFor(get(urlEqualTo("/orgs"))
+                .willReturn(aResponse().withHeader("ETag", "\"v1\"").withBody("orgs")));
+        URI url = getAddressFor("/orgs");
+        cache = new ConditionalGetCache<>(10, 0, new ResponseStore(1024));
+        cache.get(url, parser);
+
+        wireMockRule.stop();
+
+        assertEquals("orgs", cache.get(url, parser));
+    }
+
+    @Test
+    public void storeEvictsLeastRecentlyUsedOverBudget() throws Exception {
+        useConfigRoot(folder.getRoot().toPath());
+        wireMockRule.stubFor(get(urlEqualTo("/a")).willReturn(aResponse().withBody("aaaaaaaa")));
+        wireMockRule.stubFor(get(urlEqualTo("/b")).willReturn(aResponse().withBody("bbbbbbbb")));
+        ResponseStore store = new ResponseStore(10);
+        cache = new ConditionalGetCache<>(10, 60000, store);
+
+        cache.get(getAddressFor("/a"), parser);
+        cache.get(getAddressFor("/b"), parser);
+
+        assertFalse(store.read(ResponseStore.keyFor(getAddressFor("/a"))).isPresent());
+        assertTrue(store.read(ResponseStore.keyFor(getAddressFor("/b"))).isPresent());
+    }
+
+    @Test
+    public void storeDeletesTemporaryFilesLeftByACrash() throws Exception {
+        Path root = folder.getRoot().toPath();
+        useConfigRoot(root);
+        Path temp = Files.createDirectories(root.resolve("http-cache")).resolve("abc.body123.tmp");
+        Files.write(temp, new byte[] {1, 2, 3});
+
+        new ResponseStore(1024).read(ResponseStore.keyFor(getAddressFor("/orgs")));
+
+        assertFalse(Files.exists(temp));
+    }
+
+    @Test
+    public void keyIgnoresAccessTokenAndClientVersion() {
+        URI url = getAddressFor("/courses.json?client=netbeans&client_version=1.0&access_token=first");
+        URI refreshed = getAddressFor("/courses.json?client=netbeans&client_version=1.1&access_token=second");
+        URI otherClient = getAddressFor("/courses.json?client=idea&client_version=1.0&access_token=first");
+
+        assertEquals(ResponseStore.keyFor(url, "student"), ResponseStore.keyFor(refreshed, "student"));
+        assertNotEquals(ResponseStore.keyFor(url, "student"), ResponseStore.keyFor(otherClient, "student"));
+        assertNotEquals(ResponseStore.keyFor(url, "student"), ResponseStore.keyFor(url, "teacher"));
+    }
+
+    @Test
+    public void responsesOfOtherUsersAreNotUsed() throws Exception {
+        wireMockRule.stubFor(get(urlEqualTo("/courses.json")).willReturn(aResponse().withBody("courses")));
+        cache = new ConditionalGetCache<>(10, 60000, null);
+
+        cache.get(getAddressFor("/courses.json"), "student", parser);
+        cache.get(getAddressFor("/courses.json"), "teacher", parser);
+
+        wireMockRule.verify(2, getRequestedFor(urlEqualTo("/courses.json")));
+    }
+
+    @Test
+    public void unreachableServerWithoutStoredResponseFails() throws Exception {
+        URI url = getAddressFor("/orgs");
+        wireMockRule.stop();
+        cache = new ConditionalGetCache<>(10, 0, new ResponseStore(1024));
+
+        try {
+            cache.get(url, parser);
+            fail("Expected the connection failure to be thrown");
+        } catch (IOException ex) {
+            // expected
+        }
+    }
+
+    private void useConfigRoot(final Path root) {
+        TmcSettingsHolder.set(new MockSettings() {
+            @Override
+            public Path getConfigRoot() {
+                return root;
+            }
+        });
+    }
+
+    private URI getAddressFor(String path) {
+        return URI.create("http://127.0.0.1:" + wireMockRule.port() + path);
+    }
+}
@@ -0,0 +1,96 @@
+package fi.helsinki.cs.tmc.core.communication;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SingleFlightTest {
+
+    private SingleFlight<Object> flights;
+    private AtomicInteger calls;
+
+    @Before
+    public void setUp() {
+        flights = new SingleFlight<>();
+        calls = new AtomicInteger();
+    }
+
+    @Test(timeout = 5000)
+    public void concurrentCallsShareOneResult() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<Object> task = new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                calls.incrementAndGet();
+                started.countDown();
+                release.await();
+                return new Object();
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Object> first = executor.submit(runWith("key", task));
+            started.await();
+            Future<Object> second = executor.submit(runWith("key", task));
+            // Give the second call time to join the first one
+            Thread.sleep(200);
+            release.countDown();
+
+            assertSame(first.get(), second.get());
+            assertEquals(1, calls.get());
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void finishedCallsAreNotRemembered() throws Exception {
+        Callable<Object> task = new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return calls.incrementAndGet();
+            }
+        };
+
+        assertEquals(1, flights.run("key", task));
+        assertEquals(2, flights.run("key", task));
+    }
+
+    @Test
+    public void exceptionsArePassedThrough() throws Exception {
+        try {
+            flights.run("key", new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    throw new IOException("failed");
+                }
+            });
+            fail("Expected IOException");
+        } catch (IOException ex) {
+            assertEquals("failed", ex.getMessage());
+        }
+    }
+
+    private Callable<Object> runWith(final String key, final Callable<Object> task) {
+        return new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return flights.run(key, task);
+            }
+        };
+    }
+}
@@ -0,0 +1,115 @@
+package fi.helsinki.cs.tmc.core.communication.http;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
+import fi.helsinki.cs.tmc.core.utils.MockSettings;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.google.common.base.Optional;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class BandwidthLimiterTest {
+
+    @Rule public WireMockRule wireMockRule = new WireMockRule(0);
+
+    private static final int LIMIT = 20 * 1024;
+    private static final Map<String, String> NO_HEADERS = Collections.emptyMap();
+
+    @Before
+    public void setUp() {
+        TmcSettingsHolder.set(new MockSettings() {
+            @Override
+            public Optional<Integer> getBackgroundUploadLimit() {
+                return Optional.of(LIMIT);
+            }
+        });
+        CircuitBreaker.resetAll();
+        wireMockRule.start();
+        wireMockRule.stubFor(post(urlEqualTo("/upload")).willReturn(aResponse().withBody("ok")));
+    }
+
+    @After
+    public void tearDown() {
+        wireMockRule.stop();
+    }
+
+    @Test
+    public void backgroundUploadsAreThrottled() throws Exception {
+        long start = System.currentTimeMillis();
+
+        HttpTasks.rawPostForTextInBackground(getAddressFor("/upload"), new byte[3 * LIMIT], NO_HEADERS).call();
+
+        // At most one second's worth may go out as a burst
+        assertTrue(System.currentTimeMillis() - start >= 1500);
+    }
+
+    @Test
+    public void foregroundUploadsAreNotThrottled() throws Exception {
+        long start = System.currentTimeMillis();
+
+        HttpTasks.rawPostForText(getAddressFor("/upload"), new byte[3 * LIMIT], NO_HEADERS).call();
+
+        assertTrue(System.currentTimeMillis() - start < 1500);
+    }
+
+    @Test
+    public void backgroundWaitsForForegroundRequests() throws Exception {
+        final CountDownLatch acquired = new CountDownLatch(1);
+        BandwidthLimiter.foregroundStarted();
+        Thread background = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    BandwidthLimiter.acquire(1, 0, BandwidthLimiter.MAX_YIELD);
+                    acquired.countDown();
+                } catch (InterruptedException ex) {
+                    // The test fails on the latch
+                }
+            }
+        };
+        try {
+            background.start();
+            assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        } finally {
+            BandwidthLimiter.foregroundFinished();
+        }
+
+        assertTrue(acquired.await(1, TimeUnit.SECONDS));
+        background.join();
+    }
+
+    @Test
+    public void yieldingStopsWhenItsBudgetIsUsed() throws Exception {
+        BandwidthLimiter.foregroundStarted();
+        try {
+            long yielded = BandwidthLimiter.acquire(1, 0, 100);
+            assertTrue(yielded >= 100);
+
+            long start = System.currentTimeMillis();
+            assertEquals(0, BandwidthLimiter.acquire(1, 0, 0));
+            assertTrue(System.currentTimeMillis() - start < 100);
+        } finally {
+            BandwidthLimiter.foregroundFinished();
+        }
+    }
+
+    private URI getAddressFor(String path) {
+        return URI.create("http://127.0.0.1:" + wireMockRule.port() + path);
+    }
+}
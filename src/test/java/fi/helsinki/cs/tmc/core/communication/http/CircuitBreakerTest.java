@@ -0,0 +1,77 @@
+package fi.helsinki.cs.tmc.core.communication.http;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import fi.helsinki.cs.tmc.core.exceptions.ServerUnavailableException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+
+public class CircuitBreakerTest {
+
+    private CircuitBreaker breaker;
+
+    @Before
+    public void setUp() {
+        CircuitBreaker.resetAll();
+        breaker = CircuitBreaker.forHost(URI.create("http://tmc.example.com/api"));
+    }
+
+    @Test
+    public void breakerIsSharedPerHost() {
+        assertSame(breaker, CircuitBreaker.forHost(URI.create("http://tmc.example.com/other")));
+    }
+
+    @Test
+    public void staysClosedBelowThreshold() throws Exception {
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD - 1; i++) {
+            breaker.beforeRequest();
+            breaker.onNoResponse(false);
+        }
+
+        breaker.beforeRequest();
+    }
+
+    @Test
+    public void opensAfterConsecutiveFailures() throws Exception {
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            breaker.beforeRequest();
+            breaker.onResponse(500);
+        }
+
+        try {
+            breaker.beforeRequest();
+            fail("Expected ServerUnavailableException");
+        } catch (ServerUnavailableException ex) {
+            assertTrue(ex.getMessage().contains("not responding"));
+        }
+    }
+
+    @Test
+    public void successResetsFailures() throws Exception {
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD - 1; i++) {
+            breaker.beforeRequest();
+            breaker.onNoResponse(false);
+        }
+        breaker.beforeRequest();
+        breaker.onResponse(404);
+        breaker.beforeRequest();
+        breaker.onNoResponse(false);
+
+        breaker.beforeRequest();
+    }
+
+    @Test
+    public void cancelledRequestsAreNotFailures() throws Exception {
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD * 2; i++) {
+            breaker.beforeRequest();
+            breaker.onNoResponse(true);
+        }
+
+        breaker.beforeRequest();
+    }
+}
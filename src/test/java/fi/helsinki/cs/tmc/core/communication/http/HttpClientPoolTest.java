@@ -0,0 +1,120 @@
+package fi.helsinki.cs.tmc.core.communication.http;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import fi.helsinki.cs.tmc.core.configuration.TmcSettings;
+import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
+import fi.helsinki.cs.tmc.core.utils.MockSettings;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class HttpClientPoolTest {
+
+    @Rule public WireMockRule wireMockRule = new WireMockRule(0);
+
+    @Before
+    public void setUp() {
+        TmcSettings settings = new MockSettings();
+        TmcSettingsHolder.set(settings);
+        HttpClientPool.shutdown();
+        wireMockRule.start();
+    }
+
+    @After
+    public void tearDown() {
+        wireMockRule.stop();
+        HttpClientPool.setMaxConnections(HttpClientPool.DEFAULT_MAX_CONNECTIONS);
+        HttpClientPool.setMaxConnectionsPerRoute(HttpClientPool.DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+        HttpClientPool.setIdleTimeout(HttpClientPool.DEFAULT_IDLE_TIMEOUT);
+        HttpClientPool.setKeepAlive(HttpClientPool.DEFAULT_KEEP_ALIVE);
+        HttpClientPool.shutdown();
+    }
+
+    @Test
+    public void clientIsSharedBetweenCalls() {
+        CloseableHttpClient first = HttpClientPool.getClient();
+        CloseableHttpClient second = HttpClientPool.getClient();
+
+        assertSame(first, second);
+    }
+
+    @Test
+    public void reconfiguringKeepsClient() {
+        CloseableHttpClient first = HttpClientPool.getClient();
+        HttpClientPool.setMaxConnections(3);
+        HttpClientPool.setMaxConnectionsPerRoute(2);
+        HttpClientPool.setIdleTimeout(1000);
+        HttpClientPool.setKeepAlive(1000);
+
+        assertSame(first, HttpClientPool.getClient());
+    }
+
+    @Test
+    public void shutdownRebuildsClient() {
+        CloseableHttpClient first = HttpClientPool.getClient();
+        HttpClientPool.shutdown();
+
+        assertNotSame(first, HttpClientPool.getClient());
+    }
+
+    @Test
+    public void reconfiguringDoesNotAbortRequestsInFlight() throws Exception {
+        wireMockRule.stubFor(
+                get(urlEqualTo("/slow"))
+                        .willReturn(aResponse().withBody("slow").withFixedDelay(500)));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> body =
+                    executor.submit(
+                            new Callable<String>() {
+                                @Override
+                                public String call() throws Exception {
+                                    return EntityUtils.toString(
+                                            new HttpRequestExecutor(getAddressFor("/slow")).call());
+                                }
+                            });
+            Thread.sleep(100);
+            HttpClientPool.setMaxConnections(3);
+            HttpClientPool.setIdleTimeout(1000);
+
+            assertEquals("slow", body.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void consecutiveRequestsSucceedWithPooledConnections() throws Exception {
+        wireMockRule.stubFor(get(urlEqualTo("/")).willReturn(aResponse().withBody("pooled")));
+
+        for (int i = 0; i < 10; i++) {
+            String body = EntityUtils.toString(new HttpRequestExecutor(getAddressFor("/")).call());
+            assertEquals("pooled", body);
+        }
+    }
+
+    private URI getAddressFor(String path) {
+        return URI.create("http://127.0.0.1:" + wireMockRule.port() + path);
+    }
+}
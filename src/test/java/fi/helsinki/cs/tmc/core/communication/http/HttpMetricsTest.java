@@ -0,0 +1,110 @@
+package fi.helsinki.cs.tmc.core.communication.http;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import fi.helsinki.cs.tmc.core.exceptions.FailedHttpResponseException;
+import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
+import fi.helsinki.cs.tmc.core.utils.MockSettings;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.net.URI;
+
+public class HttpMetricsTest {
+
+    @Rule public WireMockRule wireMockRule = new WireMockRule(0);
+
+    private HttpMetricsCollector collector;
+
+    @Before
+    public void setUp() {
+        TmcSettingsHolder.set(new MockSettings());
+        CircuitBreaker.resetAll();
+        wireMockRule.start();
+        collector = new HttpMetricsCollector();
+        HttpClientPool.setMetrics(collector);
+    }
+
+    @After
+    public void tearDown() {
+        HttpClientPool.setMetrics(HttpMetrics.NONE);
+        wireMockRule.stop();
+    }
+
+    @Test
+    public void endpointsGroupNumericPathSegments() {
+        assertEquals("GET example.com/api/v8/courses/{id}/exercises", RequestMetrics.endpointOf(
+                "GET", URI.create("https://example.com/api/v8/courses/17/exercises?access_token=x")));
+        assertEquals("GET example.com/exercises/{id}.zip", RequestMetrics.endpointOf(
+                "GET", URI.create("https://example.com/exercises/284.zip")));
+    }
+
+    @Test
+    public void endpointsGroupOrganizationSlugs() {
+        assertEquals("GET example.com/api/v8/core/org/{slug}/courses.json", RequestMetrics.endpointOf(
+                "GET", URI.create("https://example.com/api/v8/core/org/mooc-2017/courses.json")));
+        assertEquals("GET example.com/api/v8/org/{slug}.json", RequestMetrics.endpointOf(
+                "GET", URI.create("https://example.com/api/v8/org/hy.json")));
+        assertEquals("GET example.com/api/v8/org.json", RequestMetrics.endpointOf(
+                "GET", URI.create("https://example.com/api/v8/org.json")));
+    }
+
+    @Test
+    public void collectorCountsEndpointsOverTheLimitTogether() {
+        for (int i = 0; i < HttpMetricsCollector.MAX_ENDPOINTS + 5; i++) {
+            collector.record(new RequestMetrics("GET", URI.create("https://example.com/page-" + i), 200, 0, 1,
+                    new TransferStats(), false));
+        }
+
+        assertEquals(HttpMetricsCollector.MAX_ENDPOINTS + 1, collector.getEndpoints().size());
+        assertEquals(5, collector.getEndpoints().get(HttpMetricsCollector.OTHER_ENDPOINT).getAttempts());
+    }
+
+    @Test
+    public void recordsStatusCodesBytesAndConnectionReuse() throws Exception {
+        wireMockRule.stubFor(get(urlEqualTo("/courses/1")).willReturn(aResponse().withBody("course one")));
+        wireMockRule.stubFor(get(urlEqualTo("/courses/2")).willReturn(aResponse().withBody("course two")));
+
+        HttpTasks.getForText(getAddressFor("/courses/1")).call();
+        HttpTasks.getForText(getAddressFor("/courses/2")).call();
+
+        HttpMetricsCollector.EndpointMetrics metrics = collector.getEndpoints().get("GET 127.0.0.1/courses/{id}");
+        assertEquals(2, metrics.getAttempts());
+        assertEquals(0, metrics.getFailures());
+        assertEquals(Long.valueOf(2), metrics.getStatusCodes().get(200));
+        assertEquals(20, metrics.getBytesReceived());
+        assertEquals(0.5, metrics.getConnectionReuseRatio(), 0.0);
+    }
+
+    @Test
+    public void recordsRetries() throws Exception {
+        wireMockRule.stubFor(get(urlEqualTo("/busy")).willReturn(aResponse().withStatus(503).withBody("busy")));
+
+        try {
+            HttpTasks.getForText(getAddressFor("/busy")).call();
+            fail("Expected a failed response");
+        } catch (FailedHttpResponseException expected) {
+            // Every attempt is answered with 503
+        }
+
+        int attempts = RetryPolicy.DEFAULT_IDEMPOTENT.getMaxAttempts();
+        HttpMetricsCollector.EndpointMetrics metrics = collector.getEndpoints().get("GET 127.0.0.1/busy");
+        assertEquals(attempts, metrics.getAttempts());
+        assertEquals(attempts, metrics.getFailures());
+        assertEquals(attempts - 1, metrics.getRetries());
+        assertEquals(Long.valueOf(attempts), metrics.getStatusCodes().get(503));
+    }
+
+    private URI getAddressFor(String path) {
+        return URI.create("http://127.0.0.1:" + wireMockRule.port() + path);
+    }
+}
@@ -2,19 +2,31 @@ package fi.helsinki.cs.tmc.core.communication.http;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
 import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
 import static com.github.tomakehurst.wiremock.client.WireMock.matching;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
 import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import fi.helsinki.cs.tmc.core.configuration.TmcSettings;
+import fi.helsinki.cs.tmc.core.exceptions.FailedHttpResponseException;
+import fi.helsinki.cs.tmc.core.exceptions.ServerUnavailableException;
 import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
 import fi.helsinki.cs.tmc.core.utils.MockSettings;
 
 import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.http.Fault;
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.google.common.base.Strings;
+import com.google.common.io.CharStreams;
 
 import org.apache.commons.codec.binary.Base64;
+import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.BufferedHttpEntity;
 import org.apache.http.util.EntityUtils;
 
@@ -26,8 +38,20 @@ import org.junit.Test;
 import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
 import java.net.URI;
+import java.nio.channels.Channels;
 import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
 
 public class HttpRequestExecutorTest {
 
@@ -39,6 +63,7 @@ public class HttpRequestExecutorTest {
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
         TmcSettingsHolder.set(settings);
+        CircuitBreaker.resetAll();
 //        TODO uncomment this after removing migration from TmcSettingsHolder
 //        verifyNoMoreInteractions(settings);
         wireMockRule.start();
@@ -59,6 +84,168 @@ public class HttpRequestExecutorTest {
         assertArrayEquals(new byte[] {1, 2, 3}, EntityUtils.toByteArray(result));
     }
 
+    @Test
+    public void testStreamingIntoChannel() throws Exception {
+        byte[] body = new byte[1024 * 1024];
+        new Random(0).nextBytes(body);
+        wireMockRule.stubFor(get(urlEqualTo("/large")).willReturn(aResponse().withBody(body)));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long written = new HttpRequestExecutor(getAddressFor("/large")).writeTo(Channels.newChannel(out));
+
+        assertEquals(body.length, written);
+        assertArrayEquals(body, out.toByteArray());
+    }
+
+    @Test
+    public void testDecodingGzippedResponse() throws Exception {
+        byte[] body = Strings.repeat("{\"name\":\"exercise\"}", 1000).getBytes("UTF-8");
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(body);
+        }
+        wireMockRule.stubFor(get(urlEqualTo("/course.json"))
+                .willReturn(aResponse().withHeader("Content-Encoding", "gzip").withBody(compressed.toByteArray())));
+
+        HttpRequestExecutor executor = new HttpRequestExecutor(getAddressFor("/course.json"));
+        BufferedHttpEntity result = executor.call();
+
+        assertArrayEquals(body, EntityUtils.toByteArray(result));
+        assertEquals(compressed.size(), executor.getTransferStats().getResponseBytes());
+        assertEquals(body.length, executor.getTransferStats().getContentBytes());
+    }
+
+    @Test(expected = FailedHttpResponseException.class)
+    public void testStreamingFailsOnErrorResponse() throws Exception {
+        wireMockRule.stubFor(get(urlEqualTo("/missing")).willReturn(aResponse().withStatus(404)));
+
+        new HttpRequestExecutor(getAddressFor("/missing"))
+                .writeTo(Channels.newChannel(new ByteArrayOutputStream()));
+    }
+
+    @Test
+    public void testParsingWhileReadingInDeclaredCharset() throws Exception {
+        byte[] body = "{\"name\":\"äö\"}".getBytes("ISO-8859-1");
+        wireMockRule.stubFor(get(urlEqualTo("/course.json")).willReturn(aResponse()
+                .withHeader("Content-Type", "application/json; charset=ISO-8859-1").withBody(body)));
+
+        HttpRequestExecutor executor = new HttpRequestExecutor(getAddressFor("/course.json"));
+        String result = executor.parse(new ResponseParser<String>() {
+            @Override
+            public String parse(Reader body) throws IOException {
+                return CharStreams.toString(body);
+            }
+        });
+
+        assertEquals("{\"name\":\"äö\"}", result);
+        assertEquals(body.length, executor.getTransferStats().getContentBytes());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testParserFailureIsNotRetried() throws Exception {
+        wireMockRule.stubFor(get(urlEqualTo("/broken.json")).willReturn(aResponse().withBody("{")));
+
+        try {
+            new HttpRequestExecutor(getAddressFor("/broken.json")).parse(new ResponseParser<String>() {
+                @Override
+                public String parse(Reader body) {
+                    throw new IllegalStateException("Unparseable");
+                }
+            });
+        } finally {
+            wireMockRule.verify(1, getRequestedFor(urlEqualTo("/broken.json")));
+        }
+    }
+
+    @Test(expected = InterruptedException.class)
+    public void testCancelBeforeCallAbortsRequest() throws Exception {
+        wireMockRule.stubFor(get(urlEqualTo("/")).willReturn(aResponse().withBody("body")));
+
+        HttpRequestExecutor executor = new HttpRequestExecutor(getAddressFor("/"));
+        executor.cancel();
+        executor.call();
+    }
+
+    @Test
+    public void testInterruptingCallerAbortsSlowRequest() throws Exception {
+        wireMockRule.stubFor(
+                get(urlEqualTo("/slow")).willReturn(aResponse().withFixedDelay(8000).withBody("late")));
+
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        final HttpRequestExecutor executor = new HttpRequestExecutor(getAddressFor("/slow")).setTimeout(10000);
+        final CountDownLatch finished = new CountDownLatch(1);
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        Future<?> future = pool.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    executor.call();
+                } catch (Exception ex) {
+                    failure.set(ex);
+                }
+                finished.countDown();
+            }
+        });
+
+        Thread.sleep(500);
+        future.cancel(true);
+
+        assertTrue(finished.await(3, TimeUnit.SECONDS));
+        assertTrue(failure.get() instanceof InterruptedException);
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testRetriesIdempotentRequestWhileServiceUnavailable() throws Exception {
+        wireMockRule.stubFor(get(urlEqualTo("/busy")).willReturn(aResponse().withStatus(503).withBody("busy")));
+
+        try {
+            new HttpRequestExecutor(getAddressFor("/busy")).call();
+            fail("Expected FailedHttpResponseException");
+        } catch (FailedHttpResponseException ex) {
+            assertEquals(503, ex.getStatusCode());
+        }
+
+        wireMockRule.verify(RetryPolicy.DEFAULT_IDEMPOTENT.getMaxAttempts(),
+                getRequestedFor(urlEqualTo("/busy")));
+    }
+
+    @Test
+    public void testDoesNotRetryPost() throws Exception {
+        wireMockRule.stubFor(post(urlEqualTo("/busy")).willReturn(aResponse().withStatus(503).withBody("busy")));
+
+        try {
+            new HttpRequestExecutor(new HttpPost(getAddressFor("/busy"))).call();
+            fail("Expected FailedHttpResponseException");
+        } catch (FailedHttpResponseException ex) {
+            assertEquals(503, ex.getStatusCode());
+        }
+
+        wireMockRule.verify(1, postRequestedFor(urlEqualTo("/busy")));
+    }
+
+    @Test
+    public void testBodyBreakingOffCountsAsFailure() throws Exception {
+        wireMockRule.stubFor(post(urlEqualTo("/broken"))
+                .willReturn(aResponse().withFault(Fault.MALFORMED_RESPONSE_CHUNK)));
+
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            try {
+                new HttpRequestExecutor(new HttpPost(getAddressFor("/broken"))).call();
+                fail("Expected the broken body to fail");
+            } catch (IOException ex) {
+                assertFalse(ex instanceof ServerUnavailableException);
+            }
+        }
+
+        try {
+            new HttpRequestExecutor(new HttpPost(getAddressFor("/broken"))).call();
+            fail("Expected ServerUnavailableException");
+        } catch (ServerUnavailableException ex) {
+            // expected
+        }
+    }
+
     @Test
     public void testFollowingRedirectsAutomatically() throws Exception {
 
@@ -0,0 +1,75 @@
+package fi.helsinki.cs.tmc.core.communication.http;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static org.junit.Assert.assertEquals;
+
+import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
+import fi.helsinki.cs.tmc.core.utils.MockSettings;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.google.common.base.Strings;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.HashMap;
+
+public class RequestCompressionTest {
+
+    @Rule public WireMockRule wireMockRule = new WireMockRule(0);
+
+    private HashMap<String, String> largeJson;
+
+    @Before
+    public void setUp() {
+        TmcSettingsHolder.set(new MockSettings());
+        RequestCompression.reset();
+        RequestCompression.setEnabled(true);
+        wireMockRule.start();
+        largeJson = new HashMap<>();
+        largeJson.put("data", Strings.repeat("compressible ", 1000));
+    }
+
+    @After
+    public void tearDown() {
+        RequestCompression.setEnabled(false);
+        wireMockRule.stop();
+    }
+
+    @Test
+    public void largeBodiesAreCompressed() throws Exception {
+        wireMockRule.stubFor(post(urlEqualTo("/json")).willReturn(aResponse().withBody("ok")));
+
+        assertEquals("ok", HttpTasks.postJson(getAddressFor("/json"), largeJson).call());
+
+        wireMockRule.verify(1, postRequestedFor(urlEqualTo("/json"))
+                .withHeader("Content-Encoding", equalTo("gzip")));
+    }
+
+    @Test
+    public void rejectedCompressionFallsBackToPlainBodies() throws Exception {
+        // The stub added last takes precedence when both match
+        wireMockRule.stubFor(post(urlEqualTo("/json")).willReturn(aResponse().withBody("ok")));
+        wireMockRule.stubFor(post(urlEqualTo("/json"))
+                .withHeader("Content-Encoding", equalTo("gzip"))
+                .willReturn(aResponse().withStatus(415).withBody("no gzip")));
+
+        assertEquals("ok", HttpTasks.postJson(getAddressFor("/json"), largeJson).call());
+        assertEquals("ok", HttpTasks.postJson(getAddressFor("/json"), largeJson).call());
+
+        wireMockRule.verify(1, postRequestedFor(urlEqualTo("/json"))
+                .withHeader("Content-Encoding", equalTo("gzip")));
+        wireMockRule.verify(3, postRequestedFor(urlEqualTo("/json")));
+    }
+
+    private URI getAddressFor(String path) {
+        return URI.create("http://127.0.0.1:" + wireMockRule.port() + path);
+    }
+}
@@ -0,0 +1,110 @@
+package fi.helsinki.cs.tmc.core.communication.http;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
+import fi.helsinki.cs.tmc.core.utils.MockSettings;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+
+public class ResumableDownloadTest {
+
+    @Rule public WireMockRule wireMockRule = new WireMockRule(0);
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private byte[] body;
+    private Path target;
+
+    @Before
+    public void setUp() {
+        TmcSettingsHolder.set(new MockSettings());
+        CircuitBreaker.resetAll();
+        wireMockRule.start();
+        body = new byte[100 * 1024];
+        new Random(0).nextBytes(body);
+        target = folder.getRoot().toPath().resolve("exercise.zip");
+    }
+
+    @After
+    public void tearDown() {
+        wireMockRule.stop();
+    }
+
+    @Test
+    public void downloadsWholeFile() throws Exception {
+        wireMockRule.stubFor(get(urlEqualTo("/exercise.zip"))
+                .willReturn(aResponse().withHeader("ETag", "\"v1\"").withBody(body)));
+
+        HttpTasks.getForFileResumable(getAddressFor("/exercise.zip"), target, "checksum").call();
+
+        assertArrayEquals(body, Files.readAllBytes(target));
+        assertFalse(Files.exists(target.resolveSibling("exercise.zip.part")));
+        assertFalse(Files.exists(target.resolveSibling("exercise.zip.part.meta")));
+    }
+
+    @Test
+    public void resumesPartialDownload() throws Exception {
+        int half = body.length / 2;
+        writePartial(half, "checksum");
+        wireMockRule.stubFor(get(urlEqualTo("/exercise.zip"))
+                .withHeader("Range", equalTo("bytes=" + half + "-"))
+                .withHeader("If-Range", equalTo("\"v1\""))
+                .willReturn(aResponse()
+                        .withStatus(206)
+                        .withHeader("ETag", "\"v1\"")
+                        .withHeader("Content-Range", "bytes " + half + "-" + (body.length - 1) + "/" + body.length)
+                        .withBody(Arrays.copyOfRange(body, half, body.length))));
+
+        HttpTasks.getForFileResumable(getAddressFor("/exercise.zip"), target, "checksum").call();
+
+        assertArrayEquals(body, Files.readAllBytes(target));
+    }
+
+    @Test
+    public void partialDownloadOfAnotherVersionIsDiscarded() throws Exception {
+        writePartial(body.length / 2, "old checksum");
+        wireMockRule.stubFor(get(urlEqualTo("/exercise.zip"))
+                .willReturn(aResponse().withHeader("ETag", "\"v2\"").withBody(body)));
+
+        HttpTasks.getForFileResumable(getAddressFor("/exercise.zip"), target, "checksum").call();
+
+        assertArrayEquals(body, Files.readAllBytes(target));
+        wireMockRule.verify(0, getRequestedFor(urlEqualTo("/exercise.zip")).withHeader("Range", equalTo(
+                "bytes=" + body.length / 2 + "-")));
+    }
+
+    private void writePartial(int length, String version) throws Exception {
+        Files.write(target.resolveSibling("exercise.zip.part"), Arrays.copyOf(body, length));
+        Properties state = new Properties();
+        state.setProperty("version", version);
+        state.setProperty("validator", "\"v1\"");
+        state.setProperty("length", Integer.toString(body.length));
+        try (OutputStream out = Files.newOutputStream(target.resolveSibling("exercise.zip.part.meta"))) {
+            state.store(out, null);
+        }
+    }
+
+    private URI getAddressFor(String path) {
+        return URI.create("http://127.0.0.1:" + wireMockRule.port() + path);
+    }
+}
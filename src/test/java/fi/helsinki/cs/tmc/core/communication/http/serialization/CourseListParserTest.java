@@ -0,0 +1,69 @@
+package fi.helsinki.cs.tmc.core.communication.http.serialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import fi.helsinki.cs.tmc.core.communication.serialization.CourseListParser;
+import fi.helsinki.cs.tmc.core.communication.serialization.DomainGson;
+import fi.helsinki.cs.tmc.core.domain.Course;
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.core.utils.TestUtils;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+public class CourseListParserTest {
+
+    private final Gson reflective = new Gson();
+    private JsonObject courseJson;
+    private String courseListJson;
+
+    @Before
+    public void setUp() throws Exception {
+        courseJson = new JsonParser().parse(TestUtils.readJsonFile(getClass(), "course.json"))
+                .getAsJsonObject().getAsJsonObject("course");
+        JsonArray courses = new JsonArray();
+        courses.add(courseJson);
+        courseListJson = courses.toString();
+    }
+
+    @Test
+    public void exercisesAreBoundLikeEagerlyParsedOnes() {
+        Course expected = DomainGson.get().fromJson(courseJson, Course.class);
+        for (Exercise exercise : expected.getExercises()) {
+            exercise.setCourseName(expected.getName());
+        }
+
+        Course course = new CourseListParser().parseFromJson(courseListJson).get(0);
+
+        assertFalse(course.isExercisesLoaded());
+        assertEquals(reflective.toJson(expected.getExercises()), reflective.toJson(course.getExercises()));
+    }
+
+    @Test
+    public void exercisesAreBoundOnlyOnce() {
+        Course course = new CourseListParser().parseFromJson(courseListJson).get(0);
+
+        List<Exercise> exercises = course.getExercises();
+
+        assertEquals(courseJson.getAsJsonArray("exercises").size(), exercises.size());
+        exercises.get(0).setName("renamed");
+        assertEquals("renamed", course.getExercises().get(0).getName());
+    }
+
+    @Test
+    public void serializesLazyExercises() {
+        Course course = new CourseListParser().parseFromJson(courseListJson).get(0);
+
+        JsonObject written = new JsonParser().parse(reflective.toJson(course)).getAsJsonObject();
+
+        assertEquals(courseJson.getAsJsonArray("exercises").size(), written.getAsJsonArray("exercises").size());
+    }
+}
@@ -0,0 +1,66 @@
+package fi.helsinki.cs.tmc.core.communication.http.serialization;
+
+import static org.junit.Assert.assertEquals;
+
+import fi.helsinki.cs.tmc.core.communication.serialization.DomainGson;
+import fi.helsinki.cs.tmc.core.domain.Course;
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.core.utils.TestUtils;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+public class DomainGsonTest {
+
+    // Binds by reflection, which the adapters must agree with
+    private final Gson reflective = new Gson();
+
+    @Test
+    public void readsCoursesLikeReflectiveBinding() throws Exception {
+        for (String file : new String[] {"course.json", "nodeadlinecourse.json", "expiredCourse.json"}) {
+            JsonObject course = courseIn(file);
+
+            assertEquals(file,
+                    reflective.toJson(reflective.fromJson(course, Course.class)),
+                    reflective.toJson(DomainGson.get().fromJson(course, Course.class)));
+        }
+    }
+
+    @Test
+    public void readsCourseListsLikeReflectiveBinding() throws Exception {
+        JsonObject courses = new JsonParser().parse(TestUtils.readJsonFile(getClass(), "courses.json"))
+                .getAsJsonObject();
+
+        assertEquals(
+                reflective.toJson(reflective.fromJson(courses.get("courses"), Course[].class)),
+                reflective.toJson(DomainGson.get().fromJson(courses.get("courses"), Course[].class)));
+    }
+
+    @Test
+    public void writesCoursesLikeReflectiveBinding() throws Exception {
+        Course course = DomainGson.get().fromJson(courseIn("course.json"), Course.class);
+        course.getExercises().get(0).setCourseName(course.getName());
+        course.getExercises().get(0).setValgrindStrategy(Exercise.ValgrindStrategy.NONE);
+
+        assertEquals(
+                new JsonParser().parse(reflective.toJson(course)),
+                new JsonParser().parse(DomainGson.get().toJson(course)));
+    }
+
+    @Test
+    public void missingAndNullFieldsKeepDefaults() {
+        String json = "{\"id\": 1, \"name\": \"exercise\", \"returnable\": null, \"runtime_params\": null}";
+
+        assertEquals(
+                reflective.toJson(reflective.fromJson(json, Exercise.class)),
+                reflective.toJson(DomainGson.get().fromJson(json, Exercise.class)));
+    }
+
+    private JsonObject courseIn(String file) throws Exception {
+        return new JsonParser().parse(TestUtils.readJsonFile(getClass(), file))
+                .getAsJsonObject().getAsJsonObject("course");
+    }
+}
@@ -1,6 +1,7 @@
 package fi.helsinki.cs.tmc.core.communication.http.serialization;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
 
 import fi.helsinki.cs.tmc.core.communication.serialization.SubmissionResultParser;
 import fi.helsinki.cs.tmc.core.domain.submission.SubmissionResult;
@@ -78,4 +79,42 @@ public class SubmissionResultParserTest {
             assertThat(error.getSourceName()).isNotNull();
         }
     }
+
+    @Test
+    public void parsesFieldsAroundTheDeferredOnes() {
+        SubmissionResult result = parser.parseFromJson(
+                "{\"status\": \"fail\", \"test_cases\": [], \"valgrind\": \"leak\","
+                        + " \"validations\": null, \"points\": [\"1.1\"]}");
+        assertThat(result.getStatus()).isEqualTo(SubmissionResult.Status.FAIL);
+        assertThat(result.getValgrind()).isEqualTo("leak");
+        assertThat(result.getPoints()).containsExactly("1.1");
+        assertThat(result.getTestCases()).isEmpty();
+    }
+
+    @Test
+    public void reportsBrokenTestCasesLikeOtherParseFailures() {
+        SubmissionResult result = parser.parseFromJson("{\"status\": \"fail\", \"test_cases\": [1]}");
+        try {
+            result.getTestCases().size();
+            fail("Expected the test cases to fail to bind");
+        } catch (RuntimeException ex) {
+            assertThat(ex.getMessage()).startsWith("Failed to parse submission result");
+        }
+    }
+
+    @Test
+    public void parsesOnlyStatusWhilePolling() throws Exception {
+        String json = TestUtils.readJsonFile(this.getClass(), "mooc_failed_hello_world.json");
+        SubmissionResult status = parser.parseStatusFromJson(json);
+        assertThat(status.getStatus()).isEqualTo(parser.parseFromJson(json).getStatus());
+        assertThat(status.getTestCases()).isEmpty();
+    }
+
+    @Test
+    public void parsesSandboxStatus() {
+        SubmissionResult status = parser.parseStatusFromJson(
+                "{\"test_cases\": [], \"status\": \"processing\", \"sandbox_status\": \"sending_to_sandbox\"}");
+        assertThat(status.getStatus()).isEqualTo(SubmissionResult.Status.PROCESSING);
+        assertThat(status.getSandboxStatus()).isEqualTo(SubmissionResult.SandboxStatus.SENDING_TO_SANDBOX);
+    }
 }
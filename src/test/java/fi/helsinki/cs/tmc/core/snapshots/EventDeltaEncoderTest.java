@@ -0,0 +1,204 @@
+package fi.helsinki.cs.tmc.core.snapshots;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import fi.helsinki.cs.tmc.snapshots.EventDeltaEncoder;
+import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import name.fraser.neil.plaintext.DiffMatchPatch;
+import name.fraser.neil.plaintext.DiffMatchPatch.Patch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+public class EventDeltaEncoderTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private EventDeltaEncoder encoder;
+    private long clock;
+
+    @Before
+    public void setUp() {
+        encoder = new EventDeltaEncoder(3);
+        clock = 1000000;
+    }
+
+    // Events happen a millisecond apart unless the test says otherwise.
+    private LoggableEvent mkEvent(String exerciseName, String data) {
+        LoggableEvent event = new LoggableEvent("course1", exerciseName, "ty1", data.getBytes(UTF8));
+        event.setHappenedAt(clock++);
+        return event;
+    }
+
+    private static LoggableEvent roundTrip(LoggableEvent event) {
+        Gson gson = new Gson();
+        return gson.fromJson(gson.toJson(event), LoggableEvent.class);
+    }
+
+    private static String source(int lines) {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            source.append("        System.out.println(\"rivi ").append(i).append("\");\n");
+        }
+        return source.toString();
+    }
+
+    private static JsonObject metadata(LoggableEvent event) {
+        return new JsonParser().parse(event.getMetadata()).getAsJsonObject();
+    }
+
+    private static boolean isPatch(LoggableEvent event) {
+        JsonObject metadata = metadata(event);
+        return metadata.has("snapshot_encoding")
+                && metadata.get("snapshot_encoding").getAsString().equals("dmp_patch");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String applyPatch(String base, LoggableEvent event) {
+        DiffMatchPatch dmp = new DiffMatchPatch();
+        String patchText = new String(event.getData(), UTF8);
+        LinkedList<Patch> patches = (LinkedList<Patch>) dmp.patch_fromText(patchText);
+        return (String) dmp.patch_apply(patches, base)[0];
+    }
+
+    @Test
+    public void testSendsFirstEventUnchanged() {
+        LoggableEvent ev0 = mkEvent("ex1", source(20));
+
+        List<LoggableEvent> encoded = encoder.encode(Arrays.asList(ev0));
+
+        assertEquals(1, encoded.size());
+        assertSame(ev0, encoded.get(0));
+        assertFalse(isPatch(encoded.get(0)));
+    }
+
+    @Test
+    public void testSendsPatchAgainstPreviousEvent() {
+        String first = source(20);
+        String second = first.replace("rivi 7", "rivi seitsemän");
+        LoggableEvent ev0 = mkEvent("ex1", first);
+        LoggableEvent ev1 = mkEvent("ex1", second);
+        ev0.setHappenedAt(1000);
+
+        List<LoggableEvent> encoded = encoder.encode(Arrays.asList(ev0, ev1));
+
+        assertTrue(isPatch(encoded.get(1)));
+        assertEquals(1000, metadata(encoded.get(1)).get("delta_base").getAsLong());
+        assertEquals(ev1.getHappenedAt(), encoded.get(1).getHappenedAt());
+        assertTrue(encoded.get(1).getData().length < ev1.getData().length);
+        assertEquals(second, applyPatch(first, encoded.get(1)));
+    }
+
+    @Test
+    public void testDoesNotModifyGivenEvents() {
+        String first = source(20);
+        String second = first.replace("rivi 7", "rivi seitsemän");
+        LoggableEvent ev1 = mkEvent("ex1", second);
+
+        encoder.encode(Arrays.asList(mkEvent("ex1", first), ev1));
+
+        assertArrayEquals(second.getBytes(UTF8), ev1.getData());
+        assertFalse(isPatch(ev1));
+    }
+
+    @Test
+    public void testSendsKeyframesPeriodically() {
+        List<LoggableEvent> events = new ArrayList<>();
+        String text = source(20);
+        for (int i = 0; i < 7; i++) {
+            text += "        int x" + i + " = " + i + ";\n";
+            events.add(mkEvent("ex1", text));
+        }
+
+        List<LoggableEvent> encoded = encoder.encode(events);
+
+        assertFalse(isPatch(encoded.get(0)));
+        assertTrue(isPatch(encoded.get(1)));
+        assertTrue(isPatch(encoded.get(2)));
+        assertFalse(isPatch(encoded.get(3)));
+        assertTrue(isPatch(encoded.get(4)));
+        assertTrue(isPatch(encoded.get(5)));
+        assertFalse(isPatch(encoded.get(6)));
+    }
+
+    @Test
+    public void testSendsWholeWhenPatchIsNotSmaller() {
+        List<LoggableEvent> encoded = encoder.encode(Arrays.asList(mkEvent("ex1", "abc"), mkEvent("ex1", "xyz")));
+
+        assertFalse(isPatch(encoded.get(1)));
+        assertArrayEquals("xyz".getBytes(UTF8), encoded.get(1).getData());
+    }
+
+    @Test
+    public void testEncodesKeysIndependently() {
+        List<LoggableEvent> encoded =
+                encoder.encode(Arrays.asList(mkEvent("ex1", source(20)), mkEvent("ex2", source(20))));
+
+        assertFalse(isPatch(encoded.get(0)));
+        assertFalse(isPatch(encoded.get(1)));
+    }
+
+    @Test
+    public void testEncodesEachUploadOnItsOwn() {
+        String first = source(20);
+        encoder.encode(Arrays.asList(mkEvent("ex1", first)));
+
+        LoggableEvent ev1 = mkEvent("ex1", first.replace("rivi 7", "rivi seitsemän"));
+        List<LoggableEvent> encoded = encoder.encode(Arrays.asList(ev1));
+
+        assertSame(ev1, encoded.get(0));
+    }
+
+    @Test
+    public void testKeysEventsReadBackWithGson() {
+        String text = source(20);
+        LoggableEvent ex1 = roundTrip(mkEvent("ex1", text));
+        LoggableEvent ex2 = roundTrip(mkEvent("ex2", text + "        int x = 1;\n"));
+        LoggableEvent ex1Again = roundTrip(mkEvent("ex1", text + "        int y = 2;\n"));
+
+        List<LoggableEvent> encoded = encoder.encode(Arrays.asList(ex1, ex2, ex1Again));
+
+        assertSame(ex2, encoded.get(1));
+        assertTrue(isPatch(encoded.get(2)));
+        assertEquals(ex1.getHappenedAt(), metadata(encoded.get(2)).get("delta_base").getAsLong());
+    }
+
+    @Test
+    public void testDoesNotPatchAgainstAmbiguousTimestamp() {
+        String text = source(20);
+        LoggableEvent ev0 = mkEvent("ex1", text);
+        LoggableEvent ev1 = mkEvent("ex1", text + "        int x = 1;\n");
+        LoggableEvent ev2 = mkEvent("ex1", text + "        int x = 2;\n");
+        ev0.setHappenedAt(1000);
+        ev1.setHappenedAt(2000);
+        ev2.setHappenedAt(2000);
+
+        List<LoggableEvent> encoded = encoder.encode(Arrays.asList(ev0, ev1, ev2));
+
+        assertTrue(isPatch(encoded.get(1)));
+        assertSame(ev2, encoded.get(2));
+    }
+
+    @Test
+    public void testPassesBinaryDataThroughUnchanged() {
+        LoggableEvent ev0 = new LoggableEvent("course1", "ex1", "ty1", new byte[] {(byte) 0xff, 0x00});
+
+        List<LoggableEvent> encoded = encoder.encode(Arrays.asList(ev0));
+
+        assertSame(ev0, encoded.get(0));
+    }
+}
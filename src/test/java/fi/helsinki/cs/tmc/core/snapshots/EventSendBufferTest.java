@@ -2,6 +2,7 @@ package fi.helsinki.cs.tmc.core.snapshots;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
@@ -34,6 +35,7 @@ import org.mockito.Spy;
 
 import java.io.IOException;
 import java.net.URI;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -167,6 +169,84 @@ public class EventSendBufferTest {
         fail("Servers picked only contained: " + serversPicked);
     }
 
+    @Test
+    public void sendsBatchesToEveryServerAtOnce() throws TimeoutException, InterruptedException {
+        URI[] servers = new URI[] {
+            URI.create("http://example1.com/"),
+            URI.create("http://example2.com/"),
+            URI.create("http://example3.com/")
+        };
+        mockCourse.setSpywareUrls(Arrays.asList(servers));
+        sender.setMaxEventsPerSend(2);
+        sender.receiveEvent(ev1);
+        sender.receiveEvent(ev2);
+        sender.receiveEvent(ev3);
+        sender.receiveEvent(ev4);
+        sender.receiveEvent(ev5);
+        sender.sendNow();
+        sender.waitUntilCurrentSendingFinished(1000);
+
+        assertEquals(3, sendOperationsFinished.get());
+        assertEquals(new HashSet<>(Arrays.asList(servers)), new HashSet<>(spywareServerUrl.getAllValues()));
+        int sum = 0;
+        for (ArrayList<LoggableEvent> msg : sentEvents.getAllValues()) {
+            sum += msg.size();
+        }
+        assertEquals(5, sum);
+    }
+
+    private LoggableEvent mkSnapshot(String text) {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 20; ++i) {
+            source.append("        System.out.println(\"").append(i).append("\");\n");
+        }
+        source.append(text);
+        return new LoggableEvent("foo", "bar", "snapshot", source.toString().getBytes(Charset.forName("UTF-8")));
+    }
+
+    @Test
+    public void patchesEventsAgainstEarlierOnesInTheSameBatch() throws TimeoutException, InterruptedException {
+        LoggableEvent first = mkSnapshot("first");
+        LoggableEvent second = mkSnapshot("second");
+        second.setHappenedAt(first.getHappenedAt() + 1);
+        sender.setDeltaEncoding(true);
+        sender.receiveEvent(first);
+        sender.receiveEvent(second);
+        sender.sendNow();
+        sender.waitUntilCurrentSendingFinished(1000);
+
+        assertSame(first, sentEvents.getValue().get(0));
+        assertTrue(sentEvents.getValue().get(1).getMetadata().contains("dmp_patch"));
+    }
+
+    @Test
+    public void startsEveryBatchWithWholeEvents() throws TimeoutException, InterruptedException {
+        LoggableEvent first = mkSnapshot("first");
+        LoggableEvent second = mkSnapshot("second");
+        sender.setDeltaEncoding(true);
+        sender.setMaxEventsPerSend(1);
+        sender.receiveEvent(first);
+        sender.receiveEvent(second);
+        sender.sendNow();
+        sender.waitUntilCurrentSendingFinished(1000);
+
+        assertEquals(2, sentEvents.getAllValues().size());
+        assertSame(first, sentEvents.getAllValues().get(0).get(0));
+        assertSame(second, sentEvents.getAllValues().get(1).get(0));
+    }
+
+    @Test
+    public void sendsEventsWholeByDefault() throws TimeoutException, InterruptedException {
+        LoggableEvent first = mkSnapshot("first");
+        LoggableEvent second = mkSnapshot("second");
+        sender.receiveEvent(first);
+        sender.receiveEvent(second);
+        sender.sendNow();
+        sender.waitUntilCurrentSendingFinished(1000);
+
+        assertArrayEquals(new Object[] {first, second}, sentEvents.getValue().toArray());
+    }
+
     @Test
     public void autosendsPeriodically() throws InterruptedException {
         sender.receiveEvent(ev1);
@@ -265,6 +345,75 @@ public class EventSendBufferTest {
         assertArrayEquals(expecteds, sentEvents.getValue().toArray(new LoggableEvent[0]));
     }
 
+    @Test
+    public void limitsBatchesByEstimatedSize() throws TimeoutException, InterruptedException {
+        LoggableEvent large = new LoggableEvent("foo", "bar", "baz", new byte[4000]);
+        sender.setMaxBytesPerSend(3 * large.getEstimatedSize());
+        for (int i = 0; i < 10; ++i) {
+            sender.receiveEvent(large);
+        }
+        sender.sendNow();
+        sender.waitUntilCurrentSendingFinished(1000);
+
+        assertEquals(4, sentEvents.getAllValues().size());
+        assertEquals(3, sentEvents.getAllValues().get(0).size());
+        assertEquals(1, sentEvents.getAllValues().get(3).size());
+    }
+
+    @Test
+    public void sendsEventLargerThanBatchLimitAlone() throws TimeoutException, InterruptedException {
+        LoggableEvent large = new LoggableEvent("foo", "bar", "baz", new byte[4000]);
+        sender.setMaxBytesPerSend(100);
+        sender.receiveEvent(large);
+        sender.receiveEvent(ev1);
+        sender.sendNow();
+        sender.waitUntilCurrentSendingFinished(1000);
+
+        assertEquals(2, sentEvents.getAllValues().size());
+        assertArrayEquals(new LoggableEvent[] {large}, sentEvents.getAllValues().get(0).toArray());
+    }
+
+    @Test
+    public void discardsOldestEventsOverSizeLimit() throws TimeoutException, InterruptedException {
+        LoggableEvent large1 = new LoggableEvent("foo", "bar1", "baz", new byte[4000]);
+        LoggableEvent large2 = new LoggableEvent("foo", "bar2", "baz", new byte[4000]);
+        LoggableEvent large3 = new LoggableEvent("foo", "bar3", "baz", new byte[4000]);
+        sender.setMaxBytes(2 * large1.getEstimatedSize());
+
+        sender.receiveEvent(large1);
+        sender.receiveEvent(large2);
+        sender.receiveEvent(large3);
+        sender.saveNow(1000);
+
+        assertArrayEquals(new LoggableEvent[] {large2, large3}, savedEvents.getValue());
+    }
+
+    @Test
+    public void keepsNewestEventsFromConcurrentProducers() throws Exception {
+        sender.setMaxEvents(1000);
+        Thread[] producers = new Thread[4];
+        for (int t = 0; t < producers.length; ++t) {
+            producers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 5000; ++i) {
+                        sender.receiveEvent(ev1);
+                    }
+                }
+            });
+            producers[t].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        sender.receiveEvent(ev2);
+        sender.saveNow(1000);
+
+        LoggableEvent[] saved = savedEvents.getValue();
+        assertEquals(1000, saved.length);
+        assertEquals(ev2, saved[999]);
+    }
+
     @Test
     public void sendsEventsReceivedDuringSendingInSubsequentSend()
             throws TimeoutException, InterruptedException {
@@ -0,0 +1,223 @@
+package fi.helsinki.cs.tmc.core.snapshots;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import fi.helsinki.cs.tmc.core.configuration.TmcSettings;
+import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
+import fi.helsinki.cs.tmc.core.utils.MockSettings;
+import fi.helsinki.cs.tmc.snapshots.EventStore;
+import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class EventStoreTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    @Spy TmcSettings settings = new MockSettings();
+
+    private Path root;
+    private EventStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        MockitoAnnotations.initMocks(this);
+        root = folder.getRoot().toPath();
+        when(settings.getConfigRoot()).thenReturn(root);
+        TmcSettingsHolder.set(settings);
+        store = new EventStore();
+    }
+
+    private LoggableEvent mkEvent(int num, int size) {
+        return new LoggableEvent("course", "exercise" + num, "text_insert", new byte[size]);
+    }
+
+    private LoggableEvent[] mkEvents(int from, int to, int size) {
+        LoggableEvent[] events = new LoggableEvent[to - from];
+        for (int i = from; i < to; i++) {
+            events[i - from] = mkEvent(i, size);
+        }
+        return events;
+    }
+
+    private List<String> exerciseNames(LoggableEvent[] events) {
+        List<String> names = new ArrayList<>();
+        for (LoggableEvent event : events) {
+            names.add(event.getExerciseName());
+        }
+        return names;
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(root.resolve("events"), "*.log")) {
+            for (Path file : files) {
+                segments.add(file);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private long logSize() throws IOException {
+        long size = 0;
+        for (Path segment : segments()) {
+            size += Files.size(segment);
+        }
+        return size;
+    }
+
+    @Test
+    public void loadsSavedEvents() throws IOException {
+        LoggableEvent[] events = mkEvents(0, 3, 10);
+        store.save(events);
+
+        LoggableEvent[] loaded = new EventStore().load();
+
+        assertEquals(exerciseNames(events), exerciseNames(loaded));
+        assertEquals(10, loaded[2].getData().length);
+    }
+
+    @Test
+    public void appendsOnlyNewEvents() throws IOException {
+        LoggableEvent[] first = mkEvents(0, 100, 100);
+        store.save(first);
+        long sizeAfterFirst = logSize();
+
+        List<LoggableEvent> events = new ArrayList<>(Arrays.asList(first));
+        events.add(mkEvent(100, 100));
+        store.save(events.toArray(new LoggableEvent[0]));
+
+        long added = logSize() - sizeAfterFirst;
+        assertTrue(added > 100 && added < 2 * sizeAfterFirst / first.length);
+        assertEquals(101, new EventStore().load().length);
+    }
+
+    @Test
+    public void deletesSegmentsOnceTheirEventsAreGone() throws IOException {
+        LoggableEvent[] events = mkEvents(0, 3000, 1000);
+        store.save(events);
+        List<Path> segments = segments();
+        assertTrue(segments.size() > 2);
+
+        LoggableEvent[] remaining = Arrays.copyOfRange(events, 2500, 3000);
+        store.save(remaining);
+
+        assertFalse(Files.exists(segments.get(0)));
+        assertTrue(Files.exists(segments.get(segments.size() - 1)));
+        assertEquals(exerciseNames(remaining), exerciseNames(new EventStore().load()));
+    }
+
+    @Test
+    public void rewritesEventsThatDoNotContinueThePreviousSave() throws IOException {
+        LoggableEvent[] events = mkEvents(0, 3, 10);
+        store.save(events);
+
+        LoggableEvent[] reordered = new LoggableEvent[] {events[0], events[2], events[1]};
+        store.save(reordered);
+
+        assertEquals(exerciseNames(reordered), exerciseNames(new EventStore().load()));
+    }
+
+    @Test
+    public void savingNoEventsClearsTheLog() throws IOException {
+        store.save(mkEvents(0, 3, 10));
+        store.save(new LoggableEvent[0]);
+
+        assertEquals(0, new EventStore().load().length);
+        assertTrue(segments().isEmpty());
+    }
+
+    @Test
+    public void discardsIncompleteRecordAtTheEnd() throws IOException {
+        LoggableEvent[] events = mkEvents(0, 3, 10);
+        store.save(events);
+        Path segment = segments().get(0);
+        byte[] contents = Files.readAllBytes(segment);
+        Files.write(segment, Arrays.copyOf(contents, contents.length - 5));
+
+        EventStore reopened = new EventStore();
+        LoggableEvent[] loaded = reopened.load();
+        assertEquals(exerciseNames(Arrays.copyOf(events, 2)), exerciseNames(loaded));
+
+        reopened.save(new LoggableEvent[] {loaded[0], loaded[1], mkEvent(3, 10)});
+        assertEquals(3, new EventStore().load().length);
+    }
+
+    @Test
+    public void discardsZeroFilledTail() throws IOException {
+        LoggableEvent[] events = mkEvents(0, 3, 10);
+        store.save(events);
+        Path segment = segments().get(0);
+        byte[] contents = Files.readAllBytes(segment);
+        Files.write(segment, Arrays.copyOf(contents, contents.length + 64));
+
+        EventStore reopened = new EventStore();
+        LoggableEvent[] loaded = reopened.load();
+        assertEquals(exerciseNames(events), exerciseNames(loaded));
+        assertEquals(contents.length, Files.size(segment));
+
+        reopened.save(new LoggableEvent[] {loaded[0], loaded[1], loaded[2], mkEvent(3, 10)});
+        assertEquals(4, new EventStore().load().length);
+    }
+
+    @Test
+    public void skipsCorruptedRecords() throws IOException {
+        store.save(mkEvents(0, 3, 10));
+        Path segment = segments().get(0);
+        byte[] contents = Files.readAllBytes(segment);
+        contents[contents.length - 3] ^= 1;
+        Files.write(segment, contents);
+
+        assertEquals(2, new EventStore().load().length);
+    }
+
+    @Test
+    public void keepsRecordsAfterACorruptedOne() throws IOException {
+        LoggableEvent[] events = mkEvents(0, 3, 10);
+        store.save(events);
+        Path segment = segments().get(0);
+        byte[] contents = Files.readAllBytes(segment);
+        contents[contents.length / 2] ^= 1;
+        Files.write(segment, contents);
+
+        EventStore reopened = new EventStore();
+        LoggableEvent[] loaded = reopened.load();
+        assertEquals(exerciseNames(new LoggableEvent[] {events[0], events[2]}), exerciseNames(loaded));
+
+        reopened.save(new LoggableEvent[] {loaded[0], loaded[1], mkEvent(3, 10)});
+        assertEquals(3, new EventStore().load().length);
+    }
+
+    @Test
+    public void migratesEventsFromTheOldSingleFile() throws IOException {
+        String json = "[{\"courseName\":\"course\",\"exerciseName\":\"old\",\"eventType\":\"text_insert\","
+                + "\"data\":\"AAA=\"}]";
+        Files.write(root.resolve("Events.json"), json.getBytes(Charset.forName("UTF-8")));
+
+        LoggableEvent[] loaded = store.load();
+
+        assertEquals(Arrays.asList("old"), exerciseNames(loaded));
+        assertFalse(Files.exists(root.resolve("Events.json")));
+        assertEquals(Arrays.asList("old"), exerciseNames(new EventStore().load()));
+    }
+}
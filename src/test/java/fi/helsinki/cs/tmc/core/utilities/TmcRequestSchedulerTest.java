@@ -0,0 +1,66 @@
+package fi.helsinki.cs.tmc.core.utilities;
+
+import static org.junit.Assert.assertTrue;
+
+import fi.helsinki.cs.tmc.core.utilities.TmcRequestScheduler.Priority;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TmcRequestSchedulerTest {
+
+    private final TmcRequestScheduler scheduler = TmcRequestScheduler.instance;
+
+    @Test(timeout = 5000)
+    public void busyBulkClassDoesNotDelayInteractiveTasks() throws Exception {
+        final CountDownLatch releaseBulk = new CountDownLatch(1);
+        try {
+            for (int i = 0; i < scheduler.getConcurrencyLimit(Priority.BULK) + 1; i++) {
+                scheduler.getExecutor(Priority.BULK).submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        awaitQuietly(releaseBulk);
+                    }
+                });
+            }
+
+            final CountDownLatch interactiveDone = new CountDownLatch(1);
+            scheduler.getExecutor(Priority.INTERACTIVE).submit(new Runnable() {
+                @Override
+                public void run() {
+                    interactiveDone.countDown();
+                }
+            });
+
+            assertTrue(interactiveDone.await(1, TimeUnit.SECONDS));
+        } finally {
+            releaseBulk.countDown();
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void scheduledTasksRunInTheirClass() throws Exception {
+        final CountDownLatch ran = new CountDownLatch(1);
+        final String[] threadName = new String[1];
+        scheduler.schedule(Priority.BACKGROUND, new Runnable() {
+            @Override
+            public void run() {
+                threadName[0] = Thread.currentThread().getName();
+                ran.countDown();
+            }
+        }, 10, TimeUnit.MILLISECONDS);
+
+        assertTrue(ran.await(1, TimeUnit.SECONDS));
+        assertTrue(threadName[0].startsWith("tmc-background-"));
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
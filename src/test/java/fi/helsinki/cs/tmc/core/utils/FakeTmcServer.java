@@ -0,0 +1,462 @@
+package fi.helsinki.cs.tmc.core.utils;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A local stand-in for the TMC server for exercising the client under load
+ * without the real server.
+ *
+ * <p>Serves one organization with a configurable number of courses and
+ * exercises, exercise zips of a configurable size (resumable with
+ * {@code Range}), submissions that stay processing for a configurable number
+ * of polls, a spyware endpoint and the current user. Every response can be
+ * delayed and made to fail with a given probability.
+ *
+ * <p>Point the settings' server address to {@link #getServerAddress()} and
+ * select the organization {@link #ORGANIZATION_SLUG}.
+ */
+public class FakeTmcServer {
+
+    public static final String ORGANIZATION_SLUG = "fake";
+
+    public enum Endpoint {
+        ORGANIZATIONS, ORGANIZATION, COURSES, COURSE, EXERCISES, ZIP, SUBMIT, SUBMISSION, SPYWARE, USER
+    }
+
+    private static final Pattern ORGANIZATION = Pattern.compile("/api/v8/org/([^/]+)\\.json");
+    private static final Pattern COURSES = Pattern.compile("/api/v8/core/org/([^/]+)/courses\\.json");
+    private static final Pattern COURSE = Pattern.compile("/api/v8/core/courses/(\\d+)");
+    private static final Pattern EXERCISES = Pattern.compile("/api/v8/courses/(\\d+)/exercises");
+    private static final Pattern ZIP = Pattern.compile("/exercises/(\\d+)\\.zip");
+    private static final Pattern SUBMIT = Pattern.compile("/exercises/(\\d+)/submissions\\.json");
+    private static final Pattern SUBMISSION = Pattern.compile("/submissions/(\\d+)\\.json");
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-");
+    private static final String[] SANDBOX_STATUSES = {"created", "sending_to_sandbox", "processing_on_sandbox"};
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    private volatile int courseCount = 2;
+    private volatile int exercisesPerCourse = 10;
+    private volatile int zipSize = 64 * 1024;
+    private volatile int processingPolls = 2;
+    private volatile long minLatency = 0;
+    private volatile long maxLatency = 0;
+    private volatile double errorRate = 0;
+    private volatile byte[] zip;
+
+    private final AtomicInteger nextSubmissionId = new AtomicInteger(1);
+    private final Map<Integer, AtomicInteger> submissionPolls = new ConcurrentHashMap<>();
+    private final Map<Endpoint, AtomicInteger> requestCounts = new EnumMap<>(Endpoint.class);
+    private final AtomicInteger failedRequests = new AtomicInteger();
+    private final AtomicLong spywareBytes = new AtomicLong();
+
+    public FakeTmcServer() throws IOException {
+        for (Endpoint endpoint : Endpoint.values()) {
+            requestCounts.put(endpoint, new AtomicInteger());
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executor = Executors.newCachedThreadPool(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("fake-tmc-server-%d").build());
+        server.setExecutor(executor);
+        server.createContext("/", new Router());
+    }
+
+    public FakeTmcServer start() {
+        server.start();
+        return this;
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String getServerAddress() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    public URI getSpywareUrl() {
+        return URI.create(getServerAddress() + "spyware");
+    }
+
+    public FakeTmcServer setCourseCount(int courseCount) {
+        checkArgument(courseCount >= 0);
+        this.courseCount = courseCount;
+        return this;
+    }
+
+    public FakeTmcServer setExercisesPerCourse(int exercisesPerCourse) {
+        checkArgument(exercisesPerCourse >= 0);
+        this.exercisesPerCourse = exercisesPerCourse;
+        return this;
+    }
+
+    /**
+     * Sets the approximate size of each exercise zip in bytes.
+     */
+    public FakeTmcServer setZipSize(int zipSize) {
+        checkArgument(zipSize >= 0);
+        this.zipSize = zipSize;
+        this.zip = null;
+        return this;
+    }
+
+    /**
+     * Sets how many polls a submission reports as processing before its
+     * result is ready.
+     */
+    public FakeTmcServer setProcessingPolls(int processingPolls) {
+        checkArgument(processingPolls >= 0);
+        this.processingPolls = processingPolls;
+        return this;
+    }
+
+    /**
+     * Delays every response by a random time between the given bounds.
+     */
+    public FakeTmcServer setLatency(long minMillis, long maxMillis) {
+        checkArgument(0 <= minMillis && minMillis <= maxMillis);
+        this.minLatency = minMillis;
+        this.maxLatency = maxMillis;
+        return this;
+    }
+
+    /**
+     * Sets the probability of answering a request with 503 Service
+     * Unavailable instead of serving it.
+     */
+    public FakeTmcServer setErrorRate(double errorRate) {
+        checkArgument(0 <= errorRate && errorRate <= 1);
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    public int getRequestCount(Endpoint endpoint) {
+        return requestCounts.get(endpoint).get();
+    }
+
+    public int getFailedRequestCount() {
+        return failedRequests.get();
+    }
+
+    /**
+     * Returns the number of request body bytes received by the spyware
+     * endpoint, as sent over the wire.
+     */
+    public long getSpywareBytes() {
+        return spywareBytes.get();
+    }
+
+    private class Router implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                route(exchange);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException ex) {
+                send(exchange, 500, "text/plain", ex.toString().getBytes(StandardCharsets.UTF_8));
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void route(HttpExchange exchange) throws IOException, InterruptedException {
+            String path = exchange.getRequestURI().getPath();
+            Matcher matcher;
+            Endpoint endpoint;
+            if (path.equals("/api/v8/org")) {
+                endpoint = Endpoint.ORGANIZATIONS;
+            } else if (path.equals("/api/v8/users/current")) {
+                endpoint = Endpoint.USER;
+            } else if (path.equals("/spyware")) {
+                endpoint = Endpoint.SPYWARE;
+            } else if (ORGANIZATION.matcher(path).matches()) {
+                endpoint = Endpoint.ORGANIZATION;
+            } else if (COURSES.matcher(path).matches()) {
+                endpoint = Endpoint.COURSES;
+            } else if (COURSE.matcher(path).matches()) {
+                endpoint = Endpoint.COURSE;
+            } else if (EXERCISES.matcher(path).matches()) {
+                endpoint = Endpoint.EXERCISES;
+            } else if (ZIP.matcher(path).matches()) {
+                endpoint = Endpoint.ZIP;
+            } else if (SUBMIT.matcher(path).matches()) {
+                endpoint = Endpoint.SUBMIT;
+            } else if (SUBMISSION.matcher(path).matches()) {
+                endpoint = Endpoint.SUBMISSION;
+            } else {
+                send(exchange, 404, "text/plain", new byte[0]);
+                return;
+            }
+            requestCounts.get(endpoint).incrementAndGet();
+
+            byte[] body = ByteStreams.toByteArray(exchange.getRequestBody());
+            delay();
+            if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                failedRequests.incrementAndGet();
+                sendJson(exchange, 503, error("Service unavailable"));
+                return;
+            }
+
+            switch (endpoint) {
+                case ORGANIZATIONS:
+                    JsonArray organizations = new JsonArray();
+                    organizations.add(organization());
+                    sendJson(exchange, 200, organizations);
+                    break;
+                case ORGANIZATION:
+                    sendJson(exchange, 200, organization());
+                    break;
+                case COURSES:
+                    JsonArray courses = new JsonArray();
+                    for (int id = 1; id <= courseCount; id++) {
+                        courses.add(course(id, false));
+                    }
+                    sendJson(exchange, 200, courses);
+                    break;
+                case COURSE:
+                    matcher = COURSE.matcher(path);
+                    matcher.matches();
+                    JsonObject info = new JsonObject();
+                    info.addProperty("api_version", 8);
+                    info.add("course", course(Integer.parseInt(matcher.group(1)), true));
+                    sendJson(exchange, 200, info);
+                    break;
+                case EXERCISES:
+                    matcher = EXERCISES.matcher(path);
+                    matcher.matches();
+                    sendJson(exchange, 200, exercises(Integer.parseInt(matcher.group(1))));
+                    break;
+                case ZIP:
+                    sendZip(exchange);
+                    break;
+                case SUBMIT:
+                    int id = nextSubmissionId.getAndIncrement();
+                    submissionPolls.put(id, new AtomicInteger());
+                    JsonObject submitted = new JsonObject();
+                    submitted.addProperty("submission_url", getServerAddress() + "submissions/" + id + ".json");
+                    submitted.addProperty("paste_url", getServerAddress() + "paste/" + id);
+                    submitted.addProperty("show_submission_url", getServerAddress() + "submissions/" + id);
+                    sendJson(exchange, 200, submitted);
+                    break;
+                case SUBMISSION:
+                    matcher = SUBMISSION.matcher(path);
+                    matcher.matches();
+                    AtomicInteger polls = submissionPolls.get(Integer.parseInt(matcher.group(1)));
+                    if (polls == null) {
+                        sendJson(exchange, 404, error("No such submission"));
+                    } else {
+                        sendJson(exchange, 200, submissionStatus(polls.getAndIncrement()));
+                    }
+                    break;
+                case SPYWARE:
+                    spywareBytes.addAndGet(body.length);
+                    sendJson(exchange, 200, new JsonObject());
+                    break;
+                case USER:
+                    JsonObject user = new JsonObject();
+                    user.addProperty("id", 1);
+                    user.addProperty("username", "fake");
+                    user.addProperty("email", "fake@example.com");
+                    user.addProperty("administrator", false);
+                    sendJson(exchange, 200, user);
+                    break;
+                default:
+                    throw new AssertionError(endpoint);
+            }
+        }
+    }
+
+    private void delay() throws InterruptedException {
+        long min = minLatency;
+        long max = maxLatency;
+        if (max > 0) {
+            Thread.sleep(min + (long) (ThreadLocalRandom.current().nextDouble() * (max - min)));
+        }
+    }
+
+    private JsonObject organization() {
+        JsonObject organization = new JsonObject();
+        organization.addProperty("name", "Fake organization");
+        organization.addProperty("information", "Served by FakeTmcServer");
+        organization.addProperty("slug", ORGANIZATION_SLUG);
+        organization.addProperty("logo_path", "/logos/missing.png");
+        organization.addProperty("pinned", false);
+        return organization;
+    }
+
+    private JsonObject course(int id, boolean withExercises) {
+        String base = getServerAddress();
+        JsonObject course = new JsonObject();
+        course.addProperty("id", id);
+        course.addProperty("name", "fake-course-" + id);
+        course.addProperty("title", "Fake course " + id);
+        course.addProperty("description", "");
+        course.addProperty("details_url", base + "api/v8/core/courses/" + id);
+        course.addProperty("unlock_url", base + "api/v8/core/courses/" + id + "/unlock");
+        course.addProperty("reviews_url", base + "api/v8/core/courses/" + id + "/reviews");
+        course.addProperty("comet_url", base + "comet");
+        JsonArray spywareUrls = new JsonArray();
+        spywareUrls.add(new JsonPrimitive(getSpywareUrl().toString()));
+        course.add("spyware_urls", spywareUrls);
+        course.add("unlockables", new JsonArray());
+        course.add("exercises", withExercises ? exercises(id) : new JsonArray());
+        return course;
+    }
+
+    private JsonArray exercises(int courseId) {
+        String base = getServerAddress();
+        JsonArray exercises = new JsonArray();
+        for (int i = 0; i < exercisesPerCourse; i++) {
+            int id = courseId * 1000 + i;
+            JsonObject exercise = new JsonObject();
+            exercise.addProperty("id", id);
+            exercise.addProperty("name", "fake-exercise-" + id);
+            exercise.addProperty("locked", false);
+            exercise.addProperty("checksum", "checksum-" + id + "-" + zipSize);
+            exercise.addProperty("zip_url", base + "exercises/" + id + ".zip");
+            exercise.addProperty("return_url", base + "exercises/" + id + "/submissions.json");
+            exercise.addProperty("returnable", true);
+            exercise.addProperty("requires_review", false);
+            exercise.addProperty("attempted", false);
+            exercise.addProperty("completed", false);
+            exercise.addProperty("reviewed", false);
+            exercise.addProperty("all_review_points_given", true);
+            exercise.add("runtime_params", new JsonArray());
+            exercise.addProperty("code_review_requests_enabled", true);
+            exercise.addProperty("run_tests_locally_action_enabled", true);
+            exercises.add(exercise);
+        }
+        return exercises;
+    }
+
+    private JsonObject submissionStatus(int poll) {
+        JsonObject status = new JsonObject();
+        status.addProperty("api_version", 8);
+        status.addProperty("user_id", 1);
+        status.addProperty("exercise_name", "fake-exercise");
+        status.add("points", new JsonArray());
+        if (poll < processingPolls) {
+            status.addProperty("status", "processing");
+            status.addProperty("all_tests_passed", false);
+            status.addProperty("sandbox_status", SANDBOX_STATUSES[Math.min(poll, SANDBOX_STATUSES.length - 1)]);
+            return status;
+        }
+        status.addProperty("status", "ok");
+        status.addProperty("all_tests_passed", true);
+        status.addProperty("processing_time", 1);
+        status.addProperty("message_for_paste", "");
+        status.add("missing_review_points", new JsonArray());
+        JsonArray testCases = new JsonArray();
+        JsonObject testCase = new JsonObject();
+        testCase.addProperty("name", "FakeTest test");
+        testCase.addProperty("successful", true);
+        testCases.add(testCase);
+        status.add("test_cases", testCases);
+        status.add("feedback_questions", new JsonArray());
+        status.addProperty("requests_review", false);
+        return status;
+    }
+
+    private void sendZip(HttpExchange exchange) throws IOException {
+        byte[] zip = getZip();
+        String etag = "\"zip-" + zip.length + "\"";
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        Matcher matcher = RANGE.matcher(range != null ? range : "");
+        if (matcher.matches() && (ifRange == null || ifRange.equals(etag))) {
+            int offset = Integer.parseInt(matcher.group(1));
+            if (offset >= zip.length) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + zip.length);
+                send(exchange, 416, "text/plain", new byte[0]);
+                return;
+            }
+            exchange.getResponseHeaders().set(
+                    "Content-Range", "bytes " + offset + "-" + (zip.length - 1) + "/" + zip.length);
+            byte[] rest = new byte[zip.length - offset];
+            System.arraycopy(zip, offset, rest, 0, rest.length);
+            send(exchange, 206, "application/zip", rest);
+        } else {
+            send(exchange, 200, "application/zip", zip);
+        }
+    }
+
+    /**
+     * Every exercise gets the same zip: one entry of random bytes, so that
+     * it is roughly the requested size as random bytes don't compress.
+     */
+    private byte[] getZip() throws IOException {
+        byte[] zip = this.zip;
+        if (zip == null) {
+            byte[] content = new byte[zipSize];
+            new Random(0).nextBytes(content);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(zipSize + 1024);
+            try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+                out.putNextEntry(new ZipEntry("src/Content.bin"));
+                out.write(content);
+                out.closeEntry();
+            }
+            zip = bytes.toByteArray();
+            this.zip = zip;
+        }
+        return zip;
+    }
+
+    private static JsonObject error(String message) {
+        JsonObject error = new JsonObject();
+        error.addProperty("error", message);
+        return error;
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, JsonElement json) throws IOException {
+        send(exchange, status, "application/json; charset=utf-8", json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body)
+            throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package fi.helsinki.cs.tmc.core.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import fi.helsinki.cs.tmc.core.communication.TmcServerCommunicationTaskFactory;
+import fi.helsinki.cs.tmc.core.communication.TmcServerCommunicationTaskFactory.SubmissionResponse;
+import fi.helsinki.cs.tmc.core.communication.oauth2.Oauth;
+import fi.helsinki.cs.tmc.core.communication.serialization.SubmissionResultParser;
+import fi.helsinki.cs.tmc.core.domain.Course;
+import fi.helsinki.cs.tmc.core.domain.Exercise;
+import fi.helsinki.cs.tmc.core.domain.Organization;
+import fi.helsinki.cs.tmc.core.domain.submission.SubmissionResult;
+import fi.helsinki.cs.tmc.core.holders.TmcSettingsHolder;
+import fi.helsinki.cs.tmc.snapshots.LoggableEvent;
+
+import com.google.common.base.Optional;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.ZipFile;
+
+public class FakeTmcServerTest {
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeTmcServer server;
+    private TmcServerCommunicationTaskFactory factory;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeTmcServer().setCourseCount(3).setExercisesPerCourse(4).setProcessingPolls(2).start();
+        MockSettings settings = new MockSettings();
+        settings.setServerAddress(server.getServerAddress());
+        settings.setToken(Optional.of("token"));
+        settings.setOrganization(Optional.of(
+                new Organization("Fake", "", FakeTmcServer.ORGANIZATION_SLUG, "", false)));
+        TmcSettingsHolder.set(settings);
+        factory = new TmcServerCommunicationTaskFactory(settings, new Oauth() {});
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void servesCoursesAndExercises() throws Exception {
+        List<Organization> organizations = factory.getOrganizationListTask();
+        List<Course> courses = factory.getDownloadingCourseListTask().call();
+        Course course = factory.getFullCourseInfoTask(courses.get(0)).call();
+
+        assertEquals(FakeTmcServer.ORGANIZATION_SLUG, organizations.get(0).getSlug());
+        assertEquals(3, courses.size());
+        assertEquals(4, course.getExercises().size());
+        assertEquals(4, factory.getExercisesForCourse(course.getId()).size());
+    }
+
+    @Test
+    public void servesValidExerciseZips() throws Exception {
+        Course course = factory.getFullCourseInfoTask(factory.getDownloadingCourseListTask().call().get(0)).call();
+        Path target = folder.getRoot().toPath().resolve("exercise.zip");
+
+        factory.getDownloadingExerciseZipTask(course.getExercises().get(0), target).call();
+
+        try (ZipFile zip = new ZipFile(target.toFile())) {
+            assertEquals(1, zip.size());
+        }
+    }
+
+    @Test
+    public void submissionsAreProcessedAfterConfiguredPolls() throws Exception {
+        Course course = factory.getFullCourseInfoTask(factory.getDownloadingCourseListTask().call().get(0)).call();
+        Exercise exercise = course.getExercises().get(0);
+
+        SubmissionResponse response = factory
+                .getSubmittingExerciseTask(exercise, new byte[100], new HashMap<String, String>()).call();
+        SubmissionResultParser parser = new SubmissionResultParser();
+        String first = factory.getSubmissionFetchTask(response.submissionUrl).call();
+        String second = factory.getSubmissionFetchTask(response.submissionUrl).call();
+        String third = factory.getSubmissionFetchTask(response.submissionUrl).call();
+
+        assertEquals(SubmissionResult.Status.PROCESSING, parser.parseFromJson(first).getStatus());
+        assertEquals(SubmissionResult.Status.PROCESSING, parser.parseFromJson(second).getStatus());
+        assertEquals(SubmissionResult.Status.OK, parser.parseFromJson(third).getStatus());
+    }
+
+    @Test
+    public void spywareEndpointCountsReceivedBytes() throws Exception {
+        List<LoggableEvent> events = Collections.singletonList(
+                new LoggableEvent("course", "exercise", "text_insert", new byte[1000]));
+
+        factory.getSendEventLogJob(server.getSpywareUrl(), events).call();
+
+        assertEquals(1, server.getRequestCount(FakeTmcServer.Endpoint.SPYWARE));
+        assertTrue(server.getSpywareBytes() > 0);
+    }
+
+    @Test
+    public void injectedErrorsAreCounted() throws Exception {
+        server.setErrorRate(1);
+
+        try {
+            factory.getDownloadingCourseListTask().call();
+        } catch (Exception expected) {
+            // Every attempt fails
+        }
+
+        assertTrue(server.getFailedRequestCount() > 0);
+        assertEquals(server.getFailedRequestCount(), server.getRequestCount(FakeTmcServer.Endpoint.COURSES));
+    }
+}